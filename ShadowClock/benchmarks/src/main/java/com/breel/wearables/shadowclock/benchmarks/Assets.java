@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.benchmarks;
+
+import com.breel.wearables.shadowclock.glyphs.GlyphCompiler;
+import com.breel.wearables.shadowclock.glyphs.GlyphSimplifier;
+import com.breel.wearables.shadowclock.graphics.GlyphFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Access to the assets of the wear module from the benchmarks
+ */
+final class Assets {
+
+    static final List<String> GLYPH_SETS = Arrays.asList("json", "json_lowpoly");
+
+    // Levels of detail generated like the compileGlyphs task of the wear module does, named
+    // json_lod0 and up
+    static final String LOD_SOURCE = "json";
+    static final float[] LOD_DENSITIES = {1.0f, 1.5f, 2.0f, 3.0f};
+    static final float LOD_PIXEL_ERROR = 0.5f;
+
+    // Layout of a digit on a 320 x 320 dial, as set up by ShadowDialController
+    static final int CANVAS_SIZE = 320;
+    static final float DIGIT_SCALE = 0.8f;
+    static final float DIGIT_X = 70.0f;
+    static final float DIGIT_Y = 70.0f;
+
+    private Assets() {
+    }
+
+
+    /**
+     * The assets directory, set by the jmh task
+     */
+    static File dir() {
+        return new File(System.getProperty("benchmarks.assets", "../wear/src/main/assets"));
+    }
+
+
+    /**
+     * Compiles the glyph file like the wear build does and returns its content
+     */
+    static byte[] compileGlyphs() throws IOException {
+        File output = File.createTempFile("glyphs", ".bin");
+        try {
+            float[] lodErrors = new float[LOD_DENSITIES.length];
+            for (int i = 0; i < lodErrors.length; i++) {
+                lodErrors[i] = GlyphSimplifier.toGlyphUnits(LOD_PIXEL_ERROR, LOD_DENSITIES[i], DIGIT_SCALE);
+            }
+            GlyphCompiler.compile(dir(), GLYPH_SETS, LOD_SOURCE, lodErrors, output);
+            return Files.readAllBytes(output.toPath());
+        } finally {
+            output.delete();
+        }
+    }
+
+
+    static GlyphFile glyphFile() throws IOException {
+        return new GlyphFile(ByteBuffer.wrap(compileGlyphs()));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.benchmarks;
+
+import com.breel.wearables.shadowclock.graphics.Gaussian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gaussian CDF over the hours of the day, as used for the sunlight intensity
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaussianBenchmark {
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    private int minute = 0;
+
+
+    @Benchmark
+    public double phi() {
+        int m = minute;
+        minute = (m + 1) % MINUTES_PER_DAY;
+        return Gaussian.getPhi(m / 60.0f, 12.0f, 3.65f);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.benchmarks;
+
+import com.breel.wearables.shadowclock.glyphs.GlyphCompiler;
+import com.breel.wearables.shadowclock.graphics.GlyphFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the ten digits of a set: parsing the JSON assets and subtracting the holes (what the
+ * watch face used to do at runtime) versus reading the compiled glyph file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlyphLoadingBenchmark {
+
+    @Param({"json", "json_lowpoly"})
+    public String set;
+
+    private File[] files;
+    private byte[] glyphFile;
+    private int setIndex;
+
+    private byte[] verbs;
+    private float[] coords;
+    private int[] contourEnds;
+    private float[] xs;
+    private float[] ys;
+
+
+    @Setup
+    public void setup() throws IOException {
+        files = new File[GlyphCompiler.GLYPHS_PER_SET];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(new File(Assets.dir(), set), i + ".json");
+        }
+
+        glyphFile = Assets.compileGlyphs();
+        GlyphFile glyphs = new GlyphFile(ByteBuffer.wrap(glyphFile));
+        setIndex = glyphs.findSet(set);
+        verbs = new byte[glyphs.getMaxVerbs()];
+        coords = new float[glyphs.getMaxCoords()];
+        contourEnds = new int[glyphs.getMaxShadowContours()];
+        xs = new float[glyphs.getMaxShadowPoints()];
+        ys = new float[glyphs.getMaxShadowPoints()];
+    }
+
+
+    @Benchmark
+    public void parseJson(Blackhole blackhole) throws IOException {
+        for (File file : files) {
+            blackhole.consume(GlyphCompiler.readGlyph(file));
+        }
+    }
+
+
+    @Benchmark
+    public void readBinary(Blackhole blackhole) {
+        GlyphFile glyphs = new GlyphFile(ByteBuffer.wrap(glyphFile));
+        for (int i = 0; i < glyphs.getGlyphsPerSet(); i++) {
+            int record = glyphs.findGlyph(setIndex, i);
+            blackhole.consume(glyphs.readVerbs(record, verbs));
+            blackhole.consume(glyphs.readCoords(record, coords));
+            blackhole.consume(glyphs.readShadowContourEnds(record, contourEnds));
+            blackhole.consume(glyphs.readShadowPoints(record, xs, ys));
+        }
+        blackhole.consume(coords);
+        blackhole.consume(xs);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.benchmarks;
+
+import com.breel.wearables.shadowclock.graphics.GlyphFile;
+import com.breel.wearables.shadowclock.graphics.ShadowVolume;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shadow outline of every digit, with the sun going around the dial
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShadowVolumeBenchmark {
+
+    // Sun positions visited, one every degree
+    private static final int SUN_ANGLES = 360;
+
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"})
+    public int digit;
+
+    @Param({"json", "json_lowpoly", "json_lod0", "json_lod1"})
+    public String set;
+
+    private float[] xs;
+    private float[] ys;
+    private int[] contourEnds;
+    private int contourCount;
+
+    private final float[] sunXs = new float[SUN_ANGLES];
+    private final float[] sunYs = new float[SUN_ANGLES];
+    private int sunAngle = 0;
+
+    private ShadowVolume volume;
+
+
+    @Setup
+    public void setup() throws IOException {
+        GlyphFile glyphs = Assets.glyphFile();
+        int record = glyphs.findGlyph(glyphs.findSet(set), digit);
+
+        xs = new float[glyphs.getShadowPointCount(record)];
+        ys = new float[xs.length];
+        contourEnds = new int[glyphs.getShadowContourCount(record)];
+        contourCount = glyphs.readShadowContourEnds(record, contourEnds);
+        int count = glyphs.readShadowPoints(record, xs, ys);
+        for (int i = 0; i < count; i++) {
+            xs[i] = xs[i] * Assets.DIGIT_SCALE + Assets.DIGIT_X;
+            ys[i] = ys[i] * Assets.DIGIT_SCALE + Assets.DIGIT_Y;
+        }
+
+        // Same orbit as ShadowDialController
+        float center = Assets.CANVAS_SIZE / 2;
+        for (int i = 0; i < SUN_ANGLES; i++) {
+            double angle = 2 * Math.PI * i / SUN_ANGLES;
+            sunXs[i] = (float) (center + (center + 200.0f) * Math.cos(angle));
+            sunYs[i] = (float) (center + (center + 200.0f) * Math.sin(angle));
+        }
+
+        volume = new ShadowVolume(xs.length, contourEnds.length);
+    }
+
+
+    @Benchmark
+    public int build() {
+        int angle = sunAngle;
+        sunAngle = (angle + 1) % SUN_ANGLES;
+        volume.build(xs, ys, contourEnds, contourCount, sunXs[angle], sunYs[angle], ShadowVolume.DEFAULT_EXTRUSION);
+        return volume.getPointCount();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.benchmarks;
+
+import com.breel.wearables.shadowclock.utils.WallClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall clock updated on every tick of the watch face, driven by a simulated clock that advances
+ * a minute per call across a DST transition
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WallClockBenchmark {
+
+    // 2015-03-29 00:00 UTC, the night of the spring transition in Europe
+    private static final long START_MILLIS = 1427587200000L;
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+
+    private long now = START_MILLIS;
+
+    private final WallClock clock = new WallClock(new WallClock.TimeSource() {
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+    }, TimeZone.getTimeZone("Europe/Stockholm"));
+
+
+    @Benchmark
+    public int setToNow() {
+        now += MINUTE_MILLIS;
+        clock.setToNow();
+        return clock.getMinuteOfDay();
+    }
+}
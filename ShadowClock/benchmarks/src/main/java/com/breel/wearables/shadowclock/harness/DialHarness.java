@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.harness;
+
+import com.breel.wearables.shadowclock.controllers.DaylightProfile;
+import com.breel.wearables.shadowclock.controllers.DialScene;
+import com.breel.wearables.shadowclock.controllers.DialStyle;
+import com.breel.wearables.shadowclock.controllers.SunSweep;
+import com.breel.wearables.shadowclock.diagnostics.FrameStats;
+import com.breel.wearables.shadowclock.diagnostics.Histogram;
+import com.breel.wearables.shadowclock.glyphs.GlyphCompiler;
+import com.breel.wearables.shadowclock.glyphs.GlyphSimplifier;
+import com.breel.wearables.shadowclock.graphics.GlyphFile;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Renders every minute of a day on a few screen configurations without a device, times each
+ * frame and compares sampled frames against golden images.
+ * <p>
+ * The frames are drawn by the DialScene of the watch through the Java2D renderer, so the run
+ * can also be profiled on a workstation (e.g. -Pharness.jvmArgs=-XX:StartFlightRecording=...).
+ * <p>
+ * Only the Android free code of the watch runs here, so the golden images cover the layers and
+ * overlays of DialScene, the colors of DialStyle and DaylightProfile, the sun positions of
+ * SunSweep, the compiled glyph sets, and the digits drawn by the ShapeShadow of the watch (see
+ * {@link ShapeShadowDigits}): their shadow volumes, the ShadowPathCache and the ambient rasters.
+ * Not covered: ShadowDialController itself (Android only, ShapeShadowDigits sets the digits up
+ * like it does), the shadow sprites of ShadowAtlas, the composite bitmap, MinutePrecompute, the
+ * levels of the QualityGovernor, CanvasRenderer and the animation frames (every frame is drawn
+ * at rest). The overlays are drawn directly, their bitmap mode is only covered by changing the
+ * arguments of createOverlays.
+ * <p>
+ * Run with ./gradlew :benchmarks:renderHarness. Properties (passed as -P to gradle):
+ * <ul>
+ * <li>harness.days: number of days rendered, only the last one is compared, defaults to 1</li>
+ * <li>harness.record: writes the golden images instead of comparing against them</li>
+ * <li>harness.golden: directory of the golden images, defaults to benchmarks/golden</li>
+ * <li>harness.goldenStride: minutes between two golden images, defaults to 15</li>
+ * <li>harness.tolerance: maximum difference of a channel for a pixel to match, defaults to 8</li>
+ * <li>harness.glyphs: set of digits drawn, defaults to json_lowpoly. json_lod0 is the level of
+ * detail the watch picks on a hdpi screen.</li>
+ * </ul>
+ * Writes timings.csv (one line per frame) and report.txt to build/reports/harness, and exits
+ * with 1 if any frame doesn't match its golden image or has none.
+ * <p>
+ * The golden images aren't checked in: Java2D antialiases differently across JDKs, so they're
+ * recorded on the machine comparing them. To check that a change draws the same frames, record
+ * them on the commit before it, checked out in a git worktree by the recordGolden task (pass
+ * -Pharness.baseline=&lt;commit&gt; for another one), then compare on the change:
+ * <pre>
+ * ./gradlew :benchmarks:recordGolden
+ * ./gradlew :benchmarks:renderHarness
+ * </pre>
+ */
+public final class DialHarness {
+
+    private static final String GLYPH_SET = System.getProperty("harness.glyphs", "json_lowpoly");
+
+    // Sets compiled, plus the level of detail of the detailed digits for the density
+    private static final String[] GLYPH_SOURCES = {"json", "json_lowpoly"};
+    private static final String LOD_SOURCE = "json";
+    private static final float LOD_PIXEL_ERROR = 0.5f;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int WARMUP_MINUTES = 120;
+
+    // Density of a hdpi watch, scales the blur
+    private static final float DENSITY = 1.5f;
+
+    private static final int AMBIENT_BACKGROUND = 0xFF000000;
+
+    // Ratio of the pixels of a frame allowed to differ beyond the tolerance
+    private static final double MAX_DIFFERING_RATIO = 0.001;
+
+    private static final Config[] CONFIGS = {
+            new Config("round", 320, 320, true),
+            new Config("square", 280, 280, false),
+    };
+
+    private static final class Config {
+        final String name;
+        final int width;
+        final int height;
+        final boolean round;
+
+        Config(String _name, int _width, int _height, boolean _round) {
+            name = _name;
+            width = _width;
+            height = _height;
+            round = _round;
+        }
+    }
+
+    /**
+     * A dial of a configuration, with the objects the controller would own
+     */
+    private static final class Dial {
+        final Config config;
+        final Java2DRenderer renderer;
+        final DialScene scene = new DialScene();
+        final ShapeShadowDigits digits;
+        final DaylightProfile profile;
+        final DialStyle style = new DialStyle();
+        final FrameStats stats = new FrameStats();
+
+        Dial(Config _config, GlyphFile glyphs, DaylightProfile _profile) {
+            config = _config;
+            profile = _profile;
+            renderer = new Java2DRenderer(new BufferedImage(config.width, config.height, BufferedImage.TYPE_INT_ARGB));
+            digits = new ShapeShadowDigits(renderer, glyphs, GLYPH_SET, config.width, config.height, DENSITY);
+
+            // Same as the service and ShadowDialController on a screen without insets
+            scene.createOverlays(renderer, DialScene.overlaySize(config.width, config.height, config.round), true, 1.0f, DENSITY);
+            scene.setOverlayLayout(config.round, config.width, 0, 0);
+            scene.setBounds(0, 0, config.width, config.height);
+            scene.setShineBounds(0, 0, config.width, config.height);
+            scene.setFrameStats(stats);
+        }
+
+        /**
+         * Draws the frame of a minute of the day at rest (not animating)
+         */
+        void render(int hour, int minute, int mode) {
+            if (!profile.get(hour, minute, style)) {
+                style.update(hour, minute);
+            }
+            boolean ambient = mode != ShapeShadowDigits.MODE_INTERACTIVE;
+
+            scene.setBackgroundColor(ambient ? AMBIENT_BACKGROUND : style.backgroundColor);
+            scene.updateOverlays(style, DialScene.overlayAngle(minute));
+
+            int bucket = SunSweep.sunAngleBucket(minute, 0.0f);
+            digits.setSun(bucket, SunSweep.sunX(bucket, config.width), SunSweep.sunY(bucket, config.width, config.height));
+            digits.setTime(hour, minute);
+            // Like the service, the styles of the minute are only applied to the interactive dial,
+            // the ambient modes keep their own colors
+            digits.setMode(mode);
+            if (!ambient) {
+                digits.setShapeColor(style.shapeColor);
+                digits.setShadowGradientRadius(style.shadowGradientRadius);
+            }
+
+            long start = FrameStats.now();
+            scene.draw(renderer, digits, ambient);
+            stats.endPhase(FrameStats.PHASE_FRAME, start);
+            stats.countFrame(ambient ? FrameStats.MODE_AMBIENT : FrameStats.MODE_INTERACTIVE);
+        }
+    }
+
+    private DialHarness() {
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        File assets = new File(System.getProperty("benchmarks.assets", "../wear/src/main/assets"));
+        File reports = new File(System.getProperty("harness.reports", "build/reports/harness"));
+        File goldenDir = new File(System.getProperty("harness.golden", "golden"));
+        boolean record = Boolean.getBoolean("harness.record");
+        int stride = Integer.getInteger("harness.goldenStride", 15);
+        int tolerance = Integer.getInteger("harness.tolerance", 8);
+        int days = Math.max(1, Integer.getInteger("harness.days", 1));
+
+        GlyphFile glyphs = new GlyphFile(ByteBuffer.wrap(compileGlyphs(assets)));
+        DaylightProfile profile = new DaylightProfile();
+        profile.build();
+
+        reports.mkdirs();
+        goldenDir.mkdirs();
+
+        int compared = 0;
+        int recorded = 0;
+        int missing = 0;
+        int mismatches = 0;
+
+        PrintWriter csv = new PrintWriter(new File(reports, "timings.csv"), "UTF-8");
+        PrintWriter report = new PrintWriter(new File(reports, "report.txt"), "UTF-8");
+        try {
+            csv.println("config,mode,hour,minute,nanos,allocated_bytes");
+
+            for (Config config : CONFIGS) {
+                Dial dial = new Dial(config, glyphs, profile);
+                BufferedImage frame = dial.renderer.getTarget();
+
+                for (int mode = 0; mode < ShapeShadowDigits.MODE_NAMES.length; mode++) {
+                    String name = config.name + "-" + ShapeShadowDigits.MODE_NAMES[mode];
+                    Histogram histogram = new Histogram();
+                    long totalAllocated = 0;
+
+                    // Let the JIT settle before timing
+                    for (int m = 0; m < WARMUP_MINUTES; m++) {
+                        dial.render(m / 60, m % 60, mode);
+                    }
+                    dial.stats.reset();
+
+                    for (int m = 0; m < MINUTES_PER_DAY * days; m++) {
+                        int hour = (m / 60) % 24;
+                        int minute = m % 60;
+
+                        long allocatedBefore = allocatedBytes();
+                        long start = System.nanoTime();
+                        dial.render(hour, minute, mode);
+                        long nanos = System.nanoTime() - start;
+                        long allocated = allocatedBytes() - allocatedBefore;
+
+                        histogram.record(nanos / 1000);
+                        totalAllocated += allocated;
+                        csv.println(config.name + "," + ShapeShadowDigits.MODE_NAMES[mode] + "," + hour + ","
+                                + minute + "," + nanos + "," + allocated);
+
+                        if (m < MINUTES_PER_DAY * (days - 1) || m % stride != 0) {
+                            continue;
+                        }
+                        File golden = new File(goldenDir,
+                                String.format(Locale.US, "%s-%02d%02d.png", name, hour, minute));
+                        if (record) {
+                            ImageIO.write(frame, "png", golden);
+                            recorded++;
+                        } else if (!golden.exists()) {
+                            missing++;
+                        } else {
+                            compared++;
+                            BufferedImage expected = ImageIO.read(golden);
+                            int differing = differingPixels(expected, frame, tolerance);
+                            if (differing > MAX_DIFFERING_RATIO * config.width * config.height) {
+                                mismatches++;
+                                File actual = new File(reports,
+                                        String.format(Locale.US, "%s-%02d%02d-actual.png", name, hour, minute));
+                                ImageIO.write(frame, "png", actual);
+                                report.println("MISMATCH " + golden.getName() + ": " + differing
+                                        + " pixels differ, see " + actual.getName());
+                            }
+                        }
+                    }
+
+                    report.println(String.format(Locale.US,
+                            "%-20s frames %d  mean %dus  p50 %dus  p90 %dus  p99 %dus  max %dus  alloc/frame %d bytes",
+                            name, histogram.getCount(), histogram.getMeanMicros(), histogram.getPercentile(50),
+                            histogram.getPercentile(90), histogram.getPercentile(99), histogram.getMaxMicros(),
+                            totalAllocated / histogram.getCount()));
+                    dial.stats.dump("    ", report);
+                }
+                dial.renderer.dispose();
+            }
+
+            report.println(String.format(Locale.US, "golden: %d recorded, %d compared, %d missing, %d mismatches",
+                    recorded, compared, missing, mismatches));
+        } finally {
+            csv.close();
+            report.close();
+        }
+
+        System.out.println(new String(Files.readAllBytes(new File(reports, "report.txt").toPath()), "UTF-8"));
+        if (missing > 0) {
+            System.err.println(missing + " frames have no golden image in " + goldenDir
+                    + ", record them first with -Pharness.record=true");
+        }
+        if (mismatches > 0 || missing > 0) {
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * Number of pixels with a channel differing by more than the tolerance
+     */
+    private static int differingPixels(BufferedImage expected, BufferedImage actual, int tolerance) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            return actual.getWidth() * actual.getHeight();
+        }
+        int differing = 0;
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    if (Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF)) > tolerance) {
+                        differing++;
+                        break;
+                    }
+                }
+            }
+        }
+        return differing;
+    }
+
+
+    /**
+     * Bytes allocated so far by this thread, or 0 when the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+
+    /**
+     * Compiles the glyph file like the wear build does and returns its content
+     */
+    static byte[] compileGlyphs(File assets) throws IOException {
+        File output = File.createTempFile("glyphs", ".bin");
+        try {
+            float[] lodErrors = {GlyphSimplifier.toGlyphUnits(LOD_PIXEL_ERROR, DENSITY, DialScene.DIGIT_SCALE)};
+            GlyphCompiler.compile(assets, Arrays.asList(GLYPH_SOURCES), LOD_SOURCE, lodErrors, output);
+            return Files.readAllBytes(output.toPath());
+        } finally {
+            output.delete();
+        }
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.harness;
+
+import com.breel.wearables.shadowclock.graphics.Renderer;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.MultipleGradientPaint;
+import java.awt.Paint;
+import java.awt.RadialGradientPaint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renderer drawing into a Java2D image, the desktop backend of the dial. Follows the Android
+ * semantics where they differ: gradients in the local space, blur as a mask filter, alpha only
+ * bitmaps tinted by the paint.
+ */
+final class Java2DRenderer implements Renderer {
+
+    static final class Java2DPath implements Renderer.Path {
+        final Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+
+        @Override
+        public void reset() {
+            path.reset();
+        }
+
+        @Override
+        public void setEvenOdd(boolean evenOdd) {
+            path.setWindingRule(evenOdd ? Path2D.WIND_EVEN_ODD : Path2D.WIND_NON_ZERO);
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            path.moveTo(x, y);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            path.lineTo(x, y);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            path.quadTo(x1, y1, x2, y2);
+        }
+
+        @Override
+        public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            path.curveTo(x1, y1, x2, y2, x3, y3);
+        }
+
+        @Override
+        public void close() {
+            path.closePath();
+        }
+
+        @Override
+        public void set(Renderer.Path src) {
+            Path2D.Float other = ((Java2DPath) src).path;
+            path.reset();
+            path.setWindingRule(other.getWindingRule());
+            path.append(other, false);
+        }
+    }
+
+    static final class Java2DBitmap implements Renderer.Bitmap {
+        final BufferedImage image;
+        final boolean alphaOnly;
+
+        Java2DBitmap(BufferedImage image, boolean alphaOnly) {
+            this.image = image;
+            this.alphaOnly = alphaOnly;
+        }
+
+        @Override
+        public int getWidth() {
+            return image.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return image.getHeight();
+        }
+
+        @Override
+        public boolean isAlphaOnly() {
+            return alphaOnly;
+        }
+
+        @Override
+        public void release() {
+            image.flush();
+        }
+    }
+
+    private final BufferedImage target;
+    private final Graphics2D g;
+    private final int width;
+    private final int height;
+
+    private final List<AffineTransform> savedTransforms = new ArrayList<AffineTransform>();
+
+    // Paint
+    private Paint paint = Color.BLACK;
+    private boolean antiAlias = true;
+    private float strokeWidth = 0.0f;
+    private float blurRadius = 0.0f;
+
+    // Scratch layer of the target size for the blurred draws and the tinted bitmaps
+    private BufferedImage layer;
+    private int[] layerPixels;
+    private int[] blurScratch;
+
+
+    Java2DRenderer(BufferedImage target) {
+        this.target = target;
+        width = target.getWidth();
+        height = target.getHeight();
+        g = target.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    }
+
+
+    BufferedImage getTarget() {
+        return target;
+    }
+
+    void dispose() {
+        g.dispose();
+    }
+
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public Renderer.Path createPath() {
+        return new Java2DPath();
+    }
+
+    @Override
+    public Renderer.Bitmap createBitmap(int width, int height, boolean alphaOnly) {
+        return new Java2DBitmap(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), alphaOnly);
+    }
+
+    @Override
+    public Renderer createRenderer(Renderer.Bitmap bitmap) {
+        return new Java2DRenderer(((Java2DBitmap) bitmap).image);
+    }
+
+
+    @Override
+    public int save() {
+        savedTransforms.add(g.getTransform());
+        return savedTransforms.size() - 1;
+    }
+
+    @Override
+    public void restoreToCount(int saveCount) {
+        g.setTransform(savedTransforms.get(saveCount));
+        while (savedTransforms.size() > saveCount) {
+            savedTransforms.remove(savedTransforms.size() - 1);
+        }
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        g.translate(dx, dy);
+    }
+
+    @Override
+    public void scale(float sx, float sy) {
+        g.scale(sx, sy);
+    }
+
+    @Override
+    public void rotate(float degrees, float px, float py) {
+        g.rotate(Math.toRadians(degrees), px, py);
+    }
+
+
+    @Override
+    public void setColor(int argb) {
+        paint = new Color(argb, true);
+    }
+
+    @Override
+    public void setRadialGradient(float centerX, float centerY, float radius, int[] colors, float[] stops) {
+        Color[] awtColors = new Color[colors.length];
+        float[] fractions = new float[stops.length];
+        for (int i = 0; i < colors.length; i++) {
+            awtColors[i] = new Color(colors[i], true);
+            // Java2D wants strictly increasing fractions
+            fractions[i] = Math.min(1.0f, Math.max(stops[i], i > 0 ? fractions[i - 1] + 1e-4f : 0.0f));
+        }
+        for (int i = fractions.length - 2; i >= 0; i--) {
+            if (fractions[i] >= fractions[i + 1]) {
+                fractions[i] = fractions[i + 1] - 1e-4f;
+            }
+        }
+        Point2D.Float center = new Point2D.Float(centerX, centerY);
+        paint = new RadialGradientPaint(center, Math.max(radius, 1e-3f), center, fractions, awtColors,
+                MultipleGradientPaint.CycleMethod.NO_CYCLE, MultipleGradientPaint.ColorSpaceType.SRGB,
+                new AffineTransform());
+    }
+
+    @Override
+    public void setAntiAlias(boolean antiAlias) {
+        this.antiAlias = antiAlias;
+    }
+
+    @Override
+    public void setStrokeWidth(float width) {
+        strokeWidth = width;
+    }
+
+    @Override
+    public void setBlur(float radius) {
+        blurRadius = radius;
+    }
+
+
+    @Override
+    public void clear() {
+        AffineTransform transform = g.getTransform();
+        g.setTransform(new AffineTransform());
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, width, height);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setTransform(transform);
+    }
+
+    @Override
+    public void drawPaint() {
+        Shape all = toLocal(new Rectangle(0, 0, width, height));
+        if (all != null) {
+            fill(all, false);
+        }
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom) {
+        fill(new Rectangle2D.Float(left, top, right - left, bottom - top), true);
+    }
+
+    @Override
+    public void drawPath(Renderer.Path path) {
+        fill(((Java2DPath) path).path, true);
+    }
+
+    @Override
+    public void drawBitmap(Renderer.Bitmap bitmap, float left, float top) {
+        drawBitmap(bitmap, left, top, left + bitmap.getWidth(), top + bitmap.getHeight());
+    }
+
+    @Override
+    public void drawBitmap(Renderer.Bitmap bitmap, float left, float top, float right, float bottom) {
+        Java2DBitmap b = (Java2DBitmap) bitmap;
+        AffineTransform placement = new AffineTransform();
+        placement.translate(left, top);
+        placement.scale((right - left) / b.getWidth(), (bottom - top) / b.getHeight());
+        if (!b.alphaOnly) {
+            g.setComposite(AlphaComposite.SrcOver);
+            g.drawImage(b.image, placement, null);
+            return;
+        }
+
+        // Tinted by the paint: the bitmap as the coverage of the paint
+        Rectangle region = deviceRegion(new Rectangle2D.Float(left, top, right - left, bottom - top), 1);
+        if (region == null) {
+            return;
+        }
+        Graphics2D lg = beginLayer(region);
+        lg.setTransform(g.getTransform());
+        lg.setComposite(AlphaComposite.SrcOver);
+        lg.drawImage(b.image, placement, null);
+        endLayer(lg, region);
+    }
+
+
+    /**
+     * Fills a shape in local space with the current paint, stroke and blur
+     */
+    private void fill(Shape shape, boolean styled) {
+        boolean stroke = styled && strokeWidth > 0.0f;
+        if (blurRadius <= 0.0f) {
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    antiAlias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+            g.setPaint(paint);
+            if (stroke) {
+                g.setStroke(new BasicStroke(strokeWidth));
+                g.draw(shape);
+            } else {
+                g.fill(shape);
+            }
+            return;
+        }
+        if (stroke) {
+            shape = new BasicStroke(strokeWidth).createStrokedShape(shape);
+        }
+
+        // Like a blur mask filter: the coverage of the shape blurred, then painted
+        int pad = (int) Math.ceil(3 * sigma(blurRadius));
+        Rectangle region = deviceRegion(shape.getBounds2D(), pad);
+        if (region == null) {
+            return;
+        }
+        Graphics2D lg = beginLayer(region);
+        lg.setTransform(g.getTransform());
+        lg.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                antiAlias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        lg.setComposite(AlphaComposite.SrcOver);
+        lg.setColor(Color.WHITE);
+        lg.fill(shape);
+        blurAlpha(region.x, region.y, region.x + region.width, region.y + region.height, blurRadius);
+        endLayer(lg, region);
+    }
+
+
+    /**
+     * Clears a region of the layer and returns a graphics drawing into it
+     */
+    private Graphics2D beginLayer(Rectangle region) {
+        if (layer == null) {
+            layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            layerPixels = ((DataBufferInt) layer.getRaster().getDataBuffer()).getData();
+            blurScratch = new int[width * height];
+        }
+        Graphics2D lg = layer.createGraphics();
+        lg.setComposite(AlphaComposite.Clear);
+        lg.fillRect(region.x, region.y, region.width, region.height);
+        return lg;
+    }
+
+
+    /**
+     * Paints the coverage drawn in the region of the layer with the current paint and draws it
+     */
+    private void endLayer(Graphics2D lg, Rectangle region) {
+        Shape local = toLocal(region);
+        if (local != null) {
+            lg.setTransform(g.getTransform());
+            lg.setComposite(AlphaComposite.SrcIn);
+            lg.setPaint(paint);
+            lg.fill(local);
+        }
+        lg.dispose();
+
+        AffineTransform transform = g.getTransform();
+        g.setTransform(new AffineTransform());
+        g.setComposite(AlphaComposite.SrcOver);
+        g.drawImage(layer.getSubimage(region.x, region.y, region.width, region.height), region.x, region.y, null);
+        g.setTransform(transform);
+    }
+
+
+    /**
+     * Pixels covered by a rect in local space, padded and clipped to the target, or null if empty
+     */
+    private Rectangle deviceRegion(Rectangle2D bounds, int pad) {
+        Rectangle device = g.getTransform().createTransformedShape(bounds).getBounds();
+        device.grow(pad, pad);
+        Rectangle region = device.intersection(new Rectangle(0, 0, width, height));
+        return region.isEmpty() ? null : region;
+    }
+
+
+    private Shape toLocal(Rectangle deviceRect) {
+        try {
+            return g.getTransform().createInverse().createTransformedShape(deviceRect);
+        } catch (NoninvertibleTransformException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Sigma of a blur radius, as Android derives it for a BlurMaskFilter
+     */
+    private static double sigma(float radius) {
+        return radius * 0.57735 + 0.5;
+    }
+
+
+    /**
+     * Gaussian blur of the alpha of a region of the layer
+     */
+    private void blurAlpha(int x0, int y0, int x1, int y1, float radius) {
+        double sigma = sigma(radius);
+        int half = (int) Math.ceil(sigma * 3);
+        float[] kernel = new float[2 * half + 1];
+        float sum = 0.0f;
+        for (int i = -half; i <= half; i++) {
+            kernel[i + half] = (float) Math.exp(-(i * i) / (2 * sigma * sigma));
+            sum += kernel[i + half];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= sum;
+        }
+
+        // Horizontal into the scratch, vertical back into the layer
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                float a = 0.0f;
+                for (int k = -half; k <= half; k++) {
+                    int sx = Math.min(x1 - 1, Math.max(x0, x + k));
+                    a += kernel[k + half] * (layerPixels[y * width + sx] >>> 24);
+                }
+                blurScratch[y * width + x] = Math.round(a);
+            }
+        }
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                float a = 0.0f;
+                for (int k = -half; k <= half; k++) {
+                    int sy = Math.min(y1 - 1, Math.max(y0, y + k));
+                    a += kernel[k + half] * blurScratch[sy * width + x];
+                }
+                int alpha = Math.min(255, Math.round(a));
+                layerPixels[y * width + x] = (alpha << 24) | 0x00FFFFFF;
+            }
+        }
+    }
+}
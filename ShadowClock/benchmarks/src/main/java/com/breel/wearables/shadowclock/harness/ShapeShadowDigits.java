@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.harness;
+
+import com.breel.wearables.shadowclock.controllers.DialScene;
+import com.breel.wearables.shadowclock.graphics.Glyph;
+import com.breel.wearables.shadowclock.graphics.GlyphFile;
+import com.breel.wearables.shadowclock.graphics.Renderer;
+import com.breel.wearables.shadowclock.graphics.ShadowPathCache;
+import com.breel.wearables.shadowclock.graphics.ShapeShadow;
+
+/**
+ * The digits of the dial drawn by the ShapeShadow of the watch, one per slot, sharing a
+ * ShadowPathCache. Set up and updated like ShadowDialController does, without the sprites of
+ * ShadowAtlas (Android only): the shadows are always blurred paths.
+ */
+final class ShapeShadowDigits implements DialScene.Digits {
+
+    // Screen modes, same as the ambient variants of ShapeShadow
+    static final int MODE_INTERACTIVE = 0;
+    static final int MODE_AMBIENT = 1;
+    static final int MODE_LOW_BIT = 2;
+    static final int MODE_1_BIT = 3;
+
+    static final String[] MODE_NAMES = {"interactive", "ambient", "lowbit", "1bit"};
+
+    // Colors of the wear resources and the controller
+    private static final int SHADOW_GRADIENT_INIT = 0x41000000;
+    private static final int SHADOW_GRADIENT_END = 0x00000000;
+    private static final int AMBIENT_TYPEFACE = 0x88FFFFFF;
+    private static final int LOW_BIT_TYPEFACE = 0xFFFFFFFF;
+
+    // Same as ShadowDialController
+    private static final int SHADOW_CACHE_ENTRIES = 512;
+
+    private final Glyph[] glyphs;
+    private final ShadowPathCache shadowCache;
+    private final ShapeShadow[] slots = new ShapeShadow[DialScene.SLOT_COUNT];
+
+    // Sun of the current frame
+    private int sunAngleBucket;
+    private float sunX;
+    private float sunY;
+
+
+    /**
+     * Constructor
+     * @param renderer Renderer of the backend, creates the paths and rasters of the digits
+     * @param file The compiled digits
+     * @param setName The set of digits drawn, e.g. json_lowpoly
+     * @param width Width of the canvas
+     * @param height Height of the canvas
+     * @param density Density of the screen, scales the blur
+     */
+    ShapeShadowDigits(Renderer renderer, GlyphFile file, String setName, int width, int height, float density) {
+        int set = file.findSet(setName);
+        if (set < 0) {
+            throw new IllegalArgumentException("No glyph set " + setName);
+        }
+        byte[] verbs = new byte[file.getMaxVerbs()];
+        float[] coords = new float[file.getMaxCoords()];
+        glyphs = new Glyph[file.getGlyphsPerSet()];
+        for (int digit = 0; digit < glyphs.length; digit++) {
+            glyphs[digit] = new Glyph(file, set, file.findGlyph(set, digit), verbs, coords);
+        }
+
+        float[] slotXs = new float[DialScene.SLOT_COUNT];
+        float[] slotYs = new float[DialScene.SLOT_COUNT];
+        DialScene.layoutSlots(width, height, slotXs, slotYs);
+        shadowCache = new ShadowPathCache(renderer, SHADOW_CACHE_ENTRIES);
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new ShapeShadow(renderer, density, AMBIENT_TYPEFACE, LOW_BIT_TYPEFACE);
+            slots[i].scale(DialScene.DIGIT_SCALE);
+            slots[i].translate(slotXs[i], slotYs[i]);
+            slots[i].setShadowCache(shadowCache, i);
+        }
+    }
+
+
+    /**
+     * Shows a time, only the slots whose digit changes are updated
+     */
+    void setTime(int hour, int minute) {
+        setDigit(DialScene.SLOT_HOURS_TENS, hour / 10);
+        setDigit(DialScene.SLOT_HOURS_UNITS, hour % 10);
+        setDigit(DialScene.SLOT_MINUTES_TENS, minute / 10);
+        setDigit(DialScene.SLOT_MINUTES_UNITS, minute % 10);
+    }
+
+    private void setDigit(int slot, int digit) {
+        if (slots[slot].getCurrentValue() != digit) {
+            slots[slot].setGlyph(glyphs[digit]);
+        }
+    }
+
+
+    /**
+     * Sets the screen mode. The ambient modes override the shape color.
+     */
+    void setMode(int mode) {
+        for (int i = 0; i < slots.length; i++) {
+            switch (mode) {
+                case MODE_AMBIENT:
+                    slots[i].setAmbientMode();
+                    break;
+                case MODE_LOW_BIT:
+                    slots[i].setLowBitMode();
+                    break;
+                case MODE_1_BIT:
+                    slots[i].set1BitMode();
+                    break;
+                default:
+                    slots[i].setInteractiveMode();
+                    break;
+            }
+        }
+    }
+
+    void setShapeColor(int color) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i].setShapeColor(color);
+        }
+    }
+
+    void setShadowGradientRadius(float radius) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i].calculateGradient(radius, SHADOW_GRADIENT_INIT, SHADOW_GRADIENT_END);
+        }
+    }
+
+    /**
+     * Sets the sun, the position must be the one of the angle bucket
+     */
+    void setSun(int angleBucket, float x, float y) {
+        sunAngleBucket = angleBucket;
+        sunX = x;
+        sunY = y;
+    }
+
+
+    @Override
+    public void drawShadow(Renderer renderer, int slot) {
+        slots[slot].drawShadow(renderer, sunX, sunY, sunAngleBucket);
+    }
+
+
+    @Override
+    public void drawShape(Renderer renderer, int slot, boolean ambient) {
+        // From their rasters in ambient mode, like USE_AMBIENT_RASTERS of the controller
+        if (ambient) {
+            slots[slot].drawAmbientShape(renderer);
+        } else {
+            slots[slot].drawShape(renderer);
+        }
+    }
+}
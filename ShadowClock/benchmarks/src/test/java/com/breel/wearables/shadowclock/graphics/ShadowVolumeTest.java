@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+import com.breel.wearables.shadowclock.controllers.DialScene;
+import com.breel.wearables.shadowclock.controllers.SunSweep;
+import com.breel.wearables.shadowclock.glyphs.GlyphCompiler;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the single pass outline of ShadowVolume covers the same pixels as the shadow
+ * ShapeShadow used to build: one quad per edge, joined one by one with Path.op UNION, emulated
+ * here with {@link Area#add}.
+ * <p>
+ * Every digit of both sets is compared at every sun angle bucket, in the slots of the dial. The
+ * interesting digits are the ones with several contours: the holes of 0, 6, 8 and 9, which
+ * their shadow has to fill, and the two contours 5 is split into.
+ */
+public class ShadowVolumeTest {
+
+    private static final String[] SETS = {"json", "json_lowpoly"};
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 320;
+
+    // Difference of the antialiased coverage of a pixel still considered the same, out of 255.
+    // Area computes its edges in double precision, which moves them by a fraction of a pixel.
+    // A missing or extra quad differs by far more.
+    private static final int MAX_COVERAGE_DIFFERENCE = 16;
+
+    // The 4 of the font is open
+    private static final int[] DIGITS_WITH_HOLES = {0, 6, 8, 9};
+
+    private static GlyphFile glyphs;
+
+    private final float[] slotXs = new float[DialScene.SLOT_COUNT];
+    private final float[] slotYs = new float[DialScene.SLOT_COUNT];
+
+    private final BufferedImage expected = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+    private final BufferedImage actual = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+
+
+    @BeforeClass
+    public static void compileGlyphs() throws IOException {
+        File assets = new File(System.getProperty("benchmarks.assets", "../wear/src/main/assets"));
+        File output = File.createTempFile("glyphs", ".bin");
+        try {
+            GlyphCompiler.compile(assets, Arrays.asList(SETS), output);
+            glyphs = new GlyphFile(ByteBuffer.wrap(Files.readAllBytes(output.toPath())));
+        } finally {
+            output.delete();
+        }
+    }
+
+
+    @Test
+    public void holesAndSplitContoursAreCompared() {
+        byte[] verbs = new byte[glyphs.getMaxVerbs()];
+        for (int s = 0; s < SETS.length; s++) {
+            int set = glyphs.findSet(SETS[s]);
+
+            // The shadow of 5 is split in two contours
+            assertEquals(SETS[s] + " 5", 2, glyphs.getShadowContourCount(glyphs.findGlyph(set, 5)));
+
+            // The holes are only in the outlines, the shadows fill them
+            for (int i = 0; i < DIGITS_WITH_HOLES.length; i++) {
+                int record = glyphs.findGlyph(set, DIGITS_WITH_HOLES[i]);
+                int verbCount = glyphs.readVerbs(record, verbs);
+                int moves = 0;
+                for (int v = 0; v < verbCount; v++) {
+                    if (verbs[v] == GlyphFile.VERB_MOVE) {
+                        moves++;
+                    }
+                }
+                assertTrue(SETS[s] + " " + DIGITS_WITH_HOLES[i] + " has a hole", moves > 1);
+            }
+        }
+    }
+
+
+    @Test
+    public void detailedDigitsCoverTheUnionOfTheEdgeQuads() {
+        assertSetMatches("json");
+    }
+
+
+    @Test
+    public void lowPolyDigitsCoverTheUnionOfTheEdgeQuads() {
+        assertSetMatches("json_lowpoly");
+    }
+
+
+    private void assertSetMatches(String setName) {
+        int set = glyphs.findSet(setName);
+        DialScene.layoutSlots(WIDTH, HEIGHT, slotXs, slotYs);
+
+        float[] xs = new float[glyphs.getMaxShadowPoints()];
+        float[] ys = new float[glyphs.getMaxShadowPoints()];
+        int[] contourEnds = new int[glyphs.getMaxShadowContours()];
+        ShadowVolume volume = new ShadowVolume(glyphs.getMaxShadowPoints(), glyphs.getMaxShadowContours());
+
+        for (int digit = 0; digit < glyphs.getGlyphsPerSet(); digit++) {
+            int record = glyphs.findGlyph(set, digit);
+            // Every bucket the sweep can stop at, the slots taken in turn
+            for (int bucket = 0; bucket < SunSweep.ANGLE_BUCKETS; bucket++) {
+                int slot = bucket % DialScene.SLOT_COUNT;
+                int points = glyphs.readShadowPoints(record, xs, ys);
+                int contours = glyphs.readShadowContourEnds(record, contourEnds);
+                for (int i = 0; i < points; i++) {
+                    xs[i] = xs[i] * DialScene.DIGIT_SCALE + slotXs[slot];
+                    ys[i] = ys[i] * DialScene.DIGIT_SCALE + slotYs[slot];
+                }
+                float sunX = SunSweep.sunX(bucket, WIDTH);
+                float sunY = SunSweep.sunY(bucket, WIDTH, HEIGHT);
+
+                volume.build(xs, ys, contourEnds, contours, sunX, sunY, ShadowVolume.DEFAULT_EXTRUSION);
+                rasterize(edgeQuadUnion(xs, ys, contourEnds, contours, sunX, sunY), expected);
+                rasterize(outline(volume), actual);
+
+                int differing = differingPixels(expected, actual);
+                if (differing > 0) {
+                    fail(setName + " digit " + digit + " slot " + slot + " bucket " + bucket + ": "
+                            + differing + " pixels differ");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The shadow as the old ShapeShadow.drawShadow built it: for every edge v1-v2 the quad
+     * v2, v1, v1', v2' (the vertices pushed away from the sun), joined one at a time
+     */
+    private static Area edgeQuadUnion(float[] xs, float[] ys, int[] contourEnds, int contours, float sunX, float sunY) {
+        Area union = new Area();
+        Path2D.Float quad = new Path2D.Float(Path2D.WIND_NON_ZERO);
+        int start = 0;
+        for (int c = 0; c < contours; c++) {
+            int end = contourEnds[c];
+            for (int i = start; i < end; i++) {
+                int j = (i == end - 1) ? start : i + 1;
+                quad.reset();
+                quad.moveTo(xs[j], ys[j]);
+                quad.lineTo(xs[i], ys[i]);
+                quad.lineTo(extrudedX(xs[i], ys[i], sunX, sunY), extrudedY(xs[i], ys[i], sunX, sunY));
+                quad.lineTo(extrudedX(xs[j], ys[j], sunX, sunY), extrudedY(xs[j], ys[j], sunX, sunY));
+                quad.closePath();
+                union.add(new Area(quad));
+            }
+            start = end;
+        }
+        return union;
+    }
+
+
+    private static float extrudedX(float x, float y, float sunX, float sunY) {
+        return x + (x - sunX) / AVector.length(x - sunX, y - sunY) * ShadowVolume.DEFAULT_EXTRUSION;
+    }
+
+    private static float extrudedY(float x, float y, float sunX, float sunY) {
+        return y + (y - sunY) / AVector.length(x - sunX, y - sunY) * ShadowVolume.DEFAULT_EXTRUSION;
+    }
+
+
+    /**
+     * The outline of the volume, filled with the non-zero rule like ShapeShadow.buildShadowPath
+     */
+    private static Path2D.Float outline(ShadowVolume volume) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+        float[] xs = volume.getXs();
+        float[] ys = volume.getYs();
+        int[] ends = volume.getContourEnds();
+        int start = 0;
+        for (int c = 0; c < volume.getContourCount(); c++) {
+            path.moveTo(xs[start], ys[start]);
+            for (int i = start + 1; i < ends[c]; i++) {
+                path.lineTo(xs[i], ys[i]);
+            }
+            path.closePath();
+            start = ends[c];
+        }
+        return path;
+    }
+
+
+    /**
+     * Fills a shape antialiased, so every pixel holds its coverage
+     */
+    private static void rasterize(Shape shape, BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            g.setColor(Color.WHITE);
+            g.fill(shape);
+        } finally {
+            g.dispose();
+        }
+    }
+
+
+    /**
+     * Number of pixels whose coverage differs by more than the tolerance
+     */
+    private static int differingPixels(BufferedImage a, BufferedImage b) {
+        byte[] pa = ((DataBufferByte) a.getRaster().getDataBuffer()).getData();
+        byte[] pb = ((DataBufferByte) b.getRaster().getDataBuffer()).getData();
+        int differing = 0;
+        for (int i = 0; i < pa.length; i++) {
+            if (Math.abs((pa[i] & 0xFF) - (pb[i] & 0xFF)) > MAX_COVERAGE_DIFFERENCE) {
+                differing++;
+            }
+        }
+        return differing;
+    }
+}
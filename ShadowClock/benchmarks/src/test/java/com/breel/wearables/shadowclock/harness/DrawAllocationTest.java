@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.harness;
+
+import com.breel.wearables.shadowclock.controllers.DialScene;
+import com.breel.wearables.shadowclock.controllers.QualityGovernor;
+import com.breel.wearables.shadowclock.controllers.SunSweep;
+import com.breel.wearables.shadowclock.diagnostics.FrameStats;
+import com.breel.wearables.shadowclock.graphics.GlyphFile;
+import com.breel.wearables.shadowclock.graphics.Renderer;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the frames of the sun sweep allocate nothing once warmed up: the keyframes, the
+ * digits of ShapeShadow with their shadow volumes and the misses, evictions and recycled paths
+ * of ShadowPathCache, the overlays, the layers of the scene and the frame statistics.
+ * <p>
+ * The frames are drawn through a renderer that draws nothing, as Java2D allocates on every
+ * call. What only runs on the watch (ShadowAtlas, CanvasRenderer and the controller) is
+ * checked there by CHECK_DRAW_ALLOCATIONS of ShadowDialController.
+ */
+public class DrawAllocationTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 320;
+    private static final float DENSITY = 1.5f;
+
+    // Minutes swept before measuring, so the JIT and the lazily built tables settle
+    private static final int WARMUP_MINUTES = 120;
+    private static final int MEASURED_MINUTES = 60;
+
+    // Measured runs, the quietest one counts. The JVM allocates now and then on its own (e.g.
+    // when it deoptimizes or resolves a constant), while an allocating frame shows in every run.
+    private static final int MEASURED_RUNS = 5;
+
+    private static GlyphFile glyphs;
+
+
+    @BeforeClass
+    public static void compileGlyphs() throws IOException {
+        File assets = new File(System.getProperty("benchmarks.assets", "../wear/src/main/assets"));
+        glyphs = new GlyphFile(ByteBuffer.wrap(DialHarness.compileGlyphs(assets)));
+    }
+
+
+    @Test
+    public void sweepWithDirectOverlaysDoesNotAllocate() {
+        assertSweepDoesNotAllocate(true, 1.0f);
+    }
+
+
+    @Test
+    public void sweepWithOverlayBitmapsDoesNotAllocate() {
+        assertSweepDoesNotAllocate(false, QualityGovernor.LOW_OVERLAY_RESOLUTION);
+    }
+
+
+    private static void assertSweepDoesNotAllocate(boolean direct, float resolution) {
+        Assume.assumeTrue(allocatedBytes() >= 0);
+
+        Sweep sweep = new Sweep(direct, resolution);
+        allocatedDuring(sweep, WARMUP_MINUTES);
+
+        // The allocation counter itself allocates: measured without drawing, then subtracted
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long overhead = allocatedDuring(sweep, 0);
+            allocated = Math.min(allocated, allocatedDuring(sweep, MEASURED_MINUTES) - overhead);
+        }
+
+        assertEquals("Bytes allocated by " + MEASURED_MINUTES * SunSweep.KEYFRAMES + " frames", 0, allocated);
+    }
+
+
+    /**
+     * Bytes allocated while sweeping the sun over some minutes
+     */
+    private static long allocatedDuring(Sweep sweep, int minutes) {
+        long before = allocatedBytes();
+        for (int m = 0; m < minutes; m++) {
+            sweep.drawMinute(m % 60);
+        }
+        return allocatedBytes() - before;
+    }
+
+
+    /**
+     * Bytes allocated so far by this thread, or -1 when the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+
+    /**
+     * The dial animated like ShadowDialController.updateSunAnimation and drawDial do
+     */
+    private static final class Sweep {
+        final NullRenderer renderer = new NullRenderer();
+        final DialScene scene = new DialScene();
+        final ShapeShadowDigits digits;
+        final SunSweep sunSweep = new SunSweep();
+        final QualityGovernor governor = new QualityGovernor();
+        final FrameStats stats = new FrameStats();
+
+        Sweep(boolean direct, float resolution) {
+            digits = new ShapeShadowDigits(renderer, glyphs, "json_lowpoly", WIDTH, HEIGHT, DENSITY);
+            digits.setTime(10, 8);
+            digits.setShapeColor(0xFFFFFFFF);
+            digits.setMode(ShapeShadowDigits.MODE_INTERACTIVE);
+
+            scene.createOverlays(renderer, DialScene.overlaySize(WIDTH, HEIGHT, true), direct, resolution, DENSITY);
+            scene.setOverlayLayout(true, WIDTH, 0, 0);
+            scene.setBounds(0, 0, WIDTH, HEIGHT);
+            scene.setShineBounds(0, 0, WIDTH, HEIGHT);
+            scene.setFrameStats(stats);
+        }
+
+        void drawMinute(int minute) {
+            digits.setTime(10, minute);
+            for (int frame = 0; frame < SunSweep.KEYFRAMES; frame++) {
+                sunSweep.build(minute, WIDTH, HEIGHT);
+                int keyframe = sunSweep.indexOf((float) frame / (SunSweep.KEYFRAMES - 1));
+                digits.setSun(sunSweep.getSunAngleBucket(keyframe), sunSweep.getSunX(keyframe), sunSweep.getSunY(keyframe));
+                digits.setShadowGradientRadius(sunSweep.getGradientRadius(keyframe));
+                scene.updateOverlayAngle(sunSweep.getOverlayAngle(keyframe));
+
+                long start = FrameStats.now();
+                scene.draw(renderer, digits, false);
+                long end = stats.endPhase(FrameStats.PHASE_FRAME, start);
+                stats.countFrame(FrameStats.MODE_ANIMATING);
+                governor.record(end - start);
+            }
+        }
+    }
+
+
+    /**
+     * Renderer drawing nothing, its paths and bitmaps are created up front
+     */
+    private static final class NullRenderer implements Renderer {
+
+        private static final class NullPath implements Renderer.Path {
+            @Override
+            public void reset() {
+            }
+
+            @Override
+            public void setEvenOdd(boolean evenOdd) {
+            }
+
+            @Override
+            public void moveTo(float x, float y) {
+            }
+
+            @Override
+            public void lineTo(float x, float y) {
+            }
+
+            @Override
+            public void quadTo(float x1, float y1, float x2, float y2) {
+            }
+
+            @Override
+            public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void set(Renderer.Path src) {
+            }
+        }
+
+        private static final class NullBitmap implements Renderer.Bitmap {
+            final int width;
+            final int height;
+            final boolean alphaOnly;
+
+            NullBitmap(int _width, int _height, boolean _alphaOnly) {
+                width = _width;
+                height = _height;
+                alphaOnly = _alphaOnly;
+            }
+
+            @Override
+            public int getWidth() {
+                return width;
+            }
+
+            @Override
+            public int getHeight() {
+                return height;
+            }
+
+            @Override
+            public boolean isAlphaOnly() {
+                return alphaOnly;
+            }
+
+            @Override
+            public void release() {
+            }
+        }
+
+        private int saveCount = 0;
+
+        @Override
+        public int getWidth() {
+            return WIDTH;
+        }
+
+        @Override
+        public int getHeight() {
+            return HEIGHT;
+        }
+
+        @Override
+        public Renderer.Path createPath() {
+            return new NullPath();
+        }
+
+        @Override
+        public Renderer.Bitmap createBitmap(int width, int height, boolean alphaOnly) {
+            return new NullBitmap(width, height, alphaOnly);
+        }
+
+        @Override
+        public Renderer createRenderer(Renderer.Bitmap target) {
+            return new NullRenderer();
+        }
+
+        @Override
+        public int save() {
+            return saveCount++;
+        }
+
+        @Override
+        public void restoreToCount(int _saveCount) {
+            saveCount = _saveCount;
+        }
+
+        @Override
+        public void translate(float dx, float dy) {
+        }
+
+        @Override
+        public void scale(float sx, float sy) {
+        }
+
+        @Override
+        public void rotate(float degrees, float px, float py) {
+        }
+
+        @Override
+        public void setColor(int argb) {
+        }
+
+        @Override
+        public void setRadialGradient(float centerX, float centerY, float radius, int[] colors, float[] stops) {
+        }
+
+        @Override
+        public void setAntiAlias(boolean antiAlias) {
+        }
+
+        @Override
+        public void setStrokeWidth(float width) {
+        }
+
+        @Override
+        public void setBlur(float radius) {
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public void drawPaint() {
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom) {
+        }
+
+        @Override
+        public void drawPath(Renderer.Path path) {
+        }
+
+        @Override
+        public void drawBitmap(Renderer.Bitmap bitmap, float left, float top) {
+        }
+
+        @Override
+        public void drawBitmap(Renderer.Bitmap bitmap, float left, float top, float right, float bottom) {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the LruCache contract of LongLruCache: the eldest entries go first, the sizes add up,
+ * and the removed values are handed to entryRemoved once, so ShadowPathCache can recycle them.
+ */
+public class LongLruCacheTest {
+
+    /**
+     * Cache whose entries weigh their string length, recording every removal
+     */
+    private static class RecordingCache extends LongLruCache<String> {
+
+        final List<String> removed = new ArrayList<String>();
+        final List<Boolean> evicted = new ArrayList<Boolean>();
+        final List<String> replacements = new ArrayList<String>();
+
+        RecordingCache(int maxSize, int maxEntries) {
+            super(maxSize, maxEntries);
+        }
+
+        @Override
+        protected int sizeOf(long key, String value) {
+            return value.length();
+        }
+
+        @Override
+        protected void entryRemoved(boolean wasEvicted, long key, String oldValue, String newValue) {
+            removed.add(oldValue);
+            evicted.add(wasEvicted);
+            replacements.add(newValue);
+        }
+    }
+
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntriesFirst() {
+        RecordingCache cache = new RecordingCache(100, 3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+
+        // Reading 1 makes 2 the eldest
+        assertEquals("a", cache.get(1));
+        cache.put(4, "d");
+        assertFalse(cache.contains(2));
+        assertEquals(1, cache.removed.size());
+        assertEquals("b", cache.removed.get(0));
+        assertTrue(cache.evicted.get(0));
+        assertNull(cache.replacements.get(0));
+
+        // contains doesn't count as a use
+        assertTrue(cache.contains(3));
+        cache.put(5, "e");
+        assertFalse(cache.contains(3));
+        assertTrue(cache.contains(1));
+        assertTrue(cache.contains(4));
+        assertTrue(cache.contains(5));
+        assertEquals(2, cache.evictionCount());
+    }
+
+
+    @Test
+    public void countsHitsMissesAndPuts() {
+        RecordingCache cache = new RecordingCache(100, 4);
+        cache.put(1, "a");
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+        cache.contains(2);
+
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.putCount());
+    }
+
+
+    @Test
+    public void sizesAddUpAndEvictToFit() {
+        RecordingCache cache = new RecordingCache(10, 8);
+        cache.put(1, "aaaa");
+        cache.put(2, "bbb");
+        assertEquals(7, cache.size());
+        assertEquals(2, cache.entryCount());
+
+        // 4 more don't fit in 10, the eldest goes
+        cache.put(3, "cccc");
+        assertEquals(7, cache.size());
+        assertEquals(2, cache.entryCount());
+        assertFalse(cache.contains(1));
+
+        cache.remove(2);
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.entryCount());
+        assertFalse(cache.evicted.get(cache.evicted.size() - 1));
+
+        // Shrinking evicts down to the new size
+        cache.put(4, "dd");
+        cache.resize(3);
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(4));
+        assertEquals(3, cache.maxSize());
+    }
+
+
+    @Test
+    public void trimToSizeEvictsTheEldestUntilItFits() {
+        RecordingCache cache = new RecordingCache(100, 8);
+        cache.put(1, "aa");
+        cache.put(2, "bb");
+        cache.put(3, "cc");
+        cache.put(4, "dd");
+
+        cache.trimToSize(5);
+        assertEquals(4, cache.size());
+        assertFalse(cache.contains(1));
+        assertFalse(cache.contains(2));
+        assertTrue(cache.contains(3));
+        assertTrue(cache.contains(4));
+
+        // The size limit is unchanged
+        assertEquals(100, cache.maxSize());
+
+        cache.trimToSize(-1);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.entryCount());
+        assertEquals(4, cache.removed.size());
+
+        // The slots are free again
+        for (int i = 0; i < 8; i++) {
+            cache.put(10 + i, "x");
+        }
+        assertEquals(8, cache.entryCount());
+        assertEquals(4, cache.evictionCount());
+    }
+
+
+    @Test
+    public void replacedEntriesAreHandedBackOnceWithTheirReplacement() {
+        RecordingCache cache = new RecordingCache(100, 2);
+        cache.put(1, "old");
+        cache.put(2, "other");
+
+        // Replacing doesn't evict, even in a full cache, and the old value is reported as removed
+        assertEquals("old", cache.put(1, "new"));
+        assertEquals(0, cache.evictionCount());
+        assertTrue(cache.contains(2));
+        assertEquals(1, cache.removed.size());
+        assertEquals("old", cache.removed.get(0));
+        assertFalse(cache.evicted.get(0));
+        assertEquals("new", cache.replacements.get(0));
+        assertEquals(8, cache.size());
+
+        // The replaced entry is the most recent one
+        cache.put(3, "c");
+        assertFalse(cache.contains(2));
+        assertEquals("new", cache.get(1));
+    }
+
+
+    @Test
+    public void valuesStillInUseAreNotRecycled() {
+        // Recycles the values like ShadowPathCache does with its paths
+        final List<String> pool = new ArrayList<String>();
+        LongLruCache<String> cache = new LongLruCache<String>(4) {
+            @Override
+            protected void entryRemoved(boolean evicted, long key, String oldValue, String newValue) {
+                if (oldValue != newValue) {
+                    pool.add(oldValue);
+                }
+            }
+        };
+
+        // A value put again under its own key is still cached, so it's not handed to the pool
+        String inUse = "shadow";
+        assertNull(cache.put(1, inUse));
+        assertSame(inUse, cache.put(1, inUse));
+        assertTrue(pool.isEmpty());
+        assertSame(inUse, cache.get(1));
+
+        // Once replaced by another value it is
+        cache.put(1, "other");
+        assertEquals(1, pool.size());
+        assertSame(inUse, pool.get(0));
+        assertEquals(1, cache.entryCount());
+    }
+}
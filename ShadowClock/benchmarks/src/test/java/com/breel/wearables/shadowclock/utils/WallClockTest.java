@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.utils;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the cached offset of WallClock across the transitions of zones with unusual ones: the
+ * 30 minute daylight time of Lord Howe, and Moscow, which moved its standard offset and has no
+ * daylight time in its current rules.
+ * <p>
+ * The clock is moved a minute at a time from a day before the transition to a day after it, so
+ * the offset is mostly read from the cache, and every minute is compared to Calendar.
+ */
+public class WallClockTest {
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    private static final int HOUR = 60 * 60 * 1000;
+
+
+    @Test
+    public void newYorkSpringForward() {
+        // 2:00 EST becomes 3:00 EDT
+        assertTransition("America/New_York", utc(2015, Calendar.MARCH, 8, 7, 0), -5 * HOUR, -4 * HOUR);
+    }
+
+
+    @Test
+    public void newYorkFallBack() {
+        // 2:00 EDT becomes 1:00 EST
+        assertTransition("America/New_York", utc(2015, Calendar.NOVEMBER, 1, 6, 0), -4 * HOUR, -5 * HOUR);
+    }
+
+
+    @Test
+    public void lordHoweSpringForward() {
+        // 2:00 at +10:30 becomes 2:30 at +11
+        assertTransition("Australia/Lord_Howe", utc(2015, Calendar.OCTOBER, 3, 15, 30), 10 * HOUR + HOUR / 2, 11 * HOUR);
+    }
+
+
+    @Test
+    public void lordHoweFallBack() {
+        // 2:00 at +11 becomes 1:30 at +10:30
+        assertTransition("Australia/Lord_Howe", utc(2016, Calendar.APRIL, 2, 15, 0), 11 * HOUR, 10 * HOUR + HOUR / 2);
+    }
+
+
+    @Test
+    public void moscowSpringForward() {
+        // 2:00 MSK at +3 becomes 3:00 at +4, the permanent summer time of 2011
+        assertTransition("Europe/Moscow", utc(2011, Calendar.MARCH, 26, 23, 0), 3 * HOUR, 4 * HOUR);
+    }
+
+
+    @Test
+    public void moscowFallBack() {
+        // 2:00 at +4 becomes 1:00 at +3, without daylight time since
+        assertTransition("Europe/Moscow", utc(2014, Calendar.OCTOBER, 25, 22, 0), 4 * HOUR, 3 * HOUR);
+    }
+
+
+    /**
+     * Checks the offset before and after a transition, where the clock finds it, and the local
+     * time of every minute from a day before to a day after
+     */
+    private static void assertTransition(String zoneId, long transition, int offsetBefore, int offsetAfter) {
+        TimeZone zone = TimeZone.getTimeZone(zoneId);
+        assertEquals(zoneId, zone.getID());
+
+        WallClock clock = new WallClock(WallClock.SYSTEM, zone);
+        clock.set(transition - 1);
+        assertEquals(zoneId + " offset before", offsetBefore, clock.getOffset());
+        assertEquals(zoneId + " transition", transition, clock.getOffsetEnd());
+        clock.set(transition);
+        assertEquals(zoneId + " offset after", offsetAfter, clock.getOffset());
+
+        Calendar expected = Calendar.getInstance(zone);
+        clock = new WallClock(WallClock.SYSTEM, zone);
+        for (long millis = transition - DAY_MILLIS; millis <= transition + DAY_MILLIS; millis += MINUTE_MILLIS) {
+            clock.set(millis);
+            expected.setTimeInMillis(millis);
+            String at = zoneId + " at " + millis;
+            assertEquals(at, expected.get(Calendar.HOUR_OF_DAY), clock.hour);
+            assertEquals(at, expected.get(Calendar.MINUTE), clock.minute);
+            assertEquals(at, expected.get(Calendar.SECOND), clock.second);
+        }
+
+        // Going back across the transition looks the offset up again
+        clock.set(transition - MINUTE_MILLIS);
+        expected.setTimeInMillis(transition - MINUTE_MILLIS);
+        assertEquals(zoneId + " back", expected.get(Calendar.HOUR_OF_DAY), clock.hour);
+        assertEquals(zoneId + " back", expected.get(Calendar.MINUTE), clock.minute);
+    }
+
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.glyphs;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gradle task compiling the JSON digit assets into the binary glyph file, see {@link GlyphCompiler}.
+ * <p>
+ * If lodSource is set, it also generates one level of detail of that set per screen density, with
+ * an error of lodPixelError dp for digits drawn at lodGlyphScale, see {@link GlyphSimplifier}.
+ */
+public class CompileGlyphsTask extends DefaultTask {
+
+    private File sourceDir;
+    private List<String> sets = new ArrayList<String>();
+    private File outputFile;
+
+    private String lodSource;
+    private float lodPixelError = 0.5f;
+    private float lodGlyphScale = 1.0f;
+    private List<Float> lodDensities = new ArrayList<Float>();
+
+    @InputDirectory
+    public File getSourceDir() {
+        return sourceDir;
+    }
+
+    public void setSourceDir(File sourceDir) {
+        this.sourceDir = sourceDir;
+    }
+
+    @Input
+    public List<String> getSets() {
+        return sets;
+    }
+
+    public void setSets(List<String> sets) {
+        this.sets = sets;
+    }
+
+    @OutputFile
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    @Input
+    @Optional
+    public String getLodSource() {
+        return lodSource;
+    }
+
+    public void setLodSource(String lodSource) {
+        this.lodSource = lodSource;
+    }
+
+    @Input
+    public float getLodPixelError() {
+        return lodPixelError;
+    }
+
+    public void setLodPixelError(float lodPixelError) {
+        this.lodPixelError = lodPixelError;
+    }
+
+    @Input
+    public float getLodGlyphScale() {
+        return lodGlyphScale;
+    }
+
+    public void setLodGlyphScale(float lodGlyphScale) {
+        this.lodGlyphScale = lodGlyphScale;
+    }
+
+    @Input
+    public List<Float> getLodDensities() {
+        return lodDensities;
+    }
+
+    public void setLodDensities(List<Float> lodDensities) {
+        this.lodDensities = lodDensities;
+    }
+
+    @TaskAction
+    public void compile() throws IOException {
+        float[] lodErrors = new float[lodSource != null ? lodDensities.size() : 0];
+        for (int i = 0; i < lodErrors.length; i++) {
+            lodErrors[i] = GlyphSimplifier.toGlyphUnits(lodPixelError, lodDensities.get(i).floatValue(), lodGlyphScale);
+        }
+        GlyphCompiler.compile(sourceDir, sets, lodSource, lodErrors, outputFile);
+    }
+}
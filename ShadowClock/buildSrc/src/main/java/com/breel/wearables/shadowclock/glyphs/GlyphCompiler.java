@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.glyphs;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the JSON digit assets into the packed binary glyph file read by
+ * com.breel.wearables.shadowclock.graphics.GlyphFile.
+ * <p>
+ * Holes are subtracted and multi-chunk outlines (digit 5) are unioned here, so the watch only
+ * has to replay the resulting outline. Shadow contours, bounds and center are stored as floats.
+ * <p>
+ * Levels of detail of a set can also be generated, see {@link GlyphSimplifier}. They're written
+ * as extra sets named after the source set plus {@link #LOD_SUFFIX} and their index, with the
+ * max distance of their outlines to the source ones.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * int   magic 'GLYF'
+ * short version
+ * short set count, short glyphs per set
+ * short max verbs, max coords, max shadow points, max shadow contours (of any glyph)
+ * for every set: utf name, float max error (glyph units, 0 for the hand-made sets)
+ * int   record offset of every glyph, set by set, or -1
+ * records:
+ *   short id, byte flags, byte fill type
+ *   float minX, minY, maxX, maxY, centerX, centerY (of the shadow vertices)
+ *   short verb count, byte verbs
+ *   short coord count, float coords (x, y interleaved)
+ *   short shadow contour count, short exclusive contour ends
+ *   short shadow point count, float xs, float ys
+ * </pre>
+ */
+public final class GlyphCompiler {
+
+    public static final int MAGIC = 0x474C5946;
+    public static final int VERSION = 2;
+    public static final int GLYPHS_PER_SET = 10;
+
+    // Generated sets are named e.g. json_lod0
+    public static final String LOD_SUFFIX = "_lod";
+
+    public static final int VERB_MOVE = 0;
+    public static final int VERB_LINE = 1;
+    public static final int VERB_QUAD = 2;
+    public static final int VERB_CUBIC = 3;
+    public static final int VERB_CLOSE = 4;
+
+    public static final int FILL_NON_ZERO = 0;
+    public static final int FILL_EVEN_ODD = 1;
+
+    // The outline is drawn slightly bigger than its shadow to hide the shadow edge
+    public static final int FLAG_OUTLINE_BLEED = 1;
+
+
+    /**
+     * A digit as read from its JSON file
+     */
+    public static final class Glyph {
+        public int id;
+        public int flags;
+        public Area outline;
+        public List<float[]> shadowContours = new ArrayList<float[]>();
+    }
+
+
+    private GlyphCompiler() { }
+
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: GlyphCompiler <assets dir> <output file> <set> [<set>...]");
+            System.exit(1);
+        }
+        compile(new File(args[0]), Arrays.asList(args).subList(2, args.length), new File(args[1]));
+    }
+
+
+    /**
+     * Compiles every set of digits found in the assets directory into the output file
+     * @param assetsDir Directory containing one folder per set, with the files 0.json to 9.json
+     * @param sets Names of the set folders, in the order they are written
+     * @param output The binary glyph file
+     */
+    public static void compile(File assetsDir, List<String> sets, File output) throws IOException {
+        compile(assetsDir, sets, null, new float[0], output);
+    }
+
+
+    /**
+     * Compiles every set of digits found in the assets directory, plus the levels of detail of
+     * one of them
+     * @param assetsDir Directory containing one folder per set, with the files 0.json to 9.json
+     * @param sets Names of the set folders, in the order they are written
+     * @param lodSource The set the levels of detail are generated from, one of sets, or null
+     * @param lodErrors Max error of every level of detail in glyph units, see
+     *                  {@link GlyphSimplifier#toGlyphUnits}
+     * @param output The binary glyph file
+     */
+    public static void compile(File assetsDir, List<String> sets, String lodSource, float[] lodErrors,
+                               File output) throws IOException {
+        List<String> setNames = new ArrayList<String>(sets);
+        List<Glyph[]> glyphSets = new ArrayList<Glyph[]>();
+        List<Float> setErrors = new ArrayList<Float>();
+        Glyph[] source = null;
+        for (String set : sets) {
+            Glyph[] glyphs = new Glyph[GLYPHS_PER_SET];
+            for (int i = 0; i < GLYPHS_PER_SET; i++) {
+                File file = new File(new File(assetsDir, set), i + ".json");
+                if (file.isFile()) {
+                    glyphs[i] = readGlyph(file);
+                }
+            }
+            glyphSets.add(glyphs);
+            setErrors.add(0.0f);
+            if (set.equals(lodSource)) {
+                source = glyphs;
+            }
+        }
+
+        if (lodSource != null && source == null) {
+            throw new IllegalArgumentException("Unknown level of detail source " + lodSource);
+        }
+        for (int l = 0; source != null && l < lodErrors.length; l++) {
+            Glyph[] glyphs = new Glyph[GLYPHS_PER_SET];
+            for (int i = 0; i < GLYPHS_PER_SET; i++) {
+                if (source[i] != null) {
+                    glyphs[i] = GlyphSimplifier.simplify(source[i], lodErrors[l]);
+                }
+            }
+            setNames.add(lodSource + LOD_SUFFIX + l);
+            glyphSets.add(glyphs);
+            setErrors.add(lodErrors[l]);
+        }
+
+        File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create " + parent);
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            write(setNames, glyphSets, setErrors, out);
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Reads one JSON digit file
+     */
+    @SuppressWarnings("unchecked")
+    public static Glyph readGlyph(File file) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+        Map<String, Object> root = (Map<String, Object>) Json.parse(text);
+
+        Glyph glyph = new Glyph();
+        glyph.id = Integer.parseInt(String.valueOf(root.get("id")));
+
+        List<Object> path = (List<Object>) root.get("path");
+        List<Object> shadow = (List<Object>) root.get("shadow");
+
+        if (!path.isEmpty() && path.get(0) instanceof List) {
+            // Outline made of several chunks: union them
+            glyph.outline = new Area();
+            for (Object chunk : path) {
+                glyph.outline.add(new Area(readPath((List<Object>) chunk)));
+            }
+            for (Object contour : shadow) {
+                glyph.shadowContours.add(toFloats((List<Object>) contour));
+            }
+        } else {
+            glyph.flags |= FLAG_OUTLINE_BLEED;
+            glyph.outline = new Area(readPath(path));
+            List<Object> holes = (List<Object>) root.get("holes");
+            if (holes != null) {
+                for (Object hole : holes) {
+                    List<Object> holeData = (List<Object>) ((Map<String, Object>) hole).get("data");
+                    glyph.outline.subtract(new Area(readPath(holeData)));
+                }
+            }
+            glyph.shadowContours.add(toFloats(shadow));
+        }
+        return glyph;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Path2D.Float readPath(List<Object> commands) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO);
+        for (Object command : commands) {
+            Map<String, Object> elem = (Map<String, Object>) command;
+            String type = (String) elem.get("type");
+            float[] d = toFloats((List<Object>) elem.get("data"));
+            if (type.equals("move")) {
+                path.moveTo(d[0], d[1]);
+            } else if (type.equals("line")) {
+                path.lineTo(d[0], d[1]);
+            } else if (type.equals("bezier")) {
+                path.curveTo(d[0], d[1], d[2], d[3], d[4], d[5]);
+            } else {
+                throw new IllegalArgumentException("Unknown path command " + type);
+            }
+        }
+        path.closePath();
+        return path;
+    }
+
+
+    private static float[] toFloats(List<Object> values) {
+        float[] result = new float[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((Number) values.get(i)).floatValue();
+        }
+        return result;
+    }
+
+
+    private static void write(List<String> setNames, List<Glyph[]> sets, List<Float> setErrors,
+                              OutputStream stream) throws IOException {
+        // Records first, to know their offsets
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream recordsOut = new DataOutputStream(records);
+        int[] offsets = new int[sets.size() * GLYPHS_PER_SET];
+        int maxVerbs = 0;
+        int maxCoords = 0;
+        int maxShadowPoints = 0;
+        int maxShadowContours = 0;
+
+        for (int s = 0; s < sets.size(); s++) {
+            for (int g = 0; g < GLYPHS_PER_SET; g++) {
+                Glyph glyph = sets.get(s)[g];
+                if (glyph == null) {
+                    offsets[s * GLYPHS_PER_SET + g] = -1;
+                    continue;
+                }
+                offsets[s * GLYPHS_PER_SET + g] = recordsOut.size();
+                int[] counts = writeRecord(glyph, recordsOut);
+                maxVerbs = Math.max(maxVerbs, counts[0]);
+                maxCoords = Math.max(maxCoords, counts[1]);
+                maxShadowPoints = Math.max(maxShadowPoints, counts[2]);
+                maxShadowContours = Math.max(maxShadowContours, counts[3]);
+            }
+        }
+        recordsOut.flush();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeShort(VERSION);
+        headerOut.writeShort(sets.size());
+        headerOut.writeShort(GLYPHS_PER_SET);
+        headerOut.writeShort(maxVerbs);
+        headerOut.writeShort(maxCoords);
+        headerOut.writeShort(maxShadowPoints);
+        headerOut.writeShort(maxShadowContours);
+        for (int s = 0; s < setNames.size(); s++) {
+            headerOut.writeUTF(setNames.get(s));
+            headerOut.writeFloat(setErrors.get(s));
+        }
+        int recordsStart = headerOut.size() + offsets.length * 4;
+        for (int offset : offsets) {
+            headerOut.writeInt(offset < 0 ? -1 : recordsStart + offset);
+        }
+        headerOut.flush();
+
+        header.writeTo(stream);
+        records.writeTo(stream);
+    }
+
+
+    /**
+     * Writes a glyph record
+     * @return verb, coord, shadow point and shadow contour counts
+     */
+    private static int[] writeRecord(Glyph glyph, DataOutputStream out) throws IOException {
+        // Outline
+        ByteArrayOutputStream verbs = new ByteArrayOutputStream();
+        List<Float> coords = new ArrayList<Float>();
+        PathIterator iterator = glyph.outline.getPathIterator(null);
+        float[] segment = new float[6];
+        while (!iterator.isDone()) {
+            int type = iterator.currentSegment(segment);
+            switch (type) {
+                case PathIterator.SEG_MOVETO:
+                    verbs.write(VERB_MOVE);
+                    addCoords(coords, segment, 2);
+                    break;
+                case PathIterator.SEG_LINETO:
+                    verbs.write(VERB_LINE);
+                    addCoords(coords, segment, 2);
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    verbs.write(VERB_QUAD);
+                    addCoords(coords, segment, 4);
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    verbs.write(VERB_CUBIC);
+                    addCoords(coords, segment, 6);
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    verbs.write(VERB_CLOSE);
+                    break;
+            }
+            iterator.next();
+        }
+        int fillType = iterator.getWindingRule() == PathIterator.WIND_EVEN_ODD ? FILL_EVEN_ODD : FILL_NON_ZERO;
+
+        // Shadow bounds and center
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        int shadowPoints = 0;
+        for (float[] contour : glyph.shadowContours) {
+            for (int i = 0; i + 1 < contour.length; i += 2) {
+                minX = Math.min(minX, contour[i]);
+                maxX = Math.max(maxX, contour[i]);
+                minY = Math.min(minY, contour[i + 1]);
+                maxY = Math.max(maxY, contour[i + 1]);
+            }
+            shadowPoints += contour.length / 2;
+        }
+
+        out.writeShort(glyph.id);
+        out.writeByte(glyph.flags);
+        out.writeByte(fillType);
+        out.writeFloat(minX);
+        out.writeFloat(minY);
+        out.writeFloat(maxX);
+        out.writeFloat(maxY);
+        out.writeFloat((minX + maxX) / 2);
+        out.writeFloat((minY + maxY) / 2);
+
+        out.writeShort(verbs.size());
+        verbs.writeTo(out);
+        out.writeShort(coords.size());
+        for (Float coord : coords) {
+            out.writeFloat(coord);
+        }
+
+        out.writeShort(glyph.shadowContours.size());
+        int end = 0;
+        for (float[] contour : glyph.shadowContours) {
+            end += contour.length / 2;
+            out.writeShort(end);
+        }
+        out.writeShort(shadowPoints);
+        for (float[] contour : glyph.shadowContours) {
+            for (int i = 0; i + 1 < contour.length; i += 2) {
+                out.writeFloat(contour[i]);
+            }
+        }
+        for (float[] contour : glyph.shadowContours) {
+            for (int i = 0; i + 1 < contour.length; i += 2) {
+                out.writeFloat(contour[i + 1]);
+            }
+        }
+
+        return new int[]{verbs.size(), coords.size(), shadowPoints, glyph.shadowContours.size()};
+    }
+
+
+    private static void addCoords(List<Float> coords, float[] segment, int count) {
+        for (int i = 0; i < count; i++) {
+            coords.add(segment[i]);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.glyphs;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the levels of detail of a glyph from its detailed outline.
+ * <p>
+ * The outline is flattened by adaptive subdivision of its curves (see
+ * {@link java.awt.geom.FlatteningPathIterator}) and every contour is then simplified with
+ * Douglas-Peucker, each step taking half of the allowed error. The outer contours of the result
+ * are also the shadow silhouette, so the shadows no longer depend on hand-made vertex arrays.
+ */
+public final class GlyphSimplifier {
+
+    private GlyphSimplifier() { }
+
+
+    /**
+     * Error allowed in glyph units for an error in pixels on a screen
+     * @param pixelError Max distance to the detailed outline, in dp
+     * @param density Density of the screen
+     * @param glyphScale Scale of the glyphs (100 units) on the canvas
+     */
+    public static float toGlyphUnits(float pixelError, float density, float glyphScale) {
+        return pixelError * density / glyphScale;
+    }
+
+
+    /**
+     * Builds a level of detail of a glyph
+     * @param source The detailed glyph
+     * @param maxError Max distance between the new outline and the detailed one, in glyph units
+     * @return the simplified glyph, its outline made of lines only
+     */
+    public static GlyphCompiler.Glyph simplify(GlyphCompiler.Glyph source, float maxError) {
+        List<float[]> contours = flatten(source.outline, maxError / 2);
+
+        GlyphCompiler.Glyph glyph = new GlyphCompiler.Glyph();
+        glyph.id = source.id;
+        glyph.flags = source.flags;
+
+        // Holes are told apart by their nesting, not by their orientation
+        Path2D.Float outline = new Path2D.Float(Path2D.WIND_EVEN_ODD);
+        for (int c = 0; c < contours.size(); c++) {
+            float[] contour = simplifyContour(contours.get(c), maxError / 2);
+            if (contour.length < 6) {
+                continue;
+            }
+            outline.moveTo(contour[0], contour[1]);
+            for (int i = 2; i + 1 < contour.length; i += 2) {
+                outline.lineTo(contour[i], contour[i + 1]);
+            }
+            outline.closePath();
+
+            if (nestingDepth(contours, c) % 2 == 0) {
+                glyph.shadowContours.add(contour);
+            }
+        }
+        glyph.outline = new Area(outline);
+        return glyph;
+    }
+
+
+    /**
+     * Flattens a shape into closed polygons, x and y interleaved, without the closing vertex
+     * @param flatness Max distance between the curves and their segments
+     */
+    static List<float[]> flatten(Area shape, float flatness) {
+        List<float[]> contours = new ArrayList<float[]>();
+        PathIterator iterator = shape.getPathIterator(null, flatness);
+        float[] segment = new float[6];
+        float[] points = new float[64];
+        int count = 0;
+        while (!iterator.isDone()) {
+            int type = iterator.currentSegment(segment);
+            if (type == PathIterator.SEG_MOVETO && count > 0) {
+                contours.add(closeContour(points, count));
+                count = 0;
+            }
+            if (type == PathIterator.SEG_MOVETO || type == PathIterator.SEG_LINETO) {
+                if (count + 2 > points.length) {
+                    float[] grown = new float[points.length * 2];
+                    System.arraycopy(points, 0, grown, 0, count);
+                    points = grown;
+                }
+                points[count++] = segment[0];
+                points[count++] = segment[1];
+            } else if (type == PathIterator.SEG_CLOSE && count > 0) {
+                contours.add(closeContour(points, count));
+                count = 0;
+            }
+            iterator.next();
+        }
+        if (count > 0) {
+            contours.add(closeContour(points, count));
+        }
+        return contours;
+    }
+
+
+    /**
+     * Copies a contour, dropping the last vertex if it repeats the first one
+     */
+    private static float[] closeContour(float[] points, int count) {
+        if (count >= 4 && points[count - 2] == points[0] && points[count - 1] == points[1]) {
+            count -= 2;
+        }
+        float[] contour = new float[count];
+        System.arraycopy(points, 0, contour, 0, count);
+        return contour;
+    }
+
+
+    /**
+     * Douglas-Peucker on a closed polygon: split at the vertex the farthest from the first one,
+     * then each half is simplified as an open polyline
+     * @param tolerance Max distance between the removed vertices and the result
+     */
+    static float[] simplifyContour(float[] contour, float tolerance) {
+        int n = contour.length / 2;
+        if (n <= 3) {
+            return contour;
+        }
+
+        int far = 0;
+        float farDistance = -1.0f;
+        for (int i = 1; i < n; i++) {
+            float dx = contour[2 * i] - contour[0];
+            float dy = contour[2 * i + 1] - contour[1];
+            float distance = dx * dx + dy * dy;
+            if (distance > farDistance) {
+                farDistance = distance;
+                far = i;
+            }
+        }
+
+        boolean[] keep = new boolean[n + 1];
+        keep[0] = true;
+        keep[far] = true;
+        keep[n] = true;
+        simplifyRange(contour, n, 0, far, tolerance, keep);
+        simplifyRange(contour, n, far, n, tolerance, keep);
+
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                kept++;
+            }
+        }
+        float[] result = new float[kept * 2];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                result[k++] = contour[2 * i];
+                result[k++] = contour[2 * i + 1];
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Keeps the vertex of (first, last) the farthest from their chord if it's over the
+     * tolerance, and recurses on both sides. Index n is the first vertex again.
+     */
+    private static void simplifyRange(float[] contour, int n, int first, int last, float tolerance, boolean[] keep) {
+        if (last - first < 2) {
+            return;
+        }
+        float ax = contour[2 * first];
+        float ay = contour[2 * first + 1];
+        float bx = contour[2 * (last % n)];
+        float by = contour[2 * (last % n) + 1];
+
+        int index = -1;
+        float maxDistance = tolerance;
+        for (int i = first + 1; i < last; i++) {
+            float distance = segmentDistance(contour[2 * i], contour[2 * i + 1], ax, ay, bx, by);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return;
+        }
+        keep[index] = true;
+        simplifyRange(contour, n, first, index, tolerance, keep);
+        simplifyRange(contour, n, index, last, tolerance, keep);
+    }
+
+
+    /**
+     * Distance from a point to the segment a-b
+     */
+    private static float segmentDistance(float x, float y, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = 0.0f;
+        if (lengthSquared > 0.0f) {
+            t = Math.max(0.0f, Math.min(1.0f, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+        }
+        float px = ax + t * dx - x;
+        float py = ay + t * dy - y;
+        return (float) Math.sqrt(px * px + py * py);
+    }
+
+
+    /**
+     * Number of the other contours containing a contour: even for outer contours, odd for holes
+     */
+    private static int nestingDepth(List<float[]> contours, int index) {
+        float[] contour = contours.get(index);
+        int depth = 0;
+        for (int c = 0; c < contours.size(); c++) {
+            if (c != index && contains(contours.get(c), contour[0], contour[1])) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+
+    /**
+     * Even-odd point in polygon test
+     */
+    private static boolean contains(float[] polygon, float x, float y) {
+        boolean inside = false;
+        int n = polygon.length / 2;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            float xi = polygon[2 * i];
+            float yi = polygon[2 * i + 1];
+            float xj = polygon[2 * j];
+            float yj = polygon[2 * j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
@@ -25,6 +25,7 @@ import android.os.Bundle;
 import android.support.wearable.companion.WatchFaceCompanion;
 import android.util.Log;
 
+import com.breel.wearables.shadowclock.utils.DataMapManager;
 import com.breel.wearables.shadowclock.viewers.WatchFaceSettingsViewer;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -76,14 +77,28 @@ public class WatchFaceSettings extends Activity
     @Override
     protected void onStart() {
         super.onStart();
+        // Back before the messages of the last stop had their results, the client stays connected
+        watchFaceViewer.dataMapManager.runWhenIdle(null);
         mGoogleApiClient.connect();
     }
 
 
     @Override
     protected void onStop() {
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-            mGoogleApiClient.disconnect();
+        // Sends the changes still in the debounce window, and disconnects once every message has
+        // its result: disconnecting earlier would drop them
+        DataMapManager dataMapManager = watchFaceViewer.dataMapManager;
+        dataMapManager.flush();
+        dataMapManager.runWhenIdle(new Runnable() {
+            @Override
+            public void run() {
+                if (mGoogleApiClient.isConnected()) {
+                    mGoogleApiClient.disconnect();
+                }
+            }
+        });
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "onStop: " + dataMapManager);
         }
         super.onStop();
     }
@@ -16,26 +16,66 @@
 
 package com.breel.wearables.shadowclock.utils;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.Wearable;
 
 /**
  * Helper so send the information using the Data Layer API
+ * <p>
+ * Only sends what changes: settings are compared with the last state known to be on the watch,
+ * the one it acknowledged (see {@link #acknowledge(DataMap)}) with the messages delivered
+ * successfully since, and the changes requested within the debounce window go out together as
+ * a single message. Changes still in flight never suppress a request, so a failed message is
+ * retried by the next one. Use it from the main thread.
  */
 public class DataMapManager {
 
+    private static final String TAG = "DataMapManager";
+
     private static final String PATH_WITH_FEATURE = "/watch_face_config/breel";
 
+    // Default window to combine the changes of a burst of toggles into one message
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 300;
+
     public GoogleApiClient mGoogleApiClient;
     private String mPeerId;
 
+    private final long mDebounceMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // State of the watch: the last acknowledged one with the changes delivered since
+    private final DataMap mKnownConfig = new DataMap();
+
+    // Changes sent, waiting for the result of their message
+    private final DataMap mSentChanges = new DataMap();
+
+    // Changes waiting for the debounce window
+    private final DataMap mPendingChanges = new DataMap();
+
+    // Messages waiting for their result, and what to run once there are none
+    private int mMessagesInFlight = 0;
+    private Runnable mOnIdle;
+
+    // Stats, see toString
+    private int mChangesRequested = 0;
+    private int mChangesSkipped = 0;
+    private int mMessagesSent = 0;
+    private int mMessagesFailed = 0;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
 
     /**
      * Constructor
@@ -43,41 +83,144 @@ public class DataMapManager {
      * @param mPeerId The ID of the device
      */
     public DataMapManager(GoogleApiClient mGoogleApiClient, String mPeerId) {
+        this(mGoogleApiClient, mPeerId, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+
+    /**
+     * Constructor
+     * @param mGoogleApiClient The current GoogleAPIClient object
+     * @param mPeerId The ID of the device
+     * @param debounceMillis Window in milliseconds to combine changes into one message
+     */
+    public DataMapManager(GoogleApiClient mGoogleApiClient, String mPeerId, long debounceMillis) {
         this.mGoogleApiClient = mGoogleApiClient;
         this.mPeerId = mPeerId;
+        this.mDebounceMillis = debounceMillis;
     }
 
 
     /**
-     * Put new data into the DataMap
-     * @param path Path of the data
-     * @param value Value of the data
+     * Sets the config the watch reported, e.g. its config DataItem or a settings change message
      */
-    public void add(String path, final String value) {
-        PutDataMapRequest dataMap = PutDataMapRequest.create(path);
-        dataMap.getDataMap().putString("value", value + "|" + String.valueOf(System.currentTimeMillis()));
-        PutDataRequest request = dataMap.asPutDataRequest();
-        Wearable.DataApi.putDataItem(mGoogleApiClient, request).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-            @Override
-            public void onResult(DataApi.DataItemResult dataItemResult) {
-                Log.d("onResult", value + " Sending was successful: " + dataItemResult.getStatus().isSuccess());
+    public void acknowledge(DataMap config) {
+        for (String key : config.keySet()) {
+            String value = config.getString(key);
+            if (value != null) {
+                mKnownConfig.putString(key, value);
+                if (value.equals(mSentChanges.getString(key))) {
+                    mSentChanges.remove(key);
+                }
             }
-        });
+        }
     }
 
 
     /**
-     * Send information using the wearable message API
+     * Send information using the wearable message API. The change is sent after the debounce
+     * window, together with the other changes requested meanwhile. It's skipped if the watch is
+     * known to have that value already and no value of the setting is in flight.
      * @param configKey The key of the setting
      * @param value The value of the setting
      */
     public void sendMessage(String configKey, String value) {
+        mChangesRequested++;
+
+        if (value.equals(mKnownConfig.getString(configKey)) && !mSentChanges.containsKey(configKey)) {
+            // Toggled back before the window closed, or nothing to change
+            if (mPendingChanges.remove(configKey) == null) {
+                mChangesSkipped++;
+            }
+        } else {
+            mPendingChanges.putString(configKey, value);
+        }
 
-        if (mPeerId != null) {
-            DataMap config = new DataMap();
-            config.putString(configKey, value);
-            byte[] rawData = config.toByteArray();
-            Wearable.MessageApi.sendMessage(mGoogleApiClient, mPeerId, PATH_WITH_FEATURE, rawData);
+        mHandler.removeCallbacks(mFlush);
+        if (!mPendingChanges.isEmpty()) {
+            mHandler.postDelayed(mFlush, mDebounceMillis);
         }
     }
+
+
+    /**
+     * Sends the pending changes now, e.g. before disconnecting
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlush);
+        if (mPendingChanges.isEmpty() || mPeerId == null) {
+            return;
+        }
+
+        final DataMap config = new DataMap();
+        config.putAll(mPendingChanges);
+        byte[] rawData = config.toByteArray();
+        Wearable.MessageApi.sendMessage(mGoogleApiClient, mPeerId, PATH_WITH_FEATURE, rawData).setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+            @Override
+            public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                onMessageResult(config, sendMessageResult.getStatus().isSuccess());
+            }
+        });
+
+        mSentChanges.putAll(mPendingChanges);
+        mPendingChanges.clear();
+        mMessagesSent++;
+        mMessagesInFlight++;
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Sent " + config.size() + " changes, " + mMessagesSent + " messages for "
+                    + mChangesRequested + " requested changes");
+        }
+    }
+
+
+    /**
+     * Runs an action once every message sent has its result, right away if none is in flight,
+     * e.g. to disconnect the client after {@link #flush()}. Replaces the previous action.
+     * @param action The action, or null to cancel the previous one
+     */
+    public void runWhenIdle(Runnable action) {
+        if (action != null && mMessagesInFlight == 0) {
+            mOnIdle = null;
+            action.run();
+        } else {
+            mOnIdle = action;
+        }
+    }
+
+
+    /**
+     * Moves the changes of a message out of the ones in flight: to the known state of the watch
+     * if it was delivered, dropped otherwise so they're sent again when requested. Changes sent
+     * again by a later message are left to its result.
+     */
+    private void onMessageResult(DataMap config, boolean success) {
+        mMessagesInFlight--;
+        if (!success) {
+            mMessagesFailed++;
+            Log.w(TAG, "Sending " + config.size() + " changes failed");
+        }
+        for (String key : config.keySet()) {
+            String value = config.getString(key);
+            if (value == null || !value.equals(mSentChanges.getString(key))) {
+                continue;
+            }
+            mSentChanges.remove(key);
+            if (success) {
+                mKnownConfig.putString(key, value);
+            }
+        }
+
+        if (mMessagesInFlight == 0 && mOnIdle != null) {
+            Runnable onIdle = mOnIdle;
+            mOnIdle = null;
+            onIdle.run();
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("DataMapManager[requested=%d,skipped=%d,messages=%d,failed=%d,inFlight=%d]",
+                mChangesRequested, mChangesSkipped, mMessagesSent, mMessagesFailed, mMessagesInFlight);
+    }
 }
@@ -65,9 +65,10 @@ public class WatchFaceSettingsViewer {
 
 
     /**
-     * sets the default values of
+     * sets the default values of the config reported by the watch
      */
     public void setDefaults(DataMap config) {
+        dataMapManager.acknowledge(config);
 
         String twentyFourClockString = config.getString(KEY_HOUR_FORMAT_TYPE);
 
@@ -16,9 +16,12 @@
 
 package com.breel.wearables.shadowclock;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
 import android.animation.ValueAnimator;
 import android.annotation.TargetApi;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -26,10 +29,11 @@ import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.Time;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.SurfaceHolder;
@@ -37,7 +41,14 @@ import android.view.WindowInsets;
 import android.view.animation.AccelerateDecelerateInterpolator;
 
 import com.breel.wearables.shadowclock.config.BReelWatchFaceUtil;
+import com.breel.wearables.shadowclock.config.ConfigCache;
+import com.breel.wearables.shadowclock.controllers.QualityGovernor;
 import com.breel.wearables.shadowclock.controllers.ShadowDialController;
+import com.breel.wearables.shadowclock.controllers.SunSweep;
+import com.breel.wearables.shadowclock.diagnostics.FrameStats;
+import com.breel.wearables.shadowclock.diagnostics.MemoryRegistry;
+import com.breel.wearables.shadowclock.diagnostics.Trace;
+import com.breel.wearables.shadowclock.utils.WallClock;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -52,8 +63,14 @@ import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main Service of the watch face.
@@ -61,6 +78,24 @@ import java.util.TimeZone;
 public class BReelWatchFaceService extends CanvasWatchFaceService {
     private static final String TAG = "BReelWatchFaceService";
 
+    // How long the dump waits for the main thread, e.g. while it draws a frame
+    private static final long DUMP_TIMEOUT_MILLIS = 1000;
+
+    // Render timings of the engines, recorded and printed on the main thread
+    private final FrameStats mFrameStats = new FrameStats();
+
+    // Quality level of the engines, adapted to the render timings and printed on the main thread
+    private final QualityGovernor mQualityGovernor = new QualityGovernor();
+
+    // Memory of the engines, trimmed on memory pressure and printed by dump
+    private final MemoryRegistry mMemoryRegistry = new MemoryRegistry();
+
+    // Engines alive, only touched by the main thread which draws them
+    private final List<Engine> mEngines = new ArrayList<Engine>();
+
+    // Runs the parts of the dump that read the render stats on the thread drawing the engines
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
 
     @Override
     public Engine onCreateEngine() {
@@ -68,6 +103,117 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
     }
 
 
+    /**
+     * Drops the derived data of the dial, it's rebuilt lazily by the next frames. The less
+     * memory is left, the more is dropped: prefetched sprites first, then the caches, then the
+     * bitmaps of the frame.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        int priority;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            priority = MemoryRegistry.PRIORITY_FRAME;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            priority = MemoryRegistry.PRIORITY_CACHE;
+        } else {
+            priority = MemoryRegistry.PRIORITY_PREFETCH;
+        }
+        trimMemory(priority, level);
+    }
+
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        trimMemory(MemoryRegistry.PRIORITY_FRAME, ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+
+    private void trimMemory(int priority, int level) {
+        long freed = mMemoryRegistry.trim(priority);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "trimMemory level " + level + ": freed " + (freed / 1024) + " KB");
+        }
+    }
+
+
+    /**
+     * Prints the render timings, the quality level, the memory, the shadow caches and the trace, see adb shell dumpsys activity service
+     * BReelWatchFaceService. Pass "reset" to clear them after printing.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        boolean reset = false;
+        if (args != null) {
+            for (String arg : args) {
+                if ("reset".equals(arg)) {
+                    reset = true;
+                }
+            }
+        }
+
+        writer.println(TAG + " render stats:");
+        dumpRenderStats("  ", writer, reset);
+        mMemoryRegistry.dump("  ", writer);
+        if (Trace.ENABLED) {
+            Trace.dump("  ", writer);
+            if (reset) {
+                Trace.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Prints, and resets if asked, the render timings, the quality level and the shadow caches of
+     * the engines. The main thread records them while drawing, so the dump (called on a binder
+     * thread) posts there and waits for the text, like the drawing thread publishes the memory
+     * for {@link MemoryRegistry#dump}.
+     */
+    private void dumpRenderStats(final String prefix, PrintWriter writer, final boolean reset) {
+        final StringWriter text = new StringWriter();
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable printStats = new Runnable() {
+            @Override
+            public void run() {
+                PrintWriter statsWriter = new PrintWriter(text);
+                mFrameStats.dump(prefix, statsWriter);
+                mQualityGovernor.dump(prefix, statsWriter);
+                for (Engine engine : mEngines) {
+                    engine.dump(prefix, statsWriter);
+                }
+                statsWriter.flush();
+
+                if (reset) {
+                    mFrameStats.reset();
+                    mQualityGovernor.reset();
+                }
+                done.countDown();
+            }
+        };
+        mMainHandler.post(printStats);
+
+        try {
+            if (!done.await(DUMP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                // So it doesn't reset the stats later without printing them
+                mMainHandler.removeCallbacks(printStats);
+                writer.print(prefix);
+                writer.println("Render stats: main thread busy, not printed");
+                return;
+            }
+        } catch (InterruptedException e) {
+            mMainHandler.removeCallbacks(printStats);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        writer.print(text.toString());
+    }
+
+
     private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
             GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
 
@@ -75,7 +221,7 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
         private ShadowDialController mShadowDialController;
 
         // Time vars
-        private Time mTime;
+        private WallClock mTime;
         private int mPreviousHour = -1;
         private int mActualHour = -1;
         private int mPreviousMinute = -1;
@@ -101,8 +247,9 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
         // 24-hour format flag
         private boolean is24hours = true;
 
-        // Animator for the sun rotation
+        // Animator for the sun rotation, and its updates since the start
         private ValueAnimator mSunAnimator;
+        private int mSunAnimatorUpdates = 0;
 
         // API Client for retrieving
         private GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(BReelWatchFaceService.this)
@@ -111,11 +258,15 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
                 .addApi(Wearable.API)
                 .build();
 
+        // Local copy of the config, and whether it was synced with the Data Layer since connecting
+        private ConfigCache mConfigCache;
+        private boolean mConfigFetched = false;
+
         private boolean mRegisteredTimeZoneReceiver = false;
         private final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mTime.clear(intent.getStringExtra("time-zone"));
+                mTime.setTimeZone(TimeZone.getTimeZone(intent.getStringExtra("time-zone")));
                 setTimeToNow();
             }
         };
@@ -140,23 +291,59 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
                     .build());
 
             // Init time
-            mTime = new Time();
+            mTime = new WallClock();
             setTimeToNow();
 
             // Starts controller
             mShadowDialController = new ShadowDialController(getBaseContext(), mTime, mCanvasWidth, mCanvasHeight);
+            mShadowDialController.setFrameStats(mFrameStats);
+            mShadowDialController.setQualityGovernor(mQualityGovernor);
+            mShadowDialController.setMemoryRegistry(mMemoryRegistry);
+            mEngines.add(this);
+
+            // Config of the last run, until the Data Layer answers
+            mConfigCache = new ConfigCache(BReelWatchFaceService.this, Looper.getMainLooper());
+            mConfigCache.setListener(new ConfigCache.Listener() {
+                @Override
+                public void onConfigChanged(DataMap config, long version) {
+                    updateUiForConfigDataMap(config);
+                }
+            });
+            applyConfigToUi(mConfigCache.getConfig());
 
             // Sun Rotation Animator
-            mSunAnimator = ValueAnimator.ofFloat((float) (1.2 * Math.PI), (float) (2 * Math.PI));
+            mSunAnimator = ValueAnimator.ofFloat(SunSweep.START_VALUE, SunSweep.END_VALUE);
             int mSunAnimatorDuration = 2000; //in millis
-            ValueAnimator.setFrameDelay((long) 16);
+            ValueAnimator.setFrameDelay(QualityGovernor.FRAME_INTERVAL_MILLIS);
             mSunAnimator.setInterpolator(new AccelerateDecelerateInterpolator());
             mSunAnimator.setDuration(mSunAnimatorDuration);
             mSunAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
 
                 public void onAnimationUpdate(ValueAnimator animation) {
-                    Float value = (Float) animation.getAnimatedValue();
-                    mShadowDialController.updateSunAnimation(mTime, value, mCanvasWidth, mCanvasHeight);
+                    // The fraction is a primitive, unlike the boxed animated value
+                    float fraction = animation.getAnimatedFraction();
+
+                    // Lower quality levels skip updates to lower the frame rate, but not the last one
+                    int updatesPerFrame = mQualityGovernor.getUpdatesPerFrame();
+                    if ((mSunAnimatorUpdates++ % updatesPerFrame) != 0 && fraction < 1.0f) {
+                        return;
+                    }
+                    mShadowDialController.updateSunAnimation(mTime, fraction, mCanvasWidth, mCanvasHeight);
+                    invalidate();
+                }
+            });
+            mSunAnimator.addListener(new AnimatorListenerAdapter() {
+
+                @Override
+                public void onAnimationStart(Animator animation) {
+                    mSunAnimatorUpdates = 0;
+                    mShadowDialController.setAnimating(true);
+                }
+
+                @Override
+                public void onAnimationEnd(Animator animation) {
+                    // Also called after a cancel
+                    mShadowDialController.setAnimating(false);
                     invalidate();
                 }
             });
@@ -174,13 +361,27 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDestroy() {
+            mEngines.remove(this);
+            mShadowDialController.release();
+            // Persists the pending config for the next engine without updating this one
+            mConfigCache.release();
             super.onDestroy();
         }
 
 
+        /**
+         * Prints the state of the engine read on the main thread, see dumpRenderStats
+         */
+        void dump(String prefix, PrintWriter writer) {
+            mShadowDialController.dumpShadowCache(prefix, writer);
+        }
+
+
         @Override
         public void onPeekCardPositionUpdate(Rect rect) {
-            Log.d(TAG, "CARD APPEARED!! ----------------------" + rect.centerX() + " " + rect.centerY() + "");
+            if (Trace.ENABLED) {
+                Trace.event(Trace.PEEK_CARD, rect.centerX(), rect.centerY());
+            }
         }
 
 
@@ -198,10 +399,12 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
         public void onTimeTick() {
             super.onTimeTick();
 
-            Log.d(TAG, "onTimeTick---------");
-
             setTimeToNow();
 
+            if (Trace.ENABLED) {
+                Trace.event(Trace.TIME_TICK, mActualHour, mActualMinute);
+            }
+
             // Update the Shadows orientation and distance
             updateCurrentTime();
 
@@ -215,6 +418,8 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
             }
 
             invalidate();
+
+            prepareNextMinute();
         }
 
 
@@ -254,7 +459,9 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            Log.d(TAG, "ON DRAW---------");
+            if (Trace.ENABLED) {
+                Trace.event(Trace.DRAW, isInAmbientMode() ? 1 : 0);
+            }
             mShadowDialController.drawDial(canvas, bounds, isInAmbientMode(), mIsRound, mInsetsScreen, mCanvasWidth);
         }
 
@@ -269,13 +476,15 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
-                mTime.clear(TimeZone.getDefault().getID());
+                mTime.setTimeZone(TimeZone.getDefault());
                 setTimeToNow();
 
                 updateConfigDataItemAndUiOnStartup();
 
             } else {
                 unregisterReceiver();
+                // Changes may be missed while disconnected
+                mConfigFetched = false;
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
                     mGoogleApiClient.disconnect();
@@ -315,6 +524,8 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
             mShadowDialController.setupShineOverlay(mCanvasRect, mIsRound, mTime);
 
             mShadowDialController.updateElementsStylesBasedOnTime(mTime);
+
+            prepareNextMinute();
         }
 
 
@@ -363,7 +574,7 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
                     if (Log.isLoggable(TAG, Log.DEBUG)) {
                         Log.d(TAG, "Config DataItem updated:" + config);
                     }
-                    updateUiForConfigDataMap(config);
+                    mConfigCache.merge(config);
                 }
             } finally {
                 dataEvents.close();
@@ -376,14 +587,23 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
          */
         private void setTimeToNow() {
             mTime.setToNow();
-            mActualHour = mTime.hour;
+            mActualHour = mTime.getHour(is24hours);
             mActualMinute = mTime.minute;
 
-            if (!is24hours) {
-                mActualHour = mActualHour % 12;
-                mActualHour = (mActualHour == 0) ? 12 : mActualHour;
+            if (Trace.ENABLED) {
+                Trace.event(Trace.SET_TIME, mActualHour, mActualMinute);
             }
-            Log.d(TAG, "ACTUAL HOUR: " + mActualHour + " ");
+        }
+
+
+        /**
+         * Prepares the shadows and the sun of the next minute in the background
+         */
+        private void prepareNextMinute() {
+            int nextMinute = (mTime.minute + 1) % 60;
+            int nextHour = (nextMinute == 0) ? (mTime.hour + 1) % 24 : mTime.hour;
+            mShadowDialController.prepareNextMinute(WallClock.toDisplayHour(nextHour, is24hours), nextMinute,
+                    mCanvasWidth, mCanvasHeight);
         }
 
 
@@ -459,18 +679,25 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
 
 
         /**
-         * Get the info from the settings
+         * Get the info from the settings, once per connection. Later changes arrive through
+         * onDataChanged, so wrist raises don't touch the Data Layer.
          */
         private void updateConfigDataItemAndUiOnStartup() {
+            if (mConfigFetched) {
+                return;
+            }
             BReelWatchFaceUtil.fetchConfigDataMap(mGoogleApiClient,
                     new BReelWatchFaceUtil.FetchConfigDataMapCallback() {
                         @Override
                         public void onConfigDataMapFetched(DataMap startupConfig) {
+                            mConfigFetched = true;
                             // If the DataItem hasn't been created yet or some keys are missing,
-                            // use the default values.
-                            setDefaultValuesForMissingConfigKeys(startupConfig);
-                            BReelWatchFaceUtil.putConfigDataItem(mGoogleApiClient, startupConfig);
-                            updateUiForConfigDataMap(startupConfig);
+                            // use the default values, and only then write it back.
+                            if (setDefaultValuesForMissingConfigKeys(startupConfig)) {
+                                BReelWatchFaceUtil.putConfigDataItem(mGoogleApiClient, startupConfig);
+                            }
+                            // Updates the UI only if it differs from the cached config
+                            mConfigCache.merge(startupConfig);
                         }
                     }
             );
@@ -479,27 +706,31 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
 
         /**
          * Set the default value for the hour format type
+         * @return true if any key was missing
          */
-        private void setDefaultValuesForMissingConfigKeys(DataMap config) {
-            addStringKeyIfMissing(config, BReelWatchFaceUtil.KEY_HOUR_FORMAT_TYPE, "true");
+        private boolean setDefaultValuesForMissingConfigKeys(DataMap config) {
+            return addStringKeyIfMissing(config, BReelWatchFaceUtil.KEY_HOUR_FORMAT_TYPE, "true");
         }
 
 
         /**
          * Adds the string key in case it's missing
+         * @return true if it was missing
          */
-        private void addStringKeyIfMissing(DataMap config, String key, String value) {
+        private boolean addStringKeyIfMissing(DataMap config, String key, String value) {
             if (!config.containsKey(key)) {
                 config.putString(key, value);
+                return true;
             }
+            return false;
         }
 
 
         /**
-         * Update the interface on changes on the settings
+         * Applies the settings to the dial
+         * @return true if any of them changed the interface
          */
-        private void updateUiForConfigDataMap(final DataMap config) {
-
+        private boolean applyConfigToUi(DataMap config) {
             boolean uiUpdated = false;
 
             for (String configKey : config.keySet()) {
@@ -512,8 +743,15 @@ public class BReelWatchFaceService extends CanvasWatchFaceService {
                     uiUpdated = true;
                 }
             }
+            return uiUpdated;
+        }
 
-            if (uiUpdated) {
+
+        /**
+         * Update the interface on changes on the settings
+         */
+        private void updateUiForConfigDataMap(final DataMap config) {
+            if (applyConfigToUi(config)) {
 
                 invalidate();
 
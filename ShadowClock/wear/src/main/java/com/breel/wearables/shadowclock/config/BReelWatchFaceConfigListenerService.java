@@ -16,7 +16,12 @@
 
 package com.breel.wearables.shadowclock.config;
 
+import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
 import android.util.Log;
 
 import com.google.android.gms.common.ConnectionResult;
@@ -26,49 +31,135 @@ import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link com.google.android.gms.wearable.WearableListenerService} listening for {@link BReelWatchFaceUtil} config messages and
  * updating the config {@link com.google.android.gms.wearable.DataItem} accordingly.
+ * <p>
+ * Messages only queue their key overwrites. A single writer thread merges everything queued
+ * into one DataMap and does one fetch-merge-put per batch, so bursts of messages don't race each
+ * other and the receiving thread never blocks on the connection.
+ * <p>
+ * The service is only bound while a message is delivered, so queuing also starts it: it stays
+ * alive until the writer has drained the queue, then stops itself. Failed batches are queued
+ * again under the newer overwrites and retried a few times.
  */
 public class BReelWatchFaceConfigListenerService extends WearableListenerService
         implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     private static final String TAG = "DigitalListenerService";
 
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private static final int MSG_WRITE = 1;
+
+    // Retries of a failed batch, the delay grows with every attempt
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
     private GoogleApiClient mGoogleApiClient;
 
-    /**
-     * Receive message from mobile app... check for more details: https://developer.android.com/training/wearables/data-layer/messages.html
-     * @param messageEvent
-     */
-    @Override // WearableListenerService
-    public void onMessageReceived(MessageEvent messageEvent) {
+    // Single writer of the config DataItem
+    private HandlerThread mWriterThread;
+    private Handler mWriter;
+
+    // Key overwrites received and not written yet
+    private final Object mPendingLock = new Object();
+    private DataMap mPendingOverwrites = new DataMap();
+    private int mPendingMessages = 0;
+
+    // Start id of the last start, stopping with it fails if the service was started again since
+    private int mLastStartId = 0;
 
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(this)
-                    .addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this)
-                    .addApi(Wearable.API)
-                    .build();
+    // Writer thread only
+    private int mFailedAttempts = 0;
+
+    // Queue and batch stats, printed by dump. Guarded by mPendingLock.
+    private int mMessageCount = 0;
+    private int mBatchCount = 0;
+    private int mWriteCount = 0;
+    private int mSkippedWriteCount = 0;
+    private int mFailedBatchCount = 0;
+    private int mDroppedMessageCount = 0;
+    private int mMaxQueueDepth = 0;
+    private int mMaxBatchSize = 0;
+
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mGoogleApiClient = new GoogleApiClient.Builder(this)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .build();
+
+        mWriterThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mWriterThread.start();
+        mWriter = new Handler(mWriterThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what == MSG_WRITE) {
+                    writePendingOverwrites();
+                }
+                return true;
+            }
+        });
+    }
+
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        super.onStartCommand(intent, flags, startId);
+        synchronized (mPendingLock) {
+            mLastStartId = startId;
         }
-        if (!mGoogleApiClient.isConnected()) {
-            ConnectionResult connectionResult =
-                    mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
+        // The writer may have drained the queue before this start arrived, it stops with this id
+        if (!mWriter.hasMessages(MSG_WRITE)) {
+            mWriter.sendEmptyMessage(MSG_WRITE);
+        }
+        // What's queued is lost with the process anyway
+        return START_NOT_STICKY;
+    }
 
-            if (!connectionResult.isSuccess()) {
-                Log.e(TAG, "Failed to connect to GoogleApiClient.");
-                return;
+
+    @Override
+    public void onDestroy() {
+        // Only stopped once drained, unless the system needs the memory
+        synchronized (mPendingLock) {
+            if (mPendingMessages > 0) {
+                Log.w(TAG, "Destroyed with " + mPendingMessages + " messages not written.");
             }
         }
+        mWriter.post(new Runnable() {
+            @Override
+            public void run() {
+                mGoogleApiClient.disconnect();
+            }
+        });
+        mWriterThread.quitSafely();
+        super.onDestroy();
+    }
+
 
+    /**
+     * Receive message from mobile app... check for more details: https://developer.android.com/training/wearables/data-layer/messages.html
+     * @param messageEvent
+     */
+    @Override // WearableListenerService
+    public void onMessageReceived(MessageEvent messageEvent) {
         if(messageEvent.getPath().equals(BReelWatchFaceUtil.PATH_WITH_FEATURE)) {
             byte[] rawData = messageEvent.getData();
             // It's allowed that the message carries only some of the keys used in the config DataItem
             // and skips the ones that we don't want to change.
             DataMap configKeysToOverwrite = DataMap.fromByteArray(rawData);
-            Log.d(TAG, "Received watch face config message: " + configKeysToOverwrite);
-            BReelWatchFaceUtil.overwriteKeysInConfigDataMap(mGoogleApiClient, configKeysToOverwrite);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Received watch face config message: " + configKeysToOverwrite);
+            }
+            enqueueOverwrites(configKeysToOverwrite);
         }
         if(messageEvent.getPath().equals(BReelWatchFaceUtil.PATH_WITH_FEATURE_ASSET)) {
             byte[] rawData = messageEvent.getData();
@@ -78,6 +169,155 @@ public class BReelWatchFaceConfigListenerService extends WearableListenerService
         }
     }
 
+
+    /**
+     * Queues key overwrites, later ones win. Keeps the service started until they're written and
+     * wakes up the writer unless it's already scheduled.
+     */
+    private void enqueueOverwrites(DataMap configKeysToOverwrite) {
+        synchronized (mPendingLock) {
+            mPendingOverwrites.putAll(configKeysToOverwrite);
+            mPendingMessages++;
+            mMessageCount++;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mPendingMessages);
+        }
+        startService(new Intent(this, BReelWatchFaceConfigListenerService.class));
+        if (!mWriter.hasMessages(MSG_WRITE)) {
+            mWriter.sendEmptyMessage(MSG_WRITE);
+        }
+    }
+
+
+    /**
+     * Writes everything queued as a single put. Runs in the writer thread.
+     */
+    private void writePendingOverwrites() {
+        DataMap batch;
+        int batchSize;
+        synchronized (mPendingLock) {
+            if (mPendingMessages == 0) {
+                stopSelf(mLastStartId);
+                return;
+            }
+            batch = mPendingOverwrites;
+            batchSize = mPendingMessages;
+            mPendingOverwrites = new DataMap();
+            mPendingMessages = 0;
+            mBatchCount++;
+            mMaxBatchSize = Math.max(mMaxBatchSize, batchSize);
+        }
+
+        DataMap currentConfig = null;
+        if (connect()) {
+            currentConfig = BReelWatchFaceUtil.fetchConfigDataMapBlocking(mGoogleApiClient, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        if (currentConfig == null) {
+            Log.e(TAG, "Failed to read the config for " + batchSize + " messages.");
+            retry(batch, batchSize);
+            return;
+        }
+
+        // Nothing to write if every key already has its value
+        boolean changed = false;
+        for (String key : batch.keySet()) {
+            Object value = batch.get(key);
+            Object currentValue = currentConfig.get(key);
+            if (currentValue == null ? value != null : !currentValue.equals(value)) {
+                changed = true;
+                break;
+            }
+        }
+
+        boolean written = false;
+        if (changed) {
+            DataMap overwrittenConfig = new DataMap();
+            overwrittenConfig.putAll(currentConfig);
+            overwrittenConfig.putAll(batch);
+            written = BReelWatchFaceUtil.putConfigDataItemBlocking(mGoogleApiClient, overwrittenConfig,
+                    TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Config batch of " + batchSize + " messages, changed: " + changed + ", written: " + written);
+        }
+        if (changed && !written) {
+            retry(batch, batchSize);
+            return;
+        }
+
+        mFailedAttempts = 0;
+        synchronized (mPendingLock) {
+            if (written) {
+                mWriteCount++;
+            } else {
+                mSkippedWriteCount++;
+            }
+            // Messages queued during the write have woken up the writer again
+            if (mPendingMessages == 0) {
+                stopSelf(mLastStartId);
+            }
+        }
+    }
+
+
+    /**
+     * Queues a failed batch again, under the overwrites received since, and schedules the next
+     * attempt. Drops it after the last one. Runs in the writer thread.
+     */
+    private void retry(DataMap batch, int batchSize) {
+        mFailedAttempts++;
+        synchronized (mPendingLock) {
+            mFailedBatchCount++;
+            if (mFailedAttempts >= MAX_ATTEMPTS) {
+                Log.e(TAG, "Dropped " + batchSize + " messages after " + mFailedAttempts + " attempts.");
+                mDroppedMessageCount += batchSize;
+                mFailedAttempts = 0;
+                if (mPendingMessages == 0) {
+                    stopSelf(mLastStartId);
+                }
+                return;
+            }
+            batch.putAll(mPendingOverwrites);
+            mPendingOverwrites = batch;
+            mPendingMessages += batchSize;
+        }
+        mWriter.removeMessages(MSG_WRITE);
+        mWriter.sendEmptyMessageDelayed(MSG_WRITE, RETRY_DELAY_MILLIS * mFailedAttempts);
+    }
+
+
+    /**
+     * Connects the client if needed, reused by the next batches. Runs in the writer thread.
+     */
+    private boolean connect() {
+        if (mGoogleApiClient.isConnected()) {
+            return true;
+        }
+        ConnectionResult connectionResult = mGoogleApiClient.blockingConnect(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!connectionResult.isSuccess()) {
+            Log.e(TAG, "Failed to connect to GoogleApiClient.");
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Prints the queue stats, see adb shell dumpsys activity service BReelWatchFaceConfigListenerService
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        synchronized (mPendingLock) {
+            writer.println(TAG + " config writes:");
+            writer.println("  messages: " + mMessageCount + ", queued: " + mPendingMessages
+                    + ", max queue depth: " + mMaxQueueDepth);
+            writer.println("  batches: " + mBatchCount + ", max batch size: " + mMaxBatchSize
+                    + ", written: " + mWriteCount + ", skipped: " + mSkippedWriteCount
+                    + ", failed: " + mFailedBatchCount + ", dropped messages: " + mDroppedMessageCount);
+        }
+    }
+
+
     /**
      * Implement GoogleApiClient methods required to get access to data layer API
      */
@@ -103,4 +343,3 @@ public class BReelWatchFaceConfigListenerService extends WearableListenerService
         }
     }
 }
-
@@ -29,6 +29,8 @@ import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Class to get the settings and / or save them
  */
@@ -77,6 +79,31 @@ public final class BReelWatchFaceUtil {
         );
     }
 
+    /**
+     * Fetches the current config {@link DataMap}, blocking until it arrives. Must not be called
+     * from the main thread.
+     * @return the config, empty if the config DataItem doesn't exist, or null if it couldn't be read
+     */
+    public static DataMap fetchConfigDataMapBlocking(GoogleApiClient client, long timeout, TimeUnit unit) {
+        NodeApi.GetLocalNodeResult localNodeResult = Wearable.NodeApi.getLocalNode(client).await(timeout, unit);
+        if (!localNodeResult.getStatus().isSuccess()) {
+            return null;
+        }
+        Uri uri = new Uri.Builder()
+                .scheme("wear")
+                .path(BReelWatchFaceUtil.PATH_WITH_FEATURE)
+                .authority(localNodeResult.getNode().getId())
+                .build();
+        DataApi.DataItemResult dataItemResult = Wearable.DataApi.getDataItem(client, uri).await(timeout, unit);
+        if (!dataItemResult.getStatus().isSuccess()) {
+            return null;
+        }
+        if (dataItemResult.getDataItem() == null) {
+            return new DataMap();
+        }
+        return DataMapItem.fromDataItem(dataItemResult.getDataItem()).getDataMap();
+    }
+
     /**
      * Overwrites (or sets, if not present) the keys in the current config {@link com.google.android.gms.wearable.DataItem} with the
      * ones appearing in the given {@link DataMap}. If the config DataItem doesn't exist, it's
@@ -125,6 +152,21 @@ public final class BReelWatchFaceUtil {
                 });
     }
 
+    /**
+     * Same as {@link #putConfigDataItem(GoogleApiClient, DataMap)}, blocking until the DataItem
+     * is written. Must not be called from the main thread.
+     * @return true if it was written
+     */
+    public static boolean putConfigDataItemBlocking(GoogleApiClient googleApiClient, DataMap newConfig,
+                                                    long timeout, TimeUnit unit) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WITH_FEATURE);
+        putDataMapRequest.getDataMap().putAll(newConfig);
+        DataApi.DataItemResult dataItemResult = Wearable.DataApi
+                .putDataItem(googleApiClient, putDataMapRequest.asPutDataRequest())
+                .await(timeout, unit);
+        return dataItemResult.getStatus().isSuccess();
+    }
+
     private static class DataItemResultCallback implements ResultCallback<DataApi.DataItemResult> {
 
         private final FetchConfigDataMapCallback mCallback;
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.config;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.Map;
+
+/**
+ * Local copy of the watch face config, persisted to SharedPreferences so it's available
+ * synchronously at startup, without waiting for the Data Layer.
+ * <p>
+ * Every change bumps a version stamp. Values equal to the cached ones are ignored, so callers
+ * can skip the Data Layer writes and the UI updates when nothing changed. Changes arriving close
+ * together are coalesced into a single write to the preferences and a single notification.
+ * Config values are strings, like every key of {@link BReelWatchFaceUtil}. Use it from the
+ * thread of the looper given to the constructor.
+ */
+public class ConfigCache {
+
+    private static final String PREFERENCES_NAME = "watch_face_config";
+
+    // Bookkeeping entries of the preferences, the config keys are stored as they are
+    private static final String KEY_FORMAT = "__format";
+    private static final String KEY_VERSION = "__version";
+
+    // Bump when the stored layout changes, older caches are dropped
+    private static final int FORMAT = 1;
+
+    // Changes within this window are written and notified once
+    private static final long COALESCE_MILLIS = 500;
+
+    /**
+     * Notified once for a burst of changes
+     */
+    public interface Listener {
+        void onConfigChanged(DataMap config, long version);
+    }
+
+    private final SharedPreferences preferences;
+    private final DataMap config = new DataMap();
+    private long version;
+
+    // Keys changed since the last flush
+    private final DataMap pendingChanges = new DataMap();
+    private final Handler handler;
+    private Listener listener;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+
+    public ConfigCache(Context context, Looper looper) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        handler = new Handler(looper);
+        load();
+    }
+
+
+    public void setListener(Listener _listener) {
+        listener = _listener;
+    }
+
+
+    /**
+     * The cached config. Don't modify it, use {@link #merge(DataMap)}.
+     */
+    public DataMap getConfig() {
+        return config;
+    }
+
+
+    /**
+     * Copies the values that differ from the cached ones. The changes are persisted and notified
+     * together with the ones arriving within the next {@link #COALESCE_MILLIS}.
+     * @return true if any value changed
+     */
+    public boolean merge(DataMap values) {
+        boolean changed = false;
+        for (String key : values.keySet()) {
+            Object value = values.get(key);
+            if (value instanceof String && !equal(config.get(key), value)) {
+                config.putString(key, (String) value);
+                pendingChanges.putString(key, (String) value);
+                changed = true;
+            }
+        }
+        if (changed) {
+            version++;
+            handler.removeCallbacks(flush);
+            handler.postDelayed(flush, COALESCE_MILLIS);
+        }
+        return changed;
+    }
+
+
+    /**
+     * Writes and notifies the pending changes now
+     */
+    public void flush() {
+        handler.removeCallbacks(flush);
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String key : pendingChanges.keySet()) {
+            editor.putString(key, pendingChanges.getString(key));
+        }
+        editor.putInt(KEY_FORMAT, FORMAT);
+        editor.putLong(KEY_VERSION, version);
+        editor.apply();
+        pendingChanges.clear();
+
+        if (listener != null) {
+            listener.onConfigChanged(config, version);
+        }
+    }
+
+
+    /**
+     * Writes the pending changes without notifying them and drops the listener, e.g. when its
+     * owner is being destroyed
+     */
+    public void release() {
+        listener = null;
+        flush();
+    }
+
+
+    private void load() {
+        if (preferences.getInt(KEY_FORMAT, -1) != FORMAT) {
+            version = 0;
+            preferences.edit().clear().apply();
+            return;
+        }
+        version = preferences.getLong(KEY_VERSION, 0);
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (entry.getValue() instanceof String) {
+                config.putString(entry.getKey(), (String) entry.getValue());
+            }
+        }
+    }
+
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+}
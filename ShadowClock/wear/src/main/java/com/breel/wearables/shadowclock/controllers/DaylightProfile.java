@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.controllers;
+
+/**
+ * The {@link DialStyle} of every minute of the day, computed once in a background thread so
+ * the per minute update is a table lookup.
+ * <p>
+ * The gradient stops are rounded to 1/256, below what the screen shows, so consecutive minutes
+ * often share the same overlay gradient and it doesn't need to be recreated.
+ */
+public class DaylightProfile {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final float STOP_STEP = 256.0f;
+
+    private final float[] sunlightRatio = new float[MINUTES_PER_DAY];
+    private final int[] backgroundColor = new int[MINUTES_PER_DAY];
+    private final int[] shapeColor = new int[MINUTES_PER_DAY];
+    private final float[] shadowGradientRadius = new float[MINUTES_PER_DAY];
+
+    private final float[] shineRadius = new float[MINUTES_PER_DAY];
+    private final int[] shineColor = new int[MINUTES_PER_DAY];
+    private final float[] shineInitPosition = new float[MINUTES_PER_DAY];
+    private final float[] shineFinalPosition = new float[MINUTES_PER_DAY];
+
+    private final float[] shadowRadius = new float[MINUTES_PER_DAY];
+    private final int[] shadowColor = new int[MINUTES_PER_DAY];
+    private final float[] shadowInitPosition = new float[MINUTES_PER_DAY];
+    private final float[] shadowFinalPosition = new float[MINUTES_PER_DAY];
+
+    // Set once the table is complete, publishes it to the other threads
+    private volatile boolean ready = false;
+
+
+    /**
+     * Builds the table in a background thread
+     */
+    public void buildInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                build();
+            }
+        }, "DaylightProfile");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+
+    /**
+     * Builds the table in the calling thread
+     */
+    public void build() {
+        DialStyle style = new DialStyle();
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            style.update(minute / 60, minute % 60);
+
+            sunlightRatio[minute] = style.sunlightRatio;
+            backgroundColor[minute] = style.backgroundColor;
+            shapeColor[minute] = style.shapeColor;
+            shadowGradientRadius[minute] = style.shadowGradientRadius;
+
+            shineRadius[minute] = style.shineRadius;
+            shineColor[minute] = style.shineColor;
+            shineInitPosition[minute] = roundStop(style.shineInitPosition);
+            shineFinalPosition[minute] = roundStop(style.shineFinalPosition);
+
+            shadowRadius[minute] = style.shadowRadius;
+            shadowColor[minute] = style.shadowColor;
+            shadowInitPosition[minute] = roundStop(style.shadowInitPosition);
+            shadowFinalPosition[minute] = roundStop(style.shadowFinalPosition);
+        }
+        ready = true;
+    }
+
+
+    public boolean isReady() {
+        return ready;
+    }
+
+
+    /**
+     * Copies the style of a minute of the day
+     * @param hour The hour, 0 - 23
+     * @param minute The minute, 0 - 59
+     * @param out The style to fill
+     * @return false if the table isn't built yet and the style wasn't filled
+     */
+    public boolean get(int hour, int minute, DialStyle out) {
+        if (!ready) {
+            return false;
+        }
+        int index = (hour * 60 + minute) % MINUTES_PER_DAY;
+
+        out.sunlightRatio = sunlightRatio[index];
+        out.backgroundColor = backgroundColor[index];
+        out.shapeColor = shapeColor[index];
+        out.shadowGradientRadius = shadowGradientRadius[index];
+
+        out.shineRadius = shineRadius[index];
+        out.shineColor = shineColor[index];
+        out.shineInitPosition = shineInitPosition[index];
+        out.shineFinalPosition = shineFinalPosition[index];
+
+        out.shadowRadius = shadowRadius[index];
+        out.shadowColor = shadowColor[index];
+        out.shadowInitPosition = shadowInitPosition[index];
+        out.shadowFinalPosition = shadowFinalPosition[index];
+        return true;
+    }
+
+
+    private static float roundStop(float position) {
+        return Math.round(position * STOP_STEP) / STOP_STEP;
+    }
+}
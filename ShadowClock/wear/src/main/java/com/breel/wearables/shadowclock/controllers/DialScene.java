@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.controllers;
+
+import com.breel.wearables.shadowclock.diagnostics.FrameStats;
+import com.breel.wearables.shadowclock.graphics.Renderer;
+import com.breel.wearables.shadowclock.graphics.ShineOverlay;
+
+/**
+ * Layers of a frame of the dial and their order: background, shadow overlay, digit shadows,
+ * digits, shadow overlay again and shine. Also the layout of the digits and the overlays.
+ * <p>
+ * Draws through a {@link Renderer} and leaves the digits to a {@link Digits} implementation,
+ * so the same frames are drawn on the watch (ShadowDialController) and on a workstation.
+ * Pure Java, no Android dependencies.
+ */
+public class DialScene {
+
+    // Layout slots of the digits
+    public static final int SLOT_HOURS_TENS = 0;
+    public static final int SLOT_HOURS_UNITS = 1;
+    public static final int SLOT_MINUTES_TENS = 2;
+    public static final int SLOT_MINUTES_UNITS = 3;
+    public static final int SLOT_COUNT = 4;
+
+    // Minutes first, then hours
+    private static final int[] DRAW_ORDER = {SLOT_MINUTES_TENS, SLOT_MINUTES_UNITS, SLOT_HOURS_TENS, SLOT_HOURS_UNITS};
+
+    // Layout of the digits: scale of the glyphs (100 units) and space between them
+    public static final float DIGIT_SCALE = 0.8f;
+    public static final int DIGIT_MARGIN = 10;
+
+    // Rotation of the overlay gradients from the angle of the minute
+    private static final float SHINE_ANGLE_OFFSET = 90.0f;
+    private static final float SHADOW_ANGLE_OFFSET = -90.0f;
+
+    /**
+     * Draws the digits of the slots
+     */
+    public interface Digits {
+
+        void drawShadow(Renderer renderer, int slot);
+
+        void drawShape(Renderer renderer, int slot, boolean ambient);
+    }
+
+    private int backgroundColor = 0xFF000000;
+
+    private ShineOverlay shineOverlay;
+    private ShineOverlay shadowOverlay;
+
+    // Last style and angle of the overlays, applied again when they're created
+    private DialStyle overlayStyle;
+    private float overlayAngle;
+
+    // Layout of the overlays
+    private boolean round;
+    private int canvasWidth;
+    private int insetLeft;
+    private int insetTop;
+    private int boundsLeft, boundsTop, boundsRight, boundsBottom;
+    private int shineLeft, shineTop, shineRight, shineBottom;
+
+    private FrameStats frameStats = new FrameStats();
+
+
+    /**
+     * Positions of the digit slots on a canvas, in slot order
+     * @param width Width of the canvas
+     * @param height Height of the canvas
+     * @param xs Receives the left of every slot
+     * @param ys Receives the top of every slot
+     */
+    public static void layoutSlots(int width, int height, float[] xs, float[] ys) {
+        float shapeSize = 100 * DIGIT_SCALE;
+        float left = (width / 2) - shapeSize - DIGIT_MARGIN;
+        float right = (width / 2) + DIGIT_MARGIN;
+        float top = (height / 2) - shapeSize - DIGIT_MARGIN;
+        float bottom = (height / 2) + DIGIT_MARGIN;
+
+        xs[SLOT_HOURS_TENS] = left;
+        ys[SLOT_HOURS_TENS] = top;
+        xs[SLOT_HOURS_UNITS] = right;
+        ys[SLOT_HOURS_UNITS] = top;
+        xs[SLOT_MINUTES_TENS] = left;
+        ys[SLOT_MINUTES_TENS] = bottom;
+        xs[SLOT_MINUTES_UNITS] = right;
+        ys[SLOT_MINUTES_UNITS] = bottom;
+    }
+
+
+    /**
+     * Size of the square overlays: the canvas on round screens, its diagonal on square ones
+     */
+    public static int overlaySize(int width, int height, boolean round) {
+        float size = (width > height) ? width : height;
+        if (round) {
+            return (int) size;
+        }
+        return (int) (2 * (float) Math.sqrt((double) (((size / 2) * (size / 2)) + ((size / 2) * (size / 2)))));
+    }
+
+
+    /**
+     * Angle of the overlay gradients at a minute of the hour, in degrees
+     */
+    public static float overlayAngle(float minute) {
+        return minute * 360.0f / 60.0f;
+    }
+
+
+    /**
+     * Creates the shine and shadow overlays
+     * @param renderer Renderer of the frames
+     * @param size Size of the overlays, see {@link #overlaySize}
+     * @param direct true to draw them straight onto the frame, false through their bitmaps
+     * @param resolution Resolution of the bitmaps relative to the size, see {@link ShineOverlay}
+     * @param density Density of the screen
+     */
+    public void createOverlays(Renderer renderer, int size, boolean direct, float resolution, float density) {
+        releaseOverlays();
+        shineOverlay = new ShineOverlay(renderer, size, size, direct, resolution, density);
+        shadowOverlay = new ShineOverlay(renderer, size, size, direct, resolution, density);
+
+        shineOverlay.setAngleOffset(SHINE_ANGLE_OFFSET);
+        shineOverlay.updateRadialGradient(0xFFFFFFFF, 0x00FFFFFF);
+
+        shadowOverlay.setAngleOffset(SHADOW_ANGLE_OFFSET);
+        shadowOverlay.updateRadialGradient(0x66000000, 0x00000000);
+
+        // e.g. overlays created again at another resolution
+        if (overlayStyle != null) {
+            updateOverlays(overlayStyle, overlayAngle);
+        }
+    }
+
+
+    /**
+     * Releases the bitmaps of the overlays, they're created again by {@link #createOverlays}
+     */
+    public void releaseOverlays() {
+        if (shineOverlay != null) {
+            shineOverlay.release();
+            shadowOverlay.release();
+            shineOverlay = null;
+            shadowOverlay = null;
+        }
+    }
+
+
+    public boolean hasOverlays() {
+        return shineOverlay != null;
+    }
+
+
+    /**
+     * Memory of the overlay bitmaps, 0 in direct mode
+     */
+    public long getOverlayBytes() {
+        if (shineOverlay == null) {
+            return 0;
+        }
+        return shineOverlay.getByteCount() + shadowOverlay.getByteCount();
+    }
+
+
+    /**
+     * Updates the gradients of the overlays to a style
+     */
+    public void updateOverlays(DialStyle style, float angle) {
+        overlayStyle = style;
+        overlayAngle = angle;
+        if (shineOverlay == null) {
+            return;
+        }
+        // The gradients first, the angle repaints the bitmaps
+        shineOverlay.updateRadialGradient(style.shineRadius, style.shineColor, 0x00FFFFFF, style.shineInitPosition, style.shineFinalPosition);
+        shadowOverlay.updateRadialGradient(style.shadowRadius, style.shadowColor, 0x00000000, style.shadowInitPosition, style.shadowFinalPosition);
+        updateOverlayAngle(angle);
+    }
+
+
+    public void updateOverlayAngle(float angle) {
+        overlayAngle = angle;
+        if (shineOverlay == null) {
+            return;
+        }
+        shineOverlay.updateAngle(angle);
+        shadowOverlay.updateAngle(angle);
+    }
+
+
+    public void setBackgroundColor(int color) {
+        backgroundColor = color;
+    }
+
+
+    /**
+     * Sets where the overlays are drawn
+     * @param _round Round screens scale the overlays into their bounds, square ones center them
+     * @param _canvasWidth Width of the watch face canvas
+     * @param _insetLeft Left inset of the screen
+     * @param _insetTop Top inset of the screen
+     */
+    public void setOverlayLayout(boolean _round, int _canvasWidth, int _insetLeft, int _insetTop) {
+        round = _round;
+        canvasWidth = _canvasWidth;
+        insetLeft = _insetLeft;
+        insetTop = _insetTop;
+    }
+
+
+    /**
+     * Bounds of the first shadow overlay on round screens
+     */
+    public void setBounds(int left, int top, int right, int bottom) {
+        boundsLeft = left;
+        boundsTop = top;
+        boundsRight = right;
+        boundsBottom = bottom;
+    }
+
+
+    /**
+     * Bounds of the second shadow overlay and the shine on round screens
+     */
+    public void setShineBounds(int left, int top, int right, int bottom) {
+        shineLeft = left;
+        shineTop = top;
+        shineRight = right;
+        shineBottom = bottom;
+    }
+
+
+    /**
+     * Sets where the timings of the layers are recorded
+     */
+    public void setFrameStats(FrameStats _frameStats) {
+        frameStats = _frameStats;
+    }
+
+
+    /**
+     * Draws every layer of the dial
+     */
+    public void draw(Renderer renderer, Digits digits, boolean isAmbientMode) {
+        long time = FrameStats.now();
+
+        // Draws main background color
+        renderer.setColor(backgroundColor);
+        renderer.setBlur(0.0f);
+        renderer.drawPaint();
+        time = frameStats.endPhase(FrameStats.PHASE_BACKGROUND, time);
+
+        // Draws Shadow Overlay only if it is not ambient mode
+        long shadowOverlayNanos = 0;
+        if (!isAmbientMode) {
+            drawOverlay(renderer, shadowOverlay, boundsLeft, boundsTop, boundsRight, boundsBottom);
+            long end = FrameStats.now();
+            shadowOverlayNanos = end - time;
+            time = end;
+        }
+
+        // Draws Shadows Only if it is not ambient mode
+        if (!isAmbientMode) {
+            for (int i = 0; i < DRAW_ORDER.length; i++) {
+                digits.drawShadow(renderer, DRAW_ORDER[i]);
+            }
+            time = frameStats.endPhase(FrameStats.PHASE_DIGIT_SHADOWS, time);
+        }
+
+        for (int i = 0; i < DRAW_ORDER.length; i++) {
+            digits.drawShape(renderer, DRAW_ORDER[i], isAmbientMode);
+        }
+        time = frameStats.endPhase(FrameStats.PHASE_SHAPES, time);
+
+        if (!isAmbientMode) {
+            drawOverlay(renderer, shadowOverlay, shineLeft, shineTop, shineRight, shineBottom);
+            long end = FrameStats.now();
+            frameStats.record(FrameStats.PHASE_SHADOW_OVERLAY, shadowOverlayNanos + end - time);
+            time = end;
+        }
+
+        // Draws The Shine
+        if (!isAmbientMode) {
+            drawOverlay(renderer, shineOverlay, shineLeft, shineTop, shineRight, shineBottom);
+            frameStats.endPhase(FrameStats.PHASE_SHINE, time);
+        }
+    }
+
+
+    /**
+     * Draws an overlay, scaled to the bounds on round screens and centered on square ones
+     */
+    private void drawOverlay(Renderer renderer, ShineOverlay overlay, int left, int top, int right, int bottom) {
+        if (overlay == null) {
+            return;
+        }
+        if (round) {
+            overlay.draw(renderer, left, top, right, bottom);
+        } else {
+            overlay.draw(renderer, -insetLeft + (canvasWidth - overlay.getWidth()) / 2,
+                    -insetTop + (canvasWidth - overlay.getHeight()) / 2);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.controllers;
+
+import com.breel.wearables.shadowclock.graphics.Gaussian;
+
+/**
+ * Style of the dial for a time of the day: colors, shadow length and shine of the sun.
+ * Pure Java, so it can be benchmarked on the JVM.
+ */
+public class DialStyle {
+
+    public static final float SUNLIGHT_RATIO_MIN = 0.5f;
+    public static final float SUNLIGHT_RATIO_MAX = 1.0f;
+
+    // Sunlight intensity, from 0.5 (night) to 1 (noon)
+    public float sunlightRatio;
+
+    // Colors of the background and the numbers
+    public int backgroundColor;
+    public int shapeColor;
+
+    // Length of the shadows of the numbers
+    public float shadowGradientRadius;
+
+    // Shine overlay
+    public float shineRadius;
+    public int shineColor;
+    public float shineInitPosition;
+    public float shineFinalPosition;
+
+    // Shadow overlay
+    public float shadowRadius;
+    public int shadowColor;
+    public float shadowInitPosition;
+    public float shadowFinalPosition;
+
+
+    /**
+     * Computes the style for a time of the day
+     * @param hour The hour, 0 - 23
+     * @param minute The minute, 0 - 59
+     */
+    public void update(int hour, int minute) {
+        float value = hour + (map(minute, 0, 60, 0, 100) / 100);
+        // Uses a Gaussian function to estimate the actual movement of the sun and therefore the sunlight intensity.
+        sunlightRatio = (float) Gaussian.getPhi(value, 12.0f, 3.65f);
+        if (sunlightRatio < 0.5) sunlightRatio = 1 - sunlightRatio;
+
+        backgroundColor = gray(mapRatio(0.96f, 0.29f));
+        shapeColor = gray(mapRatio(1.0f, 0.33f));
+
+        shadowGradientRadius = mapRatio(80.0f, 160.0f);
+
+        shineInitPosition = mapRatio(0.6f, 0.0f);
+        shineFinalPosition = 1.0f;
+        shineRadius = mapRatio(300.0f, 250.0f);
+        shineColor = argb((int) mapRatio(255.0f, 100.0f), 255, 255, 255);
+
+        shadowInitPosition = mapRatio(0.6f, 0.2f);
+        shadowFinalPosition = mapRatio(1.0f, 1.0f);
+        shadowRadius = mapRatio(300.0f, 350.0f);
+        shadowColor = argb((int) mapRatio(60.0f, 200.0f), 0, 0, 0);
+    }
+
+
+    private float mapRatio(float low, float high) {
+        return map(sunlightRatio, SUNLIGHT_RATIO_MIN, SUNLIGHT_RATIO_MAX, low, high);
+    }
+
+
+    /**
+     * Opaque gray of the given brightness, same as Color.HSVToColor with no hue or saturation
+     */
+    static int gray(float value) {
+        int v = Math.round(value * 255);
+        return argb(255, v, v, v);
+    }
+
+
+    static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+
+    /**
+     * Converts a value from a range of numbers to another one
+     */
+    static float map(float value, float low1, float high1, float low2, float high2) {
+        return low2 + (value - low1) * (high2 - low2) / (high1 - low1);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.controllers;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+
+import com.breel.wearables.shadowclock.graphics.CanvasRenderer;
+import com.breel.wearables.shadowclock.graphics.Glyph;
+import com.breel.wearables.shadowclock.graphics.GlyphRepository;
+import com.breel.wearables.shadowclock.graphics.GlyphView;
+import com.breel.wearables.shadowclock.graphics.Renderer;
+import com.breel.wearables.shadowclock.graphics.ShadowVolume;
+import com.breel.wearables.shadowclock.graphics.ShapeShadow;
+
+/**
+ * Background stage preparing the state of the next minute while the current one is shown: the
+ * views of the next digits, their shadows at the next sun position and the keyframes of the
+ * next sun animation.
+ * <p>
+ * There's a single {@link Frame}, handed to the worker with the inputs and back to the drawing
+ * thread with the results, so the two threads never touch it at the same time. The drawing
+ * thread stages the results in the caches of the slots as soon as they arrive, and on the tick
+ * swaps the keyframes with its own (double buffered). The styles of every minute are already
+ * precomputed by {@link DaylightProfile}.
+ * <p>
+ * {@link #prepare} and {@link #take} must be called from the thread of the looper given to the
+ * constructor.
+ */
+public class MinutePrecompute {
+
+    private static final String TAG = "MinutePrecompute";
+
+    private static final int MSG_PREPARE = 1;
+    private static final int MSG_PREPARED = 2;
+
+    // The preparation waits for the frames of the tick to be drawn, so its sprite requests
+    // don't compete with the ones of the current minute
+    private static final long PREPARE_DELAY_MILLIS = 1000;
+
+    /**
+     * State of a minute
+     */
+    public static final class Frame {
+        // Inputs: the time, the canvas and the layout and digit of every slot
+        int hour;
+        int minute;
+        int canvasWidth;
+        int canvasHeight;
+        final float[] scales;
+        final float[] xs;
+        final float[] ys;
+        final Glyph[] glyphs;
+
+        // Results: the views and shadows of every slot and the sun of the minute. They belong to
+        // the frame and are built again in place every minute, the slots copy them.
+        final GlyphView[] views;
+        final Renderer.Path[] shadows;
+        int sunAngleBucket;
+        SunSweep sweep = new SunSweep();
+
+        Frame(int slotCount) {
+            scales = new float[slotCount];
+            xs = new float[slotCount];
+            ys = new float[slotCount];
+            glyphs = new Glyph[slotCount];
+            views = new GlyphView[slotCount];
+            shadows = new Renderer.Path[slotCount];
+            for (int i = 0; i < slotCount; i++) {
+                shadows[i] = new CanvasRenderer.CanvasPath();
+            }
+        }
+    }
+
+    /**
+     * Receives the results in the drawing thread
+     */
+    public interface Listener {
+        void onPrepared(Frame frame);
+    }
+
+    private final GlyphRepository glyphs;
+    private final int slotCount;
+    private final Handler resultHandler;
+    private final Listener listener;
+    private HandlerThread workerThread;
+    private Handler worker;
+
+    // Null while the worker has it
+    private Frame frame;
+    // The prepared frame, until taken or prepared again
+    private boolean prepared = false;
+
+    // Worker only
+    private ShadowVolume workerVolume;
+
+
+    /**
+     * Constructor
+     * @param _glyphs The compiled digits
+     * @param _slotCount Number of digit slots
+     * @param looper Looper of the thread drawing the frames
+     * @param _listener Receives the prepared frames
+     */
+    public MinutePrecompute(GlyphRepository _glyphs, int _slotCount, Looper looper, Listener _listener) {
+        glyphs = _glyphs;
+        slotCount = _slotCount;
+        listener = _listener;
+        frame = new Frame(_slotCount);
+        resultHandler = new Handler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                if (msg.what == MSG_PREPARED) {
+                    frame = (Frame) msg.obj;
+                    prepared = true;
+                    listener.onPrepared(frame);
+                }
+                return true;
+            }
+        });
+    }
+
+
+    /**
+     * Prepares a minute in the background, unless the worker is still busy with the previous one
+     * @param hour The hour shown by the digits
+     * @param minute The minute
+     * @param glyphSet The set of the digits, see {@link GlyphRepository}
+     * @param slots The slots, in the order of the digits: hours tens and units, minutes tens and units
+     * @return false if the worker is busy
+     */
+    public boolean prepare(int hour, int minute, int canvasWidth, int canvasHeight, int glyphSet, ShapeShadow[] slots) {
+        if (frame == null) {
+            return false;
+        }
+        ensureWorker();
+
+        Frame request = frame;
+        frame = null;
+        prepared = false;
+
+        request.hour = hour;
+        request.minute = minute;
+        request.canvasWidth = canvasWidth;
+        request.canvasHeight = canvasHeight;
+        for (int i = 0; i < slots.length; i++) {
+            int value = (i < 2) ? hour : minute;
+            int digit = (i % 2 == 0) ? value / 10 : value % 10;
+            request.scales[i] = slots[i].getScale();
+            request.xs[i] = slots[i].getPositionX();
+            request.ys[i] = slots[i].getPositionY();
+            request.glyphs[i] = glyphs.get(glyphSet, digit);
+        }
+        worker.sendMessageDelayed(worker.obtainMessage(MSG_PREPARE, request), PREPARE_DELAY_MILLIS);
+        return true;
+    }
+
+
+    /**
+     * Returns the prepared frame if it's for this minute and canvas, or null. The caller may swap
+     * its keyframes with the frame's.
+     */
+    public Frame take(int minute, int canvasWidth, int canvasHeight) {
+        if (!prepared || frame.minute != minute
+                || frame.canvasWidth != canvasWidth || frame.canvasHeight != canvasHeight) {
+            return null;
+        }
+        prepared = false;
+        return frame;
+    }
+
+
+    /**
+     * Stops the worker thread and drops the frame being prepared
+     */
+    public void release() {
+        if (workerThread != null) {
+            workerThread.quit();
+            workerThread = null;
+            worker = null;
+        }
+        resultHandler.removeMessages(MSG_PREPARED);
+        if (frame == null) {
+            frame = new Frame(slotCount);
+        }
+        prepared = false;
+    }
+
+
+    private void ensureWorker() {
+        if (worker != null) {
+            return;
+        }
+        workerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        workerThread.start();
+        worker = new Handler(workerThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                Frame request = (Frame) msg.obj;
+                build(request);
+                resultHandler.sendMessage(resultHandler.obtainMessage(MSG_PREPARED, request));
+                return true;
+            }
+        });
+    }
+
+
+    /**
+     * Builds the results of a frame. Runs in the worker thread.
+     */
+    private void build(Frame request) {
+        if (workerVolume == null) {
+            workerVolume = new ShadowVolume(glyphs.getMaxShadowPoints(), glyphs.getMaxShadowContours());
+        }
+
+        // Same sun as ShadowDialController at rest
+        request.sunAngleBucket = SunSweep.sunAngleBucket(request.minute, 0.0f);
+        float sunX = SunSweep.sunX(request.sunAngleBucket, request.canvasWidth);
+        float sunY = SunSweep.sunY(request.sunAngleBucket, request.canvasWidth, request.canvasHeight);
+        request.sweep.build(request.minute, request.canvasWidth, request.canvasHeight);
+
+        // The slots are a few hundred vertices each, built one after the other. The outlines are
+        // written from the immutable arrays of the glyphs into the paths of the frame, nothing
+        // the drawing thread reads is touched.
+        for (int i = 0; i < request.glyphs.length; i++) {
+            Glyph glyph = request.glyphs[i];
+            if (glyph == null) {
+                continue;
+            }
+            GlyphView view = request.views[i];
+            if (view == null) {
+                view = new GlyphView(glyph, request.scales[i], request.xs[i], request.ys[i], new CanvasRenderer.CanvasPath());
+                request.views[i] = view;
+            } else {
+                view.set(glyph, request.scales[i], request.xs[i], request.ys[i]);
+            }
+            ShapeShadow.buildShadowPath(request.shadows[i], view, workerVolume, sunX, sunY);
+        }
+    }
+}
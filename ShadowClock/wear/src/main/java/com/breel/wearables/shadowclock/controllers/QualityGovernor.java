@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.controllers;
+
+import com.breel.wearables.shadowclock.diagnostics.Trace;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Adapts the quality of the dial to the measured cost of its frames.
+ * <p>
+ * Every level drops one more feature than the one above it: the detailed glyphs, then the
+ * resolution of the overlays, the blur of the shadows and finally half of the animation frames.
+ * The governor reads the draw times in windows of frames and compares their 90th percentile to
+ * the budget of the frame interval: over budget it steps down right away, with headroom in the
+ * budget of the level above for a few windows in a row it steps back up. A step up undone by
+ * the next window doubles the windows needed for the following one, so it doesn't oscillate.
+ * <p>
+ * Only animation frames are measured, they're the only ones drawn against a frame interval.
+ * Pure Java, no Android dependencies; the levels are applied by ShadowDialController and the
+ * service. Not thread safe, record, dump and reset it from the drawing thread.
+ */
+public class QualityGovernor {
+
+    // Levels, from the best looking to the cheapest
+    public static final int LEVEL_DETAILED = 0;
+    public static final int LEVEL_DEFAULT = 1;
+    public static final int LEVEL_LOW_RES_OVERLAYS = 2;
+    public static final int LEVEL_NO_BLUR = 3;
+    public static final int LEVEL_HALF_RATE = 4;
+    public static final int LEVEL_COUNT = 5;
+
+    private static final String[] LEVEL_NAMES = {
+            "detailed glyphs", "default", "low res overlays", "no shadow blur", "half frame rate"
+    };
+
+    // Interval of the animation frames, see ValueAnimator.setFrameDelay
+    public static final long FRAME_INTERVAL_MILLIS = 16;
+
+    // Resolution of the overlay bitmaps from LEVEL_LOW_RES_OVERLAYS
+    public static final float LOW_OVERLAY_RESOLUTION = 0.5f;
+
+    // Frames measured for every decision, and the percentile compared to the budget
+    private static final int WINDOW_FRAMES = 20;
+    private static final int WINDOW_PERCENTILE = 90;
+
+    // Frames ignored after a change, they pay for the caches of the new level
+    private static final int SETTLE_FRAMES = 5;
+
+    // Parts of the frame interval the draw can take: over it steps down, under it (in the
+    // interval of the level above) steps up. The rest of the frame happens outside drawDial.
+    private static final float DOWN_RATIO = 0.75f;
+    private static final float UP_RATIO = 0.4f;
+
+    // Windows in a row under the up ratio needed to step up, and their bound after backing off
+    private static final int UP_WINDOWS = 3;
+    private static final int MAX_UP_WINDOWS = 48;
+
+    private int level = LEVEL_DEFAULT;
+
+    private final long[] window = new long[WINDOW_FRAMES];
+    private final long[] sortedWindow = new long[WINDOW_FRAMES];
+    private int windowCount = 0;
+    private int settleCount = 0;
+
+    private int goodWindows = 0;
+    private int upWindows = UP_WINDOWS;
+    private boolean steppedUp = false;
+
+    // Diagnostics
+    private long lastPercentileNanos = 0;
+    private long windows = 0;
+    private long stepsDown = 0;
+    private long stepsUp = 0;
+
+
+    /**
+     * Records the draw time of an animation frame, and changes the level at the end of a window
+     * if needed. Doesn't allocate.
+     * @param frameNanos Duration of drawDial
+     * @return true if the level changed
+     */
+    public boolean record(long frameNanos) {
+        if (settleCount > 0) {
+            settleCount--;
+            return false;
+        }
+        window[windowCount++] = frameNanos;
+        if (windowCount < WINDOW_FRAMES) {
+            return false;
+        }
+        windowCount = 0;
+        windows++;
+
+        System.arraycopy(window, 0, sortedWindow, 0, WINDOW_FRAMES);
+        Arrays.sort(sortedWindow);
+        long percentile = sortedWindow[(WINDOW_FRAMES * WINDOW_PERCENTILE) / 100 - 1];
+        lastPercentileNanos = percentile;
+
+        if (percentile > DOWN_RATIO * budgetNanos(level)) {
+            if (steppedUp) {
+                // The level above doesn't fit yet, wait longer before trying it again
+                upWindows = Math.min(upWindows * 2, MAX_UP_WINDOWS);
+            }
+            steppedUp = false;
+            if (level < LEVEL_COUNT - 1) {
+                stepsDown++;
+                changeLevel(level + 1, percentile);
+                return true;
+            }
+            return false;
+        }
+
+        if (steppedUp) {
+            // The last step up held
+            upWindows = UP_WINDOWS;
+            steppedUp = false;
+        }
+
+        if (level > 0 && percentile < UP_RATIO * budgetNanos(level - 1)) {
+            goodWindows++;
+            if (goodWindows >= upWindows) {
+                stepsUp++;
+                steppedUp = true;
+                changeLevel(level - 1, percentile);
+                return true;
+            }
+        } else {
+            goodWindows = 0;
+        }
+        return false;
+    }
+
+
+    private void changeLevel(int _level, long percentileNanos) {
+        level = _level;
+        windowCount = 0;
+        goodWindows = 0;
+        settleCount = SETTLE_FRAMES;
+        if (Trace.ENABLED) {
+            Trace.event(Trace.QUALITY_LEVEL, _level, percentileNanos / 1000);
+        }
+    }
+
+
+    /**
+     * Budget of a frame at a level: the interval between its animation frames
+     */
+    private static long budgetNanos(int _level) {
+        return getUpdatesPerFrame(_level) * FRAME_INTERVAL_MILLIS * 1000000L;
+    }
+
+
+    private static int getUpdatesPerFrame(int _level) {
+        return _level >= LEVEL_HALF_RATE ? 2 : 1;
+    }
+
+
+    public int getLevel() {
+        return level;
+    }
+
+
+    /**
+     * Indicates if the digits use the detailed glyphs ("json") instead of the level of detail
+     * picked for the screen
+     */
+    public boolean useDetailedGlyphs() {
+        return level <= LEVEL_DETAILED;
+    }
+
+
+    /**
+     * Indicates if the shadows of the digits are blurred
+     */
+    public boolean isShadowBlurEnabled() {
+        return level < LEVEL_NO_BLUR;
+    }
+
+
+    /**
+     * Resolution of the overlays relative to the canvas, 1 for full resolution
+     */
+    public float getOverlayResolution() {
+        return level >= LEVEL_LOW_RES_OVERLAYS ? LOW_OVERLAY_RESOLUTION : 1.0f;
+    }
+
+
+    /**
+     * Number of animation updates per drawn frame: 1 draws them all, 2 every other one
+     */
+    public int getUpdatesPerFrame() {
+        return getUpdatesPerFrame(level);
+    }
+
+
+    /**
+     * Clears the counters of the dump, keeps the level
+     */
+    public void reset() {
+        windows = 0;
+        stepsDown = 0;
+        stepsUp = 0;
+        lastPercentileNanos = 0;
+    }
+
+
+    /**
+     * Prints the level and the counters
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("Quality level: ");
+        writer.print(level);
+        writer.print(" (");
+        writer.print(LEVEL_NAMES[level]);
+        writer.println(")");
+
+        writer.print(prefix);
+        writer.print("  windows: ");
+        writer.print(windows);
+        writer.print(", last p90 (us): ");
+        writer.println(lastPercentileNanos / 1000);
+
+        writer.print(prefix);
+        writer.print("  steps down: ");
+        writer.print(stepsDown);
+        writer.print(", steps up: ");
+        writer.print(stepsUp);
+        writer.print(", windows to step up: ");
+        writer.println(upWindows);
+    }
+}
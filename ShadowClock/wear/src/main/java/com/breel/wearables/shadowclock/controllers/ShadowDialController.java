@@ -17,17 +17,28 @@
 package com.breel.wearables.shadowclock.controllers;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.text.format.Time;
+import android.os.Debug;
+import android.os.Looper;
 import android.util.Log;
 
-import com.breel.wearables.shadowclock.graphics.Gaussian;
 import com.breel.wearables.shadowclock.R;
+import com.breel.wearables.shadowclock.diagnostics.FrameStats;
+import com.breel.wearables.shadowclock.diagnostics.MemoryRegistry;
+import com.breel.wearables.shadowclock.diagnostics.Trace;
+import com.breel.wearables.shadowclock.graphics.CanvasRenderer;
+import com.breel.wearables.shadowclock.graphics.GlyphRepository;
+import com.breel.wearables.shadowclock.graphics.Renderer;
+import com.breel.wearables.shadowclock.graphics.ShadowAtlas;
+import com.breel.wearables.shadowclock.graphics.ShadowPathCache;
 import com.breel.wearables.shadowclock.graphics.ShapeShadow;
-import com.breel.wearables.shadowclock.graphics.ShineOverlay;
+import com.breel.wearables.shadowclock.utils.WallClock;
+
+import java.io.PrintWriter;
+
 
 /**
  * Controller for drawing the dial clock
@@ -35,12 +46,42 @@ import com.breel.wearables.shadowclock.graphics.ShineOverlay;
 public class ShadowDialController {
     private static final String TAG = "ShadowDialController";
 
+    // Counts the objects allocated by every drawDial call and warns when it is not zero.
+    // Debug only, the allocation counters slow down the runtime. The Android free part of the
+    // frames is checked by DrawAllocationTest of the benchmarks module.
+    private static final boolean CHECK_DRAW_ALLOCATIONS = false;
+
+    // Max number of cached shadows, enough for the four digits along a whole sun animation
+    private static final int SHADOW_CACHE_ENTRIES = 512;
+
+    // Draws the blurred shadows from pre-rendered sprites, see ShadowAtlas
+    private static final boolean USE_SHADOW_ATLAS = true;
+    private static final int SHADOW_ATLAS_BUDGET_BYTES = ShadowAtlas.DEFAULT_BUDGET_BYTES;
+
+    // Draws the shine overlays straight onto the frame instead of through their bitmaps
+    private static final boolean SHINE_OVERLAY_DIRECT = true;
+
+    // Resolution of the alpha bitmaps of the overlays when they're used, scaled up with
+    // filtering. 0.5f stores a quarter of the pixels.
+    private static final float SHINE_OVERLAY_RESOLUTION = 1.0f;
+
+    // Draws the ambient digits from pre-rasterized bitmaps instead of filling their paths.
+    // Compare the shapes phase of the ambient frames in the dump to measure it.
+    private static final boolean USE_AMBIENT_RASTERS = true;
+
+    // Prepares the shadows and the sun animation of the next minute in the background
+    private static final boolean PRECOMPUTE_NEXT_MINUTE = true;
+
+    // Max distance of the digits to their detailed outlines, in dp. Picks the level of detail
+    // of the glyphs, see GlyphRepository.selectSet.
+    private static final float GLYPH_MAX_ERROR_DP = 0.5f;
+
     // Context of the app.
     private final Context ctx;
 
-    // Canvas Paints
-    private Paint mCanvasPaint;
-    private Paint mShinePaint;
+    // Layers of the frames, and the renderer drawing them on the canvas of the frame
+    private final DialScene mScene = new DialScene();
+    private final CanvasRenderer mRenderer = new CanvasRenderer();
 
     // Shadow Gradient Colors
     private int initShadowGradientColor;
@@ -53,19 +94,154 @@ public class ShadowDialController {
     private ShapeShadow minutesTens;
     private ShapeShadow minutesUnits;
 
-    // Shine Bounds
-    private Rect mShineRectBounds;
+    // The four digits, in slot order
+    private ShapeShadow[] mSlots;
+
+    // Finished shadows shared by the four digits
+    private ShadowPathCache mShadowCache;
+
+    // Blurred shadow sprites shared by the four digits, null if disabled
+    private ShadowAtlas mShadowAtlas;
+
+    // Last interactive frame, redrawn only when something on it changes
+    private Bitmap mCompositeBitmap;
+    private final CanvasRenderer mCompositeRenderer = new CanvasRenderer();
+    private final CanvasRenderer.CanvasBitmap mCompositeHandle = new CanvasRenderer.CanvasBitmap(null);
+    private boolean mCompositeDirty = true;
+    private boolean mCompositeRound;
+    private int mCompositeCanvasWidth;
+    private final Rect mCompositeInsets = new Rect();
+
+    // The sun animation redraws everything on every frame, so it skips the composite
+    private boolean mAnimating = false;
+
+    // Render timings
+    private FrameStats mFrameStats = new FrameStats();
+
+    // Adapts the digits, their shadows and the overlays to the measured frame times
+    private QualityGovernor mQualityGovernor = new QualityGovernor();
+    private int mQualityLevel = QualityGovernor.LEVEL_DEFAULT;
+
+    // Size of the overlays and the resolution of their bitmaps, 0 until the first setup
+    private int mOverlaySize = 0;
+    private float mOverlayResolution = 1.0f;
+
+    // Where the memory of the dial is accounted, null if it isn't
+    private MemoryRegistry mMemoryRegistry;
+
+    // Shadow sprites, rendered again in the background while the paths are drawn
+    private final MemoryRegistry.Component mSpriteMemory = new MemoryRegistry.Component() {
+        @Override
+        public long getBytes() {
+            return mShadowAtlas != null ? mShadowAtlas.getByteCount() : 0;
+        }
+
+        @Override
+        public void evict() {
+            if (mShadowAtlas != null) {
+                mShadowAtlas.evictAll();
+            }
+        }
+    };
+
+    // Shadow paths, built again on a miss
+    private final MemoryRegistry.Component mShadowPathMemory = new MemoryRegistry.Component() {
+        @Override
+        public long getBytes() {
+            return mShadowCache.getEstimatedBytes();
+        }
+
+        @Override
+        public void evict() {
+            mShadowCache.trimMemory();
+        }
+    };
+
+    // Views and ambient rasters of the digits, built again when shown or drawn
+    private final MemoryRegistry.Component mDigitMemory = new MemoryRegistry.Component() {
+        @Override
+        public long getBytes() {
+            long bytes = 0;
+            for (int i = 0; i < mSlots.length; i++) {
+                bytes += mSlots[i].getRasterBytes() + mSlots[i].getEstimatedViewBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void evict() {
+            for (int i = 0; i < mSlots.length; i++) {
+                mSlots[i].trimMemory();
+            }
+        }
+    };
+
+    // Composite and overlay bitmaps, created again by the next frame
+    private final MemoryRegistry.Component mFrameMemory = new MemoryRegistry.Component() {
+        @Override
+        public long getBytes() {
+            long bytes = mScene.getOverlayBytes();
+            if (mCompositeBitmap != null) {
+                bytes += mCompositeBitmap.getByteCount();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void evict() {
+            releaseComposite();
+            // Overlays drawn directly have nothing to give back
+            if (mScene.getOverlayBytes() > 0) {
+                mScene.releaseOverlays();
+            }
+        }
+    };
 
-    // Shine Overlay
-    private ShineOverlay mShineOverlay;
-    private ShineOverlay mShadowOverlay;
+    // Compiled digits, the set in use and the level of detail picked for the screen
+    private GlyphRepository mGlyphs;
+    private int mGlyphSet;
+    private int mDefaultGlyphSet;
 
     // Sun position
     private float sunPositionX = 0.0f;
     private float sunPositionY = 0.0f;
-    private float sunlightRatio = 0.0f;
-    private float sunlightRatioMin = 0.5f;
-    private float sunlightRatioMax = 1.0f;
+    private int sunAngleBucket = 0;
+    private int sunCanvasWidth = -1;
+    private int sunCanvasHeight = -1;
+
+    // Keyframes of the sun animation, swapped with the precomputed ones on the minute tick
+    private SunSweep mSunSweep = new SunSweep();
+
+    // Next minute prepared in the background, null if disabled
+    private MinutePrecompute mPrecompute;
+
+    // Positions of the digit slots
+    private final float[] mSlotXs = new float[DialScene.SLOT_COUNT];
+    private final float[] mSlotYs = new float[DialScene.SLOT_COUNT];
+
+    // Draws the digits of the scene with the shapes of the slots
+    private final DialScene.Digits mDigits = new DialScene.Digits() {
+        @Override
+        public void drawShadow(Renderer renderer, int slot) {
+            mSlots[slot].drawShadow(renderer, sunPositionX, sunPositionY, sunAngleBucket);
+        }
+
+        @Override
+        public void drawShape(Renderer renderer, int slot, boolean ambient) {
+            // From their cached rasters in ambient mode
+            if (ambient && USE_AMBIENT_RASTERS) {
+                mSlots[slot].drawAmbientShape(renderer);
+            } else {
+                mSlots[slot].drawShape(renderer);
+            }
+        }
+    };
+
+    // Colors, shadow length and shine for the current time
+    private final DialStyle mStyle = new DialStyle();
+
+    // Styles of the whole day, built in the background
+    private final DaylightProfile mDaylightProfile = new DaylightProfile();
 
 
     /**
@@ -75,24 +251,55 @@ public class ShadowDialController {
      * @param canvasWidth Watch face canvas width
      * @param canvasHeight Watch face canvas height
      */
-    public ShadowDialController(Context context, Time time, int canvasWidth, int canvasHeight) {
+    public ShadowDialController(Context context, WallClock time, int canvasWidth, int canvasHeight) {
         ctx = context;
 
         initShadowGradientColor = Color.argb(65, 0, 0, 0);
         finalShadowGradientColor = ctx.getResources().getColor(R.color.shadowPathEnd);
 
-        // Canvas base Paint
-        mCanvasPaint = new Paint();
-        mCanvasPaint.setColor(ctx.getResources().getColor(R.color.ambientModeBackground));
-        mCanvasPaint.setStyle(Paint.Style.FILL);
-
-        mShinePaint = new Paint();
+        // Canvas base color
+        mScene.setBackgroundColor(ctx.getResources().getColor(R.color.ambientModeBackground));
+        mScene.setFrameStats(mFrameStats);
+
+        float density = ctx.getResources().getDisplayMetrics().density;
+        int ambientColor = ctx.getResources().getColor(R.color.ambientModeTypeface);
+        int lowBitColor = ctx.getResources().getColor(R.color.lowBitModeTypeface);
+        hoursTens = new ShapeShadow(mRenderer, density, ambientColor, lowBitColor);
+        hoursUnits = new ShapeShadow(mRenderer, density, ambientColor, lowBitColor);
+
+        minutesTens = new ShapeShadow(mRenderer, density, ambientColor, lowBitColor);
+        minutesUnits = new ShapeShadow(mRenderer, density, ambientColor, lowBitColor);
+        mSlots = new ShapeShadow[] {hoursTens, hoursUnits, minutesTens, minutesUnits};
+
+        mGlyphs = GlyphRepository.getInstance(ctx);
+        mDefaultGlyphSet = selectGlyphSet();
+        mGlyphSet = mDefaultGlyphSet;
+
+        mShadowCache = new ShadowPathCache(mRenderer, SHADOW_CACHE_ENTRIES);
+        hoursTens.setShadowCache(mShadowCache, DialScene.SLOT_HOURS_TENS);
+        hoursUnits.setShadowCache(mShadowCache, DialScene.SLOT_HOURS_UNITS);
+        minutesTens.setShadowCache(mShadowCache, DialScene.SLOT_MINUTES_TENS);
+        minutesUnits.setShadowCache(mShadowCache, DialScene.SLOT_MINUTES_UNITS);
+
+        if (USE_SHADOW_ATLAS) {
+            mShadowAtlas = new ShadowAtlas(SHADOW_ATLAS_BUDGET_BYTES, SHADOW_CACHE_ENTRIES, DialScene.SLOT_COUNT,
+                    ShadowAtlas.DEFAULT_RESOLUTION, Looper.getMainLooper());
+            hoursTens.setShadowAtlas(mShadowAtlas);
+            hoursUnits.setShadowAtlas(mShadowAtlas);
+            minutesTens.setShadowAtlas(mShadowAtlas);
+            minutesUnits.setShadowAtlas(mShadowAtlas);
+        }
 
-        hoursTens = new ShapeShadow(ctx);
-        hoursUnits = new ShapeShadow(ctx);
+        if (PRECOMPUTE_NEXT_MINUTE) {
+            mPrecompute = new MinutePrecompute(mGlyphs, DialScene.SLOT_COUNT, Looper.getMainLooper(), new MinutePrecompute.Listener() {
+                @Override
+                public void onPrepared(MinutePrecompute.Frame frame) {
+                    stagePrecomputedMinute(frame);
+                }
+            });
+        }
 
-        minutesTens = new ShapeShadow(ctx);
-        minutesUnits = new ShapeShadow(ctx);
+        mDaylightProfile.buildInBackground();
 
         calculateSunlightRatio(time);
         calculateSunRotation(0.0f, time, canvasWidth, canvasHeight);
@@ -104,28 +311,151 @@ public class ShadowDialController {
      * @param _canvasBounds The bounds of the watch face canvas
      */
     public void setupShapeShadows(Rect _canvasBounds) {
-        final int margin = 10;
+        invalidateComposite();
 
         int width = _canvasBounds.width();
         int height = _canvasBounds.height();
 
-        float scale = 0.8f;
-        float shapeSize = 100 * scale;
+        DialScene.layoutSlots(width, height, mSlotXs, mSlotYs);
+        for (int i = 0; i < mSlots.length; i++) {
+            mSlots[i].scale(DialScene.DIGIT_SCALE);
+            mSlots[i].translate(mSlotXs[i], mSlotYs[i]);
+        }
+
+        // Cached shadows belong to the previous layout
+        mShadowCache.evictAll();
+        if (mShadowAtlas != null) {
+            mShadowAtlas.setClipBounds(width, height);
+            mShadowAtlas.evictAll();
+        }
+    }
+
+
+    /**
+     * Releases the resources of the dial, e.g. the thread rendering the shadow sprites
+     */
+    public void release() {
+        if (mShadowAtlas != null) {
+            mShadowAtlas.release();
+        }
+        if (mPrecompute != null) {
+            mPrecompute.release();
+        }
+        releaseComposite();
+        mScene.releaseOverlays();
+        setMemoryRegistry(null);
+    }
+
+
+    private void releaseComposite() {
+        if (mCompositeBitmap != null) {
+            mCompositeBitmap.recycle();
+            mCompositeBitmap = null;
+            mCompositeRenderer.setCanvas(null);
+            mCompositeDirty = true;
+        }
+    }
+
 
-        hoursTens.scale(scale);
-        hoursTens.translate((width / 2) - shapeSize - margin, (height / 2) - shapeSize - margin);
+    /**
+     * Registers the memory of the dial, so it's reported and trimmed with the other components
+     * @param memoryRegistry The registry, e.g. the one of the service, or null to unregister
+     */
+    public void setMemoryRegistry(MemoryRegistry memoryRegistry) {
+        if (mMemoryRegistry != null) {
+            mMemoryRegistry.unregister(mSpriteMemory);
+            mMemoryRegistry.unregister(mShadowPathMemory);
+            mMemoryRegistry.unregister(mDigitMemory);
+            mMemoryRegistry.unregister(mFrameMemory);
+        }
+        mMemoryRegistry = memoryRegistry;
+        if (mMemoryRegistry != null) {
+            mMemoryRegistry.register("shadow sprites", MemoryRegistry.PRIORITY_PREFETCH, mSpriteMemory);
+            mMemoryRegistry.register("shadow paths (estimated)", MemoryRegistry.PRIORITY_CACHE, mShadowPathMemory);
+            mMemoryRegistry.register("digit rasters and views", MemoryRegistry.PRIORITY_CACHE, mDigitMemory);
+            mMemoryRegistry.register("composite and overlays", MemoryRegistry.PRIORITY_FRAME, mFrameMemory);
+        }
+    }
 
-        hoursUnits.scale(scale);
-        hoursUnits.translate((width / 2) + margin, (height / 2) - shapeSize - margin);
 
-        minutesTens.scale(scale);
-        minutesTens.translate((width / 2) - shapeSize - margin, (height / 2) + margin);
+    /**
+     * Sets where the render timings are recorded, e.g. stats shared with the service dump
+     */
+    public void setFrameStats(FrameStats frameStats) {
+        mFrameStats = frameStats;
+        mScene.setFrameStats(frameStats);
+    }
+
+    public FrameStats getFrameStats() {
+        return mFrameStats;
+    }
+
+
+    /**
+     * Sets the governor adapting the quality of the dial, e.g. one shared with the service dump
+     */
+    public void setQualityGovernor(QualityGovernor qualityGovernor) {
+        mQualityGovernor = qualityGovernor;
+        applyQualityLevel();
+    }
+
+    public QualityGovernor getQualityGovernor() {
+        return mQualityGovernor;
+    }
+
+
+    /**
+     * Forces the next interactive frame to redraw every layer instead of the cached composite
+     */
+    public void invalidateComposite() {
+        mCompositeDirty = true;
+    }
+
+
+    /**
+     * Indicates if the sun animation is running. Animation frames are drawn directly, without
+     * updating the composite, and don't request shadow sprites.
+     */
+    public void setAnimating(boolean animating) {
+        if (mAnimating != animating) {
+            mAnimating = animating;
+            mCompositeDirty = true;
+            for (int i = 0; i < mSlots.length; i++) {
+                mSlots[i].setSpriteRequests(!animating);
+            }
+        }
+    }
+
 
-        minutesUnits.scale(scale);
-        minutesUnits.translate((width / 2) + margin, (height / 2) + margin);
+    /**
+     * Prints the entries, hits, misses and evictions of the shadow path cache. Call from the
+     * drawing thread, the cache isn't thread safe.
+     */
+    public void dumpShadowCache(String prefix, PrintWriter writer) {
+        int accesses = mShadowCache.hitCount() + mShadowCache.missCount();
+        writer.print(prefix);
+        writer.println("Shadow cache:");
+        writer.print(prefix);
+        writer.print("  entries: ");
+        writer.print(mShadowCache.entryCount());
+        writer.print('/');
+        writer.println(mShadowCache.maxEntries());
+        writer.print(prefix);
+        writer.print("  hits: ");
+        writer.print(mShadowCache.hitCount());
+        writer.print(", misses: ");
+        writer.print(mShadowCache.missCount());
+        writer.print(", hit rate: ");
+        writer.print(accesses != 0 ? 100 * mShadowCache.hitCount() / accesses : 0);
+        writer.println('%');
+        writer.print(prefix);
+        writer.print("  evictions: ");
+        writer.println(mShadowCache.evictionCount());
     }
 
-    public void setupColorBase(Time time) {
+
+    public void setupColorBase(WallClock time) {
+        invalidateComposite();
         updateShapeColorBasedOnTime();
         updateShadowGradientBasedOnTime(time);
     }
@@ -135,55 +465,58 @@ public class ShadowDialController {
      * @param _canvasBounds The bounds of the watch face canvas
      * @param isRound if the watch is round or square
      */
-    public void setupShineOverlay(Rect _canvasBounds, boolean isRound, Time time) {
-        int width = _canvasBounds.width();
-        int height = _canvasBounds.height();
-
-        float size = (width > height) ? width : height;
-        float dimension;
-
-        if (isRound) {
-            dimension = size;
-        } else {
-            dimension = 2 * (float) Math.sqrt((double) (((size / 2) * (size / 2)) + ((size / 2) * (size / 2))));
+    public void setupShineOverlay(Rect _canvasBounds, boolean isRound, WallClock time) {
+        invalidateComposite();
+        int dimension = DialScene.overlaySize(_canvasBounds.width(), _canvasBounds.height(), isRound);
+        if (!isRound) {
             Log.d(TAG, "SQUARE DIMENSION " + dimension + "");
         }
 
-        mShineOverlay = new ShineOverlay(ctx, (int) dimension, (int) dimension);
-        mShadowOverlay = new ShineOverlay(ctx, (int) dimension, (int) dimension);
+        mOverlaySize = dimension;
+        createOverlays();
 
-        mShineOverlay.setAngleOffset(90.0f);
-        mShineOverlay.updateRadialGradient(0xFFFFFFFF, 0x00FFFFFF);
+        updateShineOverlayBasedOnTime(time);
+    }
 
-        mShadowOverlay.setAngleOffset(-90.0f);
-        mShadowOverlay.updateRadialGradient(0x66000000, 0x00000000);
 
-        updateShineOverlayBasedOnTime(time);
+    /**
+     * Creates the overlays of the scene at the current resolution. Below full resolution they're
+     * drawn through their bitmaps, scaled up.
+     */
+    private void createOverlays() {
+        float density = ctx.getResources().getDisplayMetrics().density;
+        boolean direct = SHINE_OVERLAY_DIRECT && mOverlayResolution >= 1.0f;
+        float resolution = Math.min(SHINE_OVERLAY_RESOLUTION, mOverlayResolution);
+        mScene.createOverlays(mRenderer, mOverlaySize, direct, resolution, density);
     }
 
 
     /**
-     * If the animation is activated, it updates the sun animation
+     * If the animation is activated, it updates the sun animation. Reads the keyframes built
+     * for the current minute, doesn't allocate.
      * @param time The current time
-     * @param value The float value representing the position in the current animation
+     * @param fraction The interpolated fraction of the animation, from 0 to 1
      * @param canvasWidth Watch face canvas width
      * @param canvasHeight Watch face canvas height
      */
-    public void updateSunAnimation(Time time, Float value, int canvasWidth, int canvasHeight) {
+    public void updateSunAnimation(WallClock time, float fraction, int canvasWidth, int canvasHeight) {
+        invalidateComposite();
 
-        calculateSunRotation(value, time, canvasWidth, canvasHeight);
+        checkCanvasSize(canvasWidth, canvasHeight);
+        mSunSweep.build(time.minute, canvasWidth, canvasHeight);
+        int keyframe = mSunSweep.indexOf(fraction);
 
-        float radius = map(value, (float) Math.PI, (float) (2 * Math.PI), 80.0f, 200.0f);
-        float alpha = map(value, (float) Math.PI, (float) (2 * Math.PI), 0.0f, 60.f);
+        sunAngleBucket = mSunSweep.getSunAngleBucket(keyframe);
+        sunPositionX = mSunSweep.getSunX(keyframe);
+        sunPositionY = mSunSweep.getSunY(keyframe);
 
+        float radius = mSunSweep.getGradientRadius(keyframe);
         hoursTens.calculateGradient(radius, initShadowGradientColor, finalShadowGradientColor);
         hoursUnits.calculateGradient(radius, initShadowGradientColor, finalShadowGradientColor);
         minutesTens.calculateGradient(radius, initShadowGradientColor, finalShadowGradientColor);
         minutesUnits.calculateGradient(radius, initShadowGradientColor, finalShadowGradientColor);
 
-        float minuteMapped = map(time.minute, 0, 60, 0, 360);
-        mShineOverlay.updateAngle(minuteMapped + (value * (float) (180 / Math.PI)));
-        mShadowOverlay.updateAngle(minuteMapped + (value * (float) (180 / Math.PI)));
+        mScene.updateOverlayAngle(mSunSweep.getOverlayAngle(keyframe));
     }
 
 
@@ -198,22 +531,24 @@ public class ShadowDialController {
                                                 boolean updateHours,
                                                 int currentMinute,
                                                 int currentHour) {
+        if (updateMinutes || updateHours) {
+            invalidateComposite();
+
+            if (Trace.ENABLED) {
+                Trace.event(Trace.DIGITS_UPDATE, updateMinutes ? currentMinute : -1, updateHours ? currentHour : -1);
+            }
+        }
+
         if (updateMinutes) {
             int tens = (int) Math.floor(currentMinute / 10.0f);
             int units = (int) Math.floor(currentMinute % 10.0f);
 
             if (minutesTens.getCurrentValue() != tens) {
-                String mt = String.format("%d", tens);
-                mt = mt.concat(".json");
-                Log.d(TAG, "MINUTE TENS STRING: " + mt);
-                minutesTens.parseJSON(mt);
+                minutesTens.setGlyph(mGlyphs.get(mGlyphSet, tens));
             }
 
             if (minutesUnits.getCurrentValue() != units) {
-                String mu = String.format("%d", units);
-                mu = mu.concat(".json");
-                Log.d(TAG, "MINUTE UNITS STRING: " + mu);
-                minutesUnits.parseJSON(mu);
+                minutesUnits.setGlyph(mGlyphs.get(mGlyphSet, units));
             }
         }
 
@@ -222,17 +557,11 @@ public class ShadowDialController {
             int units = (int) Math.floor(currentHour % 10.0f);
 
             if (hoursTens.getCurrentValue() != tens) {
-                String ht = String.format("%d", tens);
-                ht = ht.concat(".json");
-                Log.d(TAG, "HOURS TENS STRING: " + ht);
-                hoursTens.parseJSON(ht);
+                hoursTens.setGlyph(mGlyphs.get(mGlyphSet, tens));
             }
 
             if (hoursUnits.getCurrentValue() != units) {
-                String hu = String.format("%d", units);
-                hu = hu.concat(".json");
-                Log.d(TAG, "HOURS UNITS STRING: " + hu);
-                hoursUnits.parseJSON(hu);
+                hoursUnits.setGlyph(mGlyphs.get(mGlyphSet, units));
             }
         }
     }
@@ -244,9 +573,53 @@ public class ShadowDialController {
      * @param canvasWidth Watch face canvas width
      * @param canvasHeight Watch face canvas height
      */
-    public void updateSunToCurrentTime(Time time, int canvasWidth, int canvasHeight) {
+    public void updateSunToCurrentTime(WallClock time, int canvasWidth, int canvasHeight) {
+        invalidateComposite();
         calculateSunlightRatio(time);
         calculateSunRotation(0.0f, time, canvasWidth, canvasHeight);
+
+        // Keyframes of the next sun animation, usually prepared during the previous minute
+        if (mPrecompute != null) {
+            MinutePrecompute.Frame frame = mPrecompute.take(time.minute, canvasWidth, canvasHeight);
+            if (frame != null) {
+                SunSweep sweep = mSunSweep;
+                mSunSweep = frame.sweep;
+                frame.sweep = sweep;
+            }
+        }
+        mSunSweep.build(time.minute, canvasWidth, canvasHeight);
+    }
+
+
+    /**
+     * Starts preparing the next minute in the background, see {@link MinutePrecompute}
+     * @param hour The hour the digits will show
+     * @param minute The minute
+     * @param canvasWidth Watch face canvas width
+     * @param canvasHeight Watch face canvas height
+     */
+    public void prepareNextMinute(int hour, int minute, int canvasWidth, int canvasHeight) {
+        if (mPrecompute != null) {
+            mPrecompute.prepare(hour, minute, canvasWidth, canvasHeight, mGlyphSet, mSlots);
+        }
+    }
+
+
+    /**
+     * Copies the views and shadows of the prepared minute into the caches of the slots, so the
+     * minute tick and its first frame find them ready. The frame keeps its own for the next
+     * minute.
+     */
+    private void stagePrecomputedMinute(MinutePrecompute.Frame frame) {
+        // Shadows of another canvas size would be evicted anyway, and the ones of the other
+        // glyph set would take the place of the current ones
+        boolean sameCanvas = frame.canvasWidth == sunCanvasWidth && frame.canvasHeight == sunCanvasHeight;
+        for (int i = 0; i < mSlots.length; i++) {
+            boolean sameSet = frame.glyphs[i] != null && frame.glyphs[i].getSet() == mGlyphSet;
+            if (sameCanvas && sameSet) {
+                mSlots[i].offerShadow(frame.views[i], frame.sunAngleBucket, frame.shadows[i]);
+            }
+        }
     }
 
 
@@ -254,7 +627,8 @@ public class ShadowDialController {
      * Updates the different elements (shine, shadow, shape and background) to the current time
      * @param time The current Time
      */
-    public void updateElementsStylesBasedOnTime(Time time) {
+    public void updateElementsStylesBasedOnTime(WallClock time) {
+        invalidateComposite();
         // Updates shine overlay styles
         updateShineOverlayBasedOnTime(time);
 
@@ -275,8 +649,9 @@ public class ShadowDialController {
      * @param burnInProtection Indicates if it's burn in protection mode
      */
     public void setAmbientMode(boolean lowBitAmbient, boolean burnInProtection) {
+        invalidateComposite();
         if (lowBitAmbient) {
-            mCanvasPaint.setColor(ctx.getResources().getColor(R.color.lowBitModeBackground));
+            mScene.setBackgroundColor(ctx.getResources().getColor(R.color.lowBitModeBackground));
 
             if (burnInProtection) {
                 hoursTens.set1BitMode();
@@ -292,7 +667,7 @@ public class ShadowDialController {
                 minutesUnits.setLowBitMode();
             }
         } else {
-            mCanvasPaint.setColor(ctx.getResources().getColor(R.color.ambientModeBackground));
+            mScene.setBackgroundColor(ctx.getResources().getColor(R.color.ambientModeBackground));
 
             hoursTens.setAmbientMode();
             hoursUnits.setAmbientMode();
@@ -307,6 +682,7 @@ public class ShadowDialController {
      * Updates the dial to draw the interactive (the regular) mode
      */
     public void setInteractiveMode() {
+        invalidateComposite();
         hoursTens.setInteractiveMode();
         hoursUnits.setInteractiveMode();
 
@@ -331,52 +707,173 @@ public class ShadowDialController {
                          Rect insetsScreen,
                          int canvasWidth) {
 
-        // Draws main background color
-        canvas.drawPaint(mCanvasPaint);
+        // Changes of quality level allocate, they're applied before counting. So do the
+        // overlays released by a memory trim.
+        applyQualityLevel();
+        if (mOverlaySize > 0 && !mScene.hasOverlays()) {
+            createOverlays();
+        }
 
-        // Draws Shadow Overlay only if it is not ambient mode
-        if (!isAmbientMode) {
-            if (isRound) {
-                canvas.drawBitmap(mShadowOverlay.getBitmap(), null, bounds, mShinePaint);
-            } else {
-                canvas.drawBitmap(mShadowOverlay.getBitmap(), -insetsScreen.left + (canvasWidth - mShadowOverlay.getWidth()) / 2, -insetsScreen.top + (canvasWidth - mShadowOverlay.getHeight()) / 2, mShinePaint);
-            }
+        if (CHECK_DRAW_ALLOCATIONS) {
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
         }
 
-        // Draws Shadows Only if it is not ambient mode
-        if (!isAmbientMode) {
-            minutesTens.drawShadow(canvas, sunPositionX, sunPositionY);
-            minutesUnits.drawShadow(canvas, sunPositionX, sunPositionY);
+        long start = FrameStats.now();
+        mRenderer.setCanvas(canvas);
+        drawFrame(bounds, isAmbientMode, isRound, insetsScreen, canvasWidth);
+        long end = mFrameStats.endPhase(FrameStats.PHASE_FRAME, start);
 
-            hoursTens.drawShadow(canvas, sunPositionX, sunPositionY);
-            hoursUnits.drawShadow(canvas, sunPositionX, sunPositionY);
+        if (isAmbientMode) {
+            mFrameStats.countFrame(FrameStats.MODE_AMBIENT);
+        } else if (mAnimating) {
+            mFrameStats.countFrame(FrameStats.MODE_ANIMATING);
+            mQualityGovernor.record(end - start);
+        } else {
+            mFrameStats.countFrame(FrameStats.MODE_INTERACTIVE);
         }
 
-        // Draws shapes
-        minutesTens.drawShape(canvas);
-        minutesUnits.drawShape(canvas);
+        // Memory for the dump, which can't read the bitmaps this thread recycles. Not worth the
+        // time of the animation frames.
+        if (mMemoryRegistry != null && !mAnimating) {
+            mMemoryRegistry.update();
+        }
 
-        hoursTens.drawShape(canvas);
-        hoursUnits.drawShape(canvas);
+        if (CHECK_DRAW_ALLOCATIONS) {
+            Debug.stopAllocCounting();
+            int allocations = Debug.getThreadAllocCount();
+            if (allocations > 0) {
+                Log.w(TAG, "drawDial allocated " + allocations + " objects");
+            }
+        }
+    }
 
 
-        if (!isAmbientMode) {
-            if (isRound) {
-                canvas.drawBitmap(mShadowOverlay.getBitmap(), null, mShineRectBounds, mShinePaint);
-            } else {
-                canvas.drawBitmap(mShadowOverlay.getBitmap(), -insetsScreen.left + (canvasWidth - mShadowOverlay.getWidth()) / 2, -insetsScreen.top + (canvasWidth - mShadowOverlay.getHeight()) / 2, mShinePaint);
+    /**
+     * Applies the level of the quality governor: the glyph set, the shadow blur and the overlay
+     * resolution. The frame rate of the animation is applied by the service.
+     */
+    private void applyQualityLevel() {
+        int level = mQualityGovernor.getLevel();
+        if (level == mQualityLevel) {
+            return;
+        }
+        mQualityLevel = level;
+        invalidateComposite();
+
+        int glyphSet = mQualityGovernor.useDetailedGlyphs()
+                ? mGlyphs.findSet(GlyphRepository.SET_DETAILED) : mDefaultGlyphSet;
+        if (glyphSet >= 0 && glyphSet != mGlyphSet) {
+            mGlyphSet = glyphSet;
+            for (int i = 0; i < mSlots.length; i++) {
+                int digit = mSlots[i].getCurrentValue();
+                if (digit >= 0) {
+                    mSlots[i].setGlyph(mGlyphs.get(mGlyphSet, digit));
+                }
+            }
+
+            // Cached shadows belong to the glyphs of the other set
+            mShadowCache.evictAll();
+            if (mShadowAtlas != null) {
+                mShadowAtlas.evictAll();
             }
         }
 
-        // Draws The Shine
-        if (!isAmbientMode) {
-            if (isRound) {
-                canvas.drawBitmap(mShineOverlay.getBitmap(), null, mShineRectBounds, mShinePaint);
+        boolean blur = mQualityGovernor.isShadowBlurEnabled();
+        for (int i = 0; i < mSlots.length; i++) {
+            if (blur) {
+                mSlots[i].setupBlur(ShapeShadow.SHADOW_BLUR);
             } else {
-                canvas.drawBitmap(mShineOverlay.getBitmap(), -insetsScreen.left + (canvasWidth - mShineOverlay.getWidth()) / 2, -insetsScreen.top + (canvasWidth - mShineOverlay.getHeight()) / 2, mShinePaint);
+                mSlots[i].resetBlur();
             }
         }
 
+        float resolution = mQualityGovernor.getOverlayResolution();
+        if (resolution != mOverlayResolution) {
+            mOverlayResolution = resolution;
+            if (mOverlaySize > 0) {
+                createOverlays();
+            }
+        }
+    }
+
+
+    /**
+     * Picks the cheapest level of detail of the detailed digits that looks the same on this
+     * screen. The digits are drawn at the same size in pixels on every screen, so the error in
+     * glyph units grows with the density.
+     */
+    private int selectGlyphSet() {
+        float density = ctx.getResources().getDisplayMetrics().density;
+        float maxError = GLYPH_MAX_ERROR_DP * density / DialScene.DIGIT_SCALE;
+        int set = mGlyphs.selectSet(GlyphRepository.SET_DETAILED, maxError);
+        if (set < 0) {
+            set = mGlyphs.findSet(GlyphRepository.SET_LOW_POLY);
+        }
+        Log.d(TAG, "Glyph set " + set + ", max error " + mGlyphs.getSetError(set));
+        return set;
+    }
+
+
+    private void drawFrame(Rect bounds,
+                           boolean isAmbientMode,
+                           boolean isRound,
+                           Rect insetsScreen,
+                           int canvasWidth) {
+
+        // Ambient frames are cheap and animation frames change every time, draw them directly
+        if (isAmbientMode || mAnimating) {
+            drawLayers(mRenderer, bounds, isAmbientMode, isRound, insetsScreen, canvasWidth);
+            return;
+        }
+
+        int width = mRenderer.getWidth();
+        int height = mRenderer.getHeight();
+        if (width <= 0 || height <= 0) {
+            drawLayers(mRenderer, bounds, false, isRound, insetsScreen, canvasWidth);
+            return;
+        }
+
+        if (mCompositeBitmap == null || mCompositeBitmap.getWidth() != width || mCompositeBitmap.getHeight() != height) {
+            if (mCompositeBitmap != null) {
+                mCompositeBitmap.recycle();
+            }
+            mCompositeBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCompositeRenderer.setCanvas(new Canvas(mCompositeBitmap));
+            mCompositeHandle.set(mCompositeBitmap);
+            mCompositeDirty = true;
+        }
+
+        // The layout of the overlays depends on the insets and the shape of the screen
+        if (isRound != mCompositeRound || canvasWidth != mCompositeCanvasWidth || !insetsScreen.equals(mCompositeInsets)) {
+            mCompositeRound = isRound;
+            mCompositeCanvasWidth = canvasWidth;
+            mCompositeInsets.set(insetsScreen);
+            mCompositeDirty = true;
+        }
+
+        if (mCompositeDirty) {
+            drawLayers(mCompositeRenderer, bounds, false, isRound, insetsScreen, canvasWidth);
+            mCompositeDirty = false;
+        } else {
+            mFrameStats.countCompositeFrame();
+        }
+        mRenderer.drawBitmap(mCompositeHandle, 0.0f, 0.0f);
+    }
+
+
+    /**
+     * Draws every layer of the dial, see {@link DialScene}
+     */
+    private void drawLayers(Renderer renderer,
+                            Rect bounds,
+                            boolean isAmbientMode,
+                            boolean isRound,
+                            Rect insetsScreen,
+                            int canvasWidth) {
+        mScene.setOverlayLayout(isRound, canvasWidth, insetsScreen.left, insetsScreen.top);
+        mScene.setBounds(bounds.left, bounds.top, bounds.right, bounds.bottom);
+        mScene.draw(renderer, mDigits, isAmbientMode);
     }
 
 
@@ -387,8 +884,8 @@ public class ShadowDialController {
      * @param canvasHeight Watch face canvas height
      */
     public void updateShineBounds(Rect insetsScreen, int canvasWidth, int canvasHeight) {
-        mShineRectBounds = new Rect();
-        mShineRectBounds.set(-insetsScreen.top, -insetsScreen.left, canvasWidth, canvasHeight);
+        invalidateComposite();
+        mScene.setShineBounds(-insetsScreen.top, -insetsScreen.left, canvasWidth, canvasHeight);
     }
 
 
@@ -396,9 +893,7 @@ public class ShadowDialController {
      * Updates the background color based on the current time
      */
     private void updateBackgroundColorBasedOnTime() {
-        float mBackgroundColor = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 0.96f, 0.29f);
-        float[] hsv = {0.0f, 0.0f, mBackgroundColor};
-        mCanvasPaint.setColor(Color.HSVToColor(hsv));
+        mScene.setBackgroundColor(mStyle.backgroundColor);
     }
 
 
@@ -406,13 +901,10 @@ public class ShadowDialController {
      * Updates the numbers color base on the current time
      */
     private void updateShapeColorBasedOnTime() {
-        float mShapeColor = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 1.0f, 0.33f);
-        float[] hsv = {0.0f, 0.0f, mShapeColor};
-
-        hoursTens.setShapeColor(Color.HSVToColor(hsv));
-        hoursUnits.setShapeColor(Color.HSVToColor(hsv));
-        minutesTens.setShapeColor(Color.HSVToColor(hsv));
-        minutesUnits.setShapeColor(Color.HSVToColor(hsv));
+        hoursTens.setShapeColor(mStyle.shapeColor);
+        hoursUnits.setShapeColor(mStyle.shapeColor);
+        minutesTens.setShapeColor(mStyle.shapeColor);
+        minutesUnits.setShapeColor(mStyle.shapeColor);
     }
 
 
@@ -420,10 +912,12 @@ public class ShadowDialController {
      * Updates the shadow of the numbers based on the current time
      * @param time The current time
      */
-    private void updateShadowGradientBasedOnTime(Time time) {
+    private void updateShadowGradientBasedOnTime(WallClock time) {
         // Calculates the shadow length based on the current time
-        float mShadowGradientRadius = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 80.0f, 160.0f);
-        Log.d(TAG, " GRADIENT RADIUS AT " + time.hour + " h. RAD: " + mShadowGradientRadius + "");
+        float mShadowGradientRadius = mStyle.shadowGradientRadius;
+        if (Trace.ENABLED) {
+            Trace.event(Trace.SHADOW_GRADIENT, time.hour, (long) (mShadowGradientRadius * 100));
+        }
 
         hoursTens.calculateGradient(mShadowGradientRadius, initShadowGradientColor, finalShadowGradientColor);
         hoursUnits.calculateGradient(mShadowGradientRadius, initShadowGradientColor, finalShadowGradientColor);
@@ -436,25 +930,8 @@ public class ShadowDialController {
      * Updates the Shine of the overlay based on the current time
      * @param time The current time
      */
-    private void updateShineOverlayBasedOnTime(Time time) {
-        float minuteMapped = map(time.minute, 0, 60, 0, 360);
-        mShineOverlay.updateAngle(minuteMapped);
-        mShadowOverlay.updateAngle(minuteMapped);
-
-        float initShine = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 0.6f, 0.0f);
-        float finalShine = 1.0f;
-
-        float initShadow = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 0.6f, 0.2f);
-        float finalShadow = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 1.0f, 1.0f);
-
-        float alphaShine = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 255.0f, 100.0f);
-        float radiusShine = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 300.0f, 250.0f);
-
-        float radiusShadow = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 300.0f, 350.0f);
-        float alphaShadow = map(sunlightRatio, sunlightRatioMin, sunlightRatioMax, 60.0f, 200.0f);
-
-        mShineOverlay.updateRadialGradient(radiusShine, Color.argb((int) alphaShine, 255, 255, 255), 0x00FFFFFF, initShine, finalShine);
-        mShadowOverlay.updateRadialGradient(radiusShadow, Color.argb((int) alphaShadow, 0, 0, 0), 0x00000000, initShadow, finalShadow);
+    private void updateShineOverlayBasedOnTime(WallClock time) {
+        mScene.updateOverlays(mStyle, DialScene.overlayAngle(time.minute));
     }
 
 
@@ -465,34 +942,41 @@ public class ShadowDialController {
      * @param canvasWidth Watch face canvas width
      * @param canvasHeight Watch face canvas height
      */
-    private void calculateSunRotation(float _offset, Time time, int canvasWidth, int canvasHeight) {
-        sunPositionX = (float) (canvasWidth / 2 + (canvasWidth / 2 + 200.0f) * Math.cos((2 * Math.PI * time.minute / 60) + _offset - Math.PI / 2));
-        sunPositionY = (float) (canvasHeight / 2 + (canvasWidth / 2 + 200.0f) * Math.sin((2 * Math.PI * time.minute / 60) + _offset - Math.PI / 2));
+    private void calculateSunRotation(float _offset, WallClock time, int canvasWidth, int canvasHeight) {
+        checkCanvasSize(canvasWidth, canvasHeight);
+
+        // The angle is quantized so the same sun position always maps to the same cached shadows
+        sunAngleBucket = SunSweep.sunAngleBucket(time.minute, _offset);
+        sunPositionX = SunSweep.sunX(sunAngleBucket, canvasWidth);
+        sunPositionY = SunSweep.sunY(sunAngleBucket, canvasWidth, canvasHeight);
     }
 
 
     /**
-     * Calculates the sunlight intensity
-     * @param time Current time
+     * The sun orbit depends on the canvas size, shadows cached for another size are stale
      */
-    private void calculateSunlightRatio(Time time) {
-        float value = time.hour + (map(time.minute, 0, 60, 0, 100) / 100);
-        // Uses a Gaussian function to estimate the actual movement of the sun and therefore the sunlight intensity.
-        sunlightRatio = (float) Gaussian.getPhi(value, 12.0f, 3.65f);
-        if (sunlightRatio < 0.5) sunlightRatio = 1 - sunlightRatio;
+    private void checkCanvasSize(int canvasWidth, int canvasHeight) {
+        if (canvasWidth != sunCanvasWidth || canvasHeight != sunCanvasHeight) {
+            sunCanvasWidth = canvasWidth;
+            sunCanvasHeight = canvasHeight;
+            if (mShadowCache != null) {
+                mShadowCache.evictAll();
+            }
+            if (mShadowAtlas != null) {
+                mShadowAtlas.evictAll();
+            }
+        }
     }
 
 
     /**
-     * Converts a value from a range of numbers to another one
-     * @param value Value to convert
-     * @param low1 Min value of the current range
-     * @param high1 Max value of the current range
-     * @param low2 Min value of the new range
-     * @param high2 Max value of the new range
-     * @return the value converted.
+     * Calculates the sunlight intensity
+     * @param time Current time
      */
-    private float map(float value, float low1, float high1, float low2, float high2) {
-        return low2 + (value - low1) * (high2 - low2) / (high1 - low1);
+    private void calculateSunlightRatio(WallClock time) {
+        // Computes it directly until the table is ready
+        if (!mDaylightProfile.get(time.hour, time.minute, mStyle)) {
+            mStyle.update(time.hour, time.minute);
+        }
     }
 }
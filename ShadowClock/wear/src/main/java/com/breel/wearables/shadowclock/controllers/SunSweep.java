@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.controllers;
+
+/**
+ * Keyframes of the sun sweep animation for the current minute: sun position, shadow gradient
+ * radius and overlay angle. Built when the minute changes, so the animation frames are table
+ * lookups and don't allocate. Pure Java, no Android dependencies.
+ */
+public class SunSweep {
+
+    // Values of the sweep, rotation offset of the sun in radians
+    public static final float START_VALUE = (float) (1.2 * Math.PI);
+    public static final float END_VALUE = (float) (2 * Math.PI);
+
+    // About one keyframe per frame of the 2 seconds animation, and small enough for the four
+    // digits to fit in the shadow cache
+    public static final int KEYFRAMES = 128;
+
+    // Number of sun angle buckets in a full turn (a quarter of a degree each)
+    public static final int ANGLE_BUCKETS = 1440;
+
+    private final float[] sunX = new float[KEYFRAMES];
+    private final float[] sunY = new float[KEYFRAMES];
+    private final int[] sunAngleBucket = new int[KEYFRAMES];
+    private final float[] gradientRadius = new float[KEYFRAMES];
+    private final float[] overlayAngle = new float[KEYFRAMES];
+
+    // What the keyframes were built for
+    private int minute = -1;
+    private int canvasWidth = -1;
+    private int canvasHeight = -1;
+
+
+    /**
+     * Builds the keyframes, unless they're already built for the same minute and canvas
+     */
+    public void build(int _minute, int _canvasWidth, int _canvasHeight) {
+        if (isBuiltFor(_minute, _canvasWidth, _canvasHeight)) {
+            return;
+        }
+        minute = _minute;
+        canvasWidth = _canvasWidth;
+        canvasHeight = _canvasHeight;
+
+        float minuteMapped = DialStyle.map(_minute, 0, 60, 0, 360);
+        for (int i = 0; i < KEYFRAMES; i++) {
+            float value = START_VALUE + (END_VALUE - START_VALUE) * i / (KEYFRAMES - 1);
+
+            int bucket = sunAngleBucket(_minute, value);
+            sunAngleBucket[i] = bucket;
+            sunX[i] = sunX(bucket, _canvasWidth);
+            sunY[i] = sunY(bucket, _canvasWidth, _canvasHeight);
+
+            gradientRadius[i] = DialStyle.map(value, (float) Math.PI, (float) (2 * Math.PI), 80.0f, 200.0f);
+            overlayAngle[i] = minuteMapped + (value * (float) (180 / Math.PI));
+        }
+    }
+
+
+    /**
+     * Returns true if the keyframes are built for this minute and canvas
+     */
+    public boolean isBuiltFor(int _minute, int _canvasWidth, int _canvasHeight) {
+        return _minute == minute && _canvasWidth == canvasWidth && _canvasHeight == canvasHeight;
+    }
+
+
+    /**
+     * Keyframe of a point of the animation
+     * @param fraction The interpolated fraction of the animation, from 0 to 1
+     */
+    public int indexOf(float fraction) {
+        int index = Math.round(fraction * (KEYFRAMES - 1));
+        return Math.max(0, Math.min(KEYFRAMES - 1, index));
+    }
+
+
+    public float getSunX(int keyframe) {
+        return sunX[keyframe];
+    }
+
+    public float getSunY(int keyframe) {
+        return sunY[keyframe];
+    }
+
+    public int getSunAngleBucket(int keyframe) {
+        return sunAngleBucket[keyframe];
+    }
+
+    public float getGradientRadius(int keyframe) {
+        return gradientRadius[keyframe];
+    }
+
+    public float getOverlayAngle(int keyframe) {
+        return overlayAngle[keyframe];
+    }
+
+
+    /**
+     * Quantized angle of the sun, so the same sun position always maps to the same cached shadows
+     * @param minute The minute of the hour
+     * @param offset The rotation offset of the sun in radians
+     */
+    public static int sunAngleBucket(int minute, float offset) {
+        return quantizeAngle((2 * Math.PI * minute / 60) + offset - Math.PI / 2);
+    }
+
+
+    /**
+     * Quantizes an angle in radians into one of the {@link #ANGLE_BUCKETS} buckets
+     */
+    public static int quantizeAngle(double angle) {
+        int bucket = (int) Math.round(angle * ANGLE_BUCKETS / (2 * Math.PI)) % ANGLE_BUCKETS;
+        return bucket < 0 ? bucket + ANGLE_BUCKETS : bucket;
+    }
+
+
+    /**
+     * Angle in radians of the center of a bucket
+     */
+    public static double bucketAngle(int angleBucket) {
+        return angleBucket * (2 * Math.PI) / ANGLE_BUCKETS;
+    }
+
+    public static float sunX(int angleBucket, int canvasWidth) {
+        double angle = bucketAngle(angleBucket);
+        return (float) (canvasWidth / 2 + (canvasWidth / 2 + 200.0f) * Math.cos(angle));
+    }
+
+    public static float sunY(int angleBucket, int canvasWidth, int canvasHeight) {
+        double angle = bucketAngle(angleBucket);
+        return (float) (canvasHeight / 2 + (canvasWidth / 2 + 200.0f) * Math.sin(angle));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.diagnostics;
+
+import java.io.PrintWriter;
+
+/**
+ * Render timings of the watch face: one histogram per phase of the frame, and the number of
+ * frames drawn in every mode. Cheap enough to be always on, printed by the service dump
+ * (adb shell dumpsys activity service BReelWatchFaceService). Not thread safe, the dump runs on
+ * the drawing thread too.
+ */
+public final class FrameStats {
+
+    // Phases of a frame
+    public static final int PHASE_BACKGROUND = 0;
+    public static final int PHASE_SHADOW_OVERLAY = 1;
+    public static final int PHASE_DIGIT_SHADOWS = 2;
+    public static final int PHASE_SHAPES = 3;
+    public static final int PHASE_SHINE = 4;
+    public static final int PHASE_FRAME = 5;
+    public static final int PHASE_COUNT = 6;
+
+    private static final String[] PHASE_NAMES = {
+            "background", "shadow overlay", "digit shadows", "shapes", "shine", "whole frame"
+    };
+
+    // Modes of a frame
+    public static final int MODE_INTERACTIVE = 0;
+    public static final int MODE_AMBIENT = 1;
+    public static final int MODE_ANIMATING = 2;
+    public static final int MODE_COUNT = 3;
+
+    private static final String[] MODE_NAMES = {"interactive", "ambient", "animating"};
+
+    private final Histogram[] phases = new Histogram[PHASE_COUNT];
+    private final long[] frames = new long[MODE_COUNT];
+
+    // Interactive frames drawn from the cached composite
+    private long compositeFrames = 0;
+
+
+    public FrameStats() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+
+    /**
+     * Returns a timestamp to pass to {@link #endPhase}
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+
+    /**
+     * Records the duration of a phase
+     * @param phase One of the PHASE constants
+     * @param startNanos Start of the phase, see {@link #now()}
+     * @return the end of the phase, to be used as the start of the next one
+     */
+    public long endPhase(int phase, long startNanos) {
+        long end = System.nanoTime();
+        record(phase, end - startNanos);
+        return end;
+    }
+
+
+    /**
+     * Records the duration of a phase
+     * @param phase One of the PHASE constants
+     * @param nanos Duration of the phase
+     */
+    public void record(int phase, long nanos) {
+        phases[phase].record(nanos / 1000);
+    }
+
+
+    /**
+     * Counts a frame
+     * @param mode One of the MODE constants
+     */
+    public void countFrame(int mode) {
+        frames[mode]++;
+    }
+
+
+    public void countCompositeFrame() {
+        compositeFrames++;
+    }
+
+
+    public Histogram getPhase(int phase) {
+        return phases[phase];
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            phases[i].reset();
+        }
+        for (int i = 0; i < MODE_COUNT; i++) {
+            frames[i] = 0;
+        }
+        compositeFrames = 0;
+    }
+
+
+    /**
+     * Prints the frame counts and the percentiles of every phase, in microseconds
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Frames:");
+        for (int i = 0; i < MODE_COUNT; i++) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(MODE_NAMES[i]);
+            writer.print(": ");
+            writer.println(frames[i]);
+        }
+        writer.print(prefix);
+        writer.print("  from composite: ");
+        writer.println(compositeFrames);
+
+        writer.print(prefix);
+        writer.println("Phases (us): count mean p50 p95 p99 max");
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            Histogram histogram = phases[i];
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(PHASE_NAMES[i]);
+            writer.print(": ");
+            writer.print(histogram.getCount());
+            writer.print(' ');
+            writer.print(histogram.getMeanMicros());
+            writer.print(' ');
+            writer.print(histogram.getPercentile(50));
+            writer.print(' ');
+            writer.print(histogram.getPercentile(95));
+            writer.print(' ');
+            writer.print(histogram.getPercentile(99));
+            writer.print(' ');
+            writer.println(histogram.getMaxMicros());
+        }
+    }
+}
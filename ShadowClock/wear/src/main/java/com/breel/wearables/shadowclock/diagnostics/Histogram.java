@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.diagnostics;
+
+/**
+ * Fixed size histogram of durations in microseconds, with log-linear buckets: exact up to 8us,
+ * then four buckets per power of two (so a percentile is off by 25% at most). Recording never
+ * allocates.
+ * <p>
+ * Written from a single thread. Reading it from another one, e.g. in a dump, may see slightly
+ * torn values, which is fine for diagnostics.
+ */
+public final class Histogram {
+
+    private static final int LINEAR_BUCKETS = 8;
+    private static final int SUB_BUCKETS = 4;
+
+    // Enough for durations of more than an hour
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + 30 * SUB_BUCKETS;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private long count = 0;
+    private long sumMicros = 0;
+    private long maxMicros = 0;
+
+
+    /**
+     * Records a duration
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts[bucketOf(micros)]++;
+        count++;
+        sumMicros += micros;
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+    }
+
+
+    /**
+     * Upper bound of the bucket containing the given percentile, in microseconds
+     * @param percentile From 0 to 100
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanMicros() {
+        return (count != 0) ? sumMicros / count : 0;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sumMicros = 0;
+        maxMicros = 0;
+    }
+
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        // Position of the highest bit, at least 3, and the two bits below it
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        int bucket = LINEAR_BUCKETS + (exponent - 3) * SUB_BUCKETS + sub;
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+
+    static long bucketUpperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 3;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 2)) - 1;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.diagnostics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory held by the components of the watch face: bitmaps, cached paths and the like, all of
+ * it derived data that can be dropped and rebuilt lazily. Every component reports its bytes and
+ * has a priority; trimming evicts the components up to a priority, the lowest first.
+ * <p>
+ * The service trims on onTrimMemory and onLowMemory, and prints the usage in its dump. The
+ * components are only called from the thread drawing the frames, which publishes their bytes
+ * with {@link #update}: the dump runs on a binder thread and only reads those snapshots, never
+ * the bitmaps the drawing thread recycles. Pure Java.
+ */
+public final class MemoryRegistry {
+
+    // Priorities, evicted in this order
+    // Prepared ahead of time, e.g. the shadow sprites, drawn some other way until rebuilt
+    public static final int PRIORITY_PREFETCH = 0;
+    // Caches rebuilt on a miss, e.g. the shadow paths
+    public static final int PRIORITY_CACHE = 1;
+    // Needed by the next frame, rebuilt when it's drawn, e.g. the composite bitmap
+    public static final int PRIORITY_FRAME = 2;
+    public static final int PRIORITY_COUNT = 3;
+
+    private static final String[] PRIORITY_NAMES = {"prefetch", "cache", "frame"};
+
+    /**
+     * A part of the watch face holding memory
+     */
+    public interface Component {
+
+        /**
+         * Bytes held now, estimated where the exact size isn't known (e.g. native paths). Called
+         * from the drawing thread.
+         */
+        long getBytes();
+
+        /**
+         * Drops everything it can rebuild
+         */
+        void evict();
+    }
+
+    private final List<Component> components = new ArrayList<Component>();
+    private final List<String> names = new ArrayList<String>();
+    private final List<Integer> priorities = new ArrayList<Integer>();
+
+    // Bytes of every component at the last update, trim or register
+    private long[] bytes = new long[0];
+
+    // Diagnostics
+    private int trimCount = 0;
+    private int lastTrimPriority = -1;
+    private long lastTrimFreedBytes = 0;
+
+
+    /**
+     * Adds a component. Call from the drawing thread.
+     * @param name Name printed in the dump
+     * @param priority One of the PRIORITY constants
+     * @param component The component
+     */
+    public synchronized void register(String name, int priority, Component component) {
+        components.add(component);
+        names.add(name);
+        priorities.add(priority);
+
+        long[] grown = new long[bytes.length + 1];
+        System.arraycopy(bytes, 0, grown, 0, bytes.length);
+        grown[bytes.length] = component.getBytes();
+        bytes = grown;
+    }
+
+
+    public synchronized void unregister(Component component) {
+        int index = components.indexOf(component);
+        if (index >= 0) {
+            components.remove(index);
+            names.remove(index);
+            priorities.remove(index);
+
+            long[] shrunk = new long[bytes.length - 1];
+            System.arraycopy(bytes, 0, shrunk, 0, index);
+            System.arraycopy(bytes, index + 1, shrunk, index, shrunk.length - index);
+            bytes = shrunk;
+        }
+    }
+
+
+    /**
+     * Publishes the bytes of every component for the dump. Call from the drawing thread, e.g.
+     * after a frame. Doesn't allocate.
+     */
+    public synchronized void update() {
+        for (int i = 0; i < components.size(); i++) {
+            bytes[i] = components.get(i).getBytes();
+        }
+    }
+
+
+    /**
+     * Evicts the components up to a priority, the lowest priorities first. Call from the drawing
+     * thread.
+     * @param maxPriority The highest priority evicted, one of the PRIORITY constants
+     * @return the bytes freed
+     */
+    public synchronized long trim(int maxPriority) {
+        long freed = 0;
+        for (int priority = 0; priority <= maxPriority && priority < PRIORITY_COUNT; priority++) {
+            for (int i = 0; i < components.size(); i++) {
+                if (priorities.get(i) == priority) {
+                    Component component = components.get(i);
+                    long before = component.getBytes();
+                    component.evict();
+                    bytes[i] = component.getBytes();
+                    freed += Math.max(0, before - bytes[i]);
+                }
+            }
+        }
+        trimCount++;
+        lastTrimPriority = Math.min(maxPriority, PRIORITY_COUNT - 1);
+        lastTrimFreedBytes = freed;
+        return freed;
+    }
+
+
+    /**
+     * Bytes held by every component at the last update
+     */
+    public synchronized long getTotalBytes() {
+        long total = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            total += bytes[i];
+        }
+        return total;
+    }
+
+
+    /**
+     * Prints the bytes of every component at the last update, and the last trim
+     */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("Memory (KB): ");
+        writer.println(getTotalBytes() / 1024);
+        for (int i = 0; i < components.size(); i++) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(names.get(i));
+            writer.print(" (");
+            writer.print(PRIORITY_NAMES[priorities.get(i)]);
+            writer.print("): ");
+            writer.println(bytes[i] / 1024);
+        }
+
+        writer.print(prefix);
+        writer.print("  trims: ");
+        writer.print(trimCount);
+        if (lastTrimPriority >= 0) {
+            writer.print(", last up to ");
+            writer.print(PRIORITY_NAMES[lastTrimPriority]);
+            writer.print(" freed (KB): ");
+            writer.print(lastTrimFreedBytes / 1024);
+        }
+        writer.println();
+    }
+}
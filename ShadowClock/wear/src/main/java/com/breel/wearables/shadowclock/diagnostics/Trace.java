@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.diagnostics;
+
+import java.io.PrintWriter;
+
+/**
+ * Lightweight tracing for the hot paths: events with an id and two primitive arguments,
+ * written to a preallocated ring buffer that can be dumped on demand (see the service dump).
+ * <p>
+ * Recording doesn't allocate or format anything. Call sites are guarded with
+ * {@code if (Trace.ENABLED)}, so turning ENABLED off removes them at compile time.
+ */
+public final class Trace {
+
+    public static final boolean ENABLED = true;
+
+    // Events, the meaning of their arguments is in NAMES
+    public static final int DRAW = 0;
+    public static final int TIME_TICK = 1;
+    public static final int SET_TIME = 2;
+    public static final int SHINE_ANGLE = 3;
+    public static final int SHADOW_GRADIENT = 4;
+    public static final int DIGITS_UPDATE = 5;
+    public static final int PEEK_CARD = 6;
+    public static final int QUALITY_LEVEL = 7;
+
+    private static final String[] NAMES = {
+            "draw (ambient, unused)",
+            "time tick (hour, minute)",
+            "set time (hour, minute)",
+            "shine angle (1/100 deg, unused)",
+            "shadow gradient (hour, radius 1/100 px)",
+            "digits update (minute, hour)",
+            "peek card (center x, center y)",
+            "quality level (level, window p90 us)"
+    };
+
+    private static final int CAPACITY = 256;
+
+    private static final Object lock = new Object();
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] events = new int[CAPACITY];
+    private static final long[] firstArgs = new long[CAPACITY];
+    private static final long[] secondArgs = new long[CAPACITY];
+    private static int next = 0;
+    private static long count = 0;
+
+
+    private Trace() {
+    }
+
+
+    public static void event(int event, long firstArg) {
+        event(event, firstArg, 0);
+    }
+
+
+    public static void event(int event, long firstArg, long secondArg) {
+        long time = System.nanoTime();
+        synchronized (lock) {
+            times[next] = time;
+            events[next] = event;
+            firstArgs[next] = firstArg;
+            secondArgs[next] = secondArg;
+            next = (next + 1) % CAPACITY;
+            count++;
+        }
+    }
+
+
+    public static void clear() {
+        synchronized (lock) {
+            next = 0;
+            count = 0;
+        }
+    }
+
+
+    /**
+     * Prints the buffered events, oldest first, with their age in milliseconds
+     */
+    public static void dump(String prefix, PrintWriter writer) {
+        synchronized (lock) {
+            long now = System.nanoTime();
+            int size = (int) Math.min(count, CAPACITY);
+            writer.print(prefix);
+            writer.print("Trace: ");
+            writer.print(count);
+            writer.print(" events, last ");
+            writer.println(size);
+
+            int index = (next - size + CAPACITY) % CAPACITY;
+            for (int i = 0; i < size; i++) {
+                writer.print(prefix);
+                writer.print("  -");
+                writer.print((now - times[index]) / 1000000);
+                writer.print("ms ");
+                writer.print(NAMES[events[index]]);
+                writer.print(": ");
+                writer.print(firstArgs[index]);
+                writer.print(' ');
+                writer.println(secondArgs[index]);
+                index = (index + 1) % CAPACITY;
+            }
+        }
+    }
+}
@@ -86,5 +86,17 @@ public class AVector {
         return new AVector(x, y);
     }
 
+    // Primitive helpers of ShadowVolume, which keeps its vertices in float arrays
+
+    public static float length(float x, float y) {
+        return (float) (Math.sqrt((x * x) + (y * y)));
+    }
+
+    /**
+     * Z component of the cross product, positive when (x2, y2) turns counter clockwise from (x1, y1)
+     */
+    public static float cross(float x1, float y1, float x2, float y2) {
+        return (x1 * y2) - (y1 * x2);
+    }
 
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+import android.graphics.BlurMaskFilter;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.RadialGradient;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+import java.util.Arrays;
+
+/**
+ * Renderer drawing on an Android canvas, the backend of the watch. Paths and bitmaps wrap the
+ * Android ones, also the ones built elsewhere (e.g. cached shadows or sprites).
+ * <p>
+ * The gradients and blur filters are kept and reused while their parameters don't change, so
+ * drawing a frame doesn't allocate once the few gradients of the dial have been created.
+ */
+public class CanvasRenderer implements Renderer {
+
+    // Distinct gradients kept at once, the dial uses three per frame
+    private static final int GRADIENT_CACHE_SIZE = 8;
+
+    /**
+     * Path handle, wraps an Android path
+     */
+    public static final class CanvasPath implements Renderer.Path {
+        private android.graphics.Path path;
+
+        public CanvasPath() {
+            this(new android.graphics.Path());
+        }
+
+        public CanvasPath(android.graphics.Path _path) {
+            path = _path;
+        }
+
+        public void set(android.graphics.Path _path) {
+            path = _path;
+        }
+
+        public android.graphics.Path getPath() {
+            return path;
+        }
+
+        /**
+         * Keeps the storage of the points for the next ones, like Path.rewind
+         */
+        @Override
+        public void reset() {
+            path.rewind();
+        }
+
+        @Override
+        public void setEvenOdd(boolean evenOdd) {
+            path.setFillType(evenOdd ? android.graphics.Path.FillType.EVEN_ODD : android.graphics.Path.FillType.WINDING);
+        }
+
+        @Override
+        public void moveTo(float x, float y) {
+            path.moveTo(x, y);
+        }
+
+        @Override
+        public void lineTo(float x, float y) {
+            path.lineTo(x, y);
+        }
+
+        @Override
+        public void quadTo(float x1, float y1, float x2, float y2) {
+            path.quadTo(x1, y1, x2, y2);
+        }
+
+        @Override
+        public void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            path.cubicTo(x1, y1, x2, y2, x3, y3);
+        }
+
+        @Override
+        public void close() {
+            path.close();
+        }
+
+        @Override
+        public void set(Renderer.Path src) {
+            path.set(((CanvasPath) src).path);
+        }
+    }
+
+    /**
+     * Bitmap handle, wraps an Android bitmap
+     */
+    public static final class CanvasBitmap implements Renderer.Bitmap {
+        private android.graphics.Bitmap bitmap;
+
+        public CanvasBitmap(android.graphics.Bitmap _bitmap) {
+            bitmap = _bitmap;
+        }
+
+        public void set(android.graphics.Bitmap _bitmap) {
+            bitmap = _bitmap;
+        }
+
+        public android.graphics.Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        @Override
+        public int getWidth() {
+            return bitmap.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return bitmap.getHeight();
+        }
+
+        @Override
+        public boolean isAlphaOnly() {
+            return bitmap.getConfig() == android.graphics.Bitmap.Config.ALPHA_8;
+        }
+
+        @Override
+        public void release() {
+            bitmap.recycle();
+        }
+    }
+
+    private Canvas canvas;
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF dst = new RectF();
+
+    // Gradients by colors and stops, replaced in turn when full
+    private final int[][] gradientColors = new int[GRADIENT_CACHE_SIZE][];
+    private final float[][] gradientStops = new float[GRADIENT_CACHE_SIZE][];
+    private final RadialGradient[] gradients = new RadialGradient[GRADIENT_CACHE_SIZE];
+    private int nextGradient = 0;
+    private final Matrix gradientMatrix = new Matrix();
+
+    private BlurMaskFilter blurMaskFilter;
+    private float blurRadius = 0.0f;
+
+
+    public CanvasRenderer() {
+        paint.setStyle(Paint.Style.FILL);
+    }
+
+    public CanvasRenderer(Canvas _canvas) {
+        this();
+        canvas = _canvas;
+    }
+
+
+    /**
+     * Sets the canvas drawn on, e.g. the one of the current frame
+     */
+    public void setCanvas(Canvas _canvas) {
+        canvas = _canvas;
+    }
+
+    public Canvas getCanvas() {
+        return canvas;
+    }
+
+
+    @Override
+    public int getWidth() {
+        return canvas.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return canvas.getHeight();
+    }
+
+    @Override
+    public Renderer.Path createPath() {
+        return new CanvasPath();
+    }
+
+    @Override
+    public Renderer.Bitmap createBitmap(int width, int height, boolean alphaOnly) {
+        return new CanvasBitmap(android.graphics.Bitmap.createBitmap(width, height, alphaOnly ? android.graphics.Bitmap.Config.ALPHA_8 : android.graphics.Bitmap.Config.ARGB_8888));
+    }
+
+    @Override
+    public Renderer createRenderer(Renderer.Bitmap target) {
+        return new CanvasRenderer(new Canvas(((CanvasBitmap) target).bitmap));
+    }
+
+
+    @Override
+    public int save() {
+        return canvas.save();
+    }
+
+    @Override
+    public void restoreToCount(int saveCount) {
+        canvas.restoreToCount(saveCount);
+    }
+
+    @Override
+    public void translate(float dx, float dy) {
+        canvas.translate(dx, dy);
+    }
+
+    @Override
+    public void scale(float sx, float sy) {
+        canvas.scale(sx, sy);
+    }
+
+    @Override
+    public void rotate(float degrees, float px, float py) {
+        canvas.rotate(degrees, px, py);
+    }
+
+
+    @Override
+    public void setColor(int argb) {
+        paint.setShader(null);
+        paint.setColor(argb);
+    }
+
+    @Override
+    public void setRadialGradient(float centerX, float centerY, float radius, int[] colors, float[] stops) {
+        RadialGradient gradient = null;
+        for (int i = 0; i < GRADIENT_CACHE_SIZE; i++) {
+            if (gradients[i] != null && Arrays.equals(gradientColors[i], colors) && Arrays.equals(gradientStops[i], stops)) {
+                gradient = gradients[i];
+                break;
+            }
+        }
+        if (gradient == null) {
+            // Unit gradient at the origin, placed by the local matrix
+            gradient = new RadialGradient(0.0f, 0.0f, 1.0f, colors, stops, Shader.TileMode.CLAMP);
+            gradientColors[nextGradient] = colors.clone();
+            gradientStops[nextGradient] = stops.clone();
+            gradients[nextGradient] = gradient;
+            nextGradient = (nextGradient + 1) % GRADIENT_CACHE_SIZE;
+        }
+        gradientMatrix.setScale(radius, radius);
+        gradientMatrix.postTranslate(centerX, centerY);
+        gradient.setLocalMatrix(gradientMatrix);
+
+        paint.setColor(Color.BLACK);
+        paint.setShader(gradient);
+    }
+
+    @Override
+    public void setAntiAlias(boolean antiAlias) {
+        paint.setAntiAlias(antiAlias);
+    }
+
+    @Override
+    public void setStrokeWidth(float width) {
+        paint.setStyle(width > 0.0f ? Paint.Style.STROKE : Paint.Style.FILL);
+        paint.setStrokeWidth(width);
+    }
+
+    @Override
+    public void setBlur(float radius) {
+        if (radius <= 0.0f) {
+            paint.setMaskFilter(null);
+            return;
+        }
+        if (blurMaskFilter == null || radius != blurRadius) {
+            blurMaskFilter = new BlurMaskFilter(radius, BlurMaskFilter.Blur.NORMAL);
+            blurRadius = radius;
+        }
+        paint.setMaskFilter(blurMaskFilter);
+    }
+
+
+    @Override
+    public void clear() {
+        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+    }
+
+    @Override
+    public void drawPaint() {
+        canvas.drawPaint(paint);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom) {
+        canvas.drawRect(left, top, right, bottom, paint);
+    }
+
+    @Override
+    public void drawPath(Renderer.Path path) {
+        canvas.drawPath(((CanvasPath) path).path, paint);
+    }
+
+    @Override
+    public void drawBitmap(Renderer.Bitmap bitmap, float left, float top) {
+        CanvasBitmap b = (CanvasBitmap) bitmap;
+        canvas.drawBitmap(b.bitmap, left, top, b.isAlphaOnly() ? paint : bitmapPaint);
+    }
+
+    @Override
+    public void drawBitmap(Renderer.Bitmap bitmap, float left, float top, float right, float bottom) {
+        CanvasBitmap b = (CanvasBitmap) bitmap;
+        dst.set(left, top, right, bottom);
+        canvas.drawBitmap(b.bitmap, null, dst, b.isAlphaOnly() ? paint : bitmapPaint);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+/**
+ * Immutable geometry of a digit in glyph space (0 - 100 units), shared by every slot showing it.
+ * Never modified after it's loaded, so it can also be read from background threads.
+ */
+public final class Glyph {
+
+    private final int id;
+    private final int set;
+    private final int flags;
+
+    // Outline, holes already subtracted, and the bounds of its points
+    private final byte[] outlineVerbs;
+    private final float[] outlineCoords;
+    private final boolean outlineEvenOdd;
+    private final float outlineMinX;
+    private final float outlineMinY;
+    private final float outlineMaxX;
+    private final float outlineMaxY;
+
+    // Shadow contours
+    final float[] shadowXs;
+    final float[] shadowYs;
+    final int[] shadowContourEnds;
+    private final int shadowPointCount;
+    private final int shadowContourCount;
+
+    // Shadow bounds and center
+    private final float minX;
+    private final float minY;
+    private final float maxX;
+    private final float maxY;
+    private final float centerX;
+    private final float centerY;
+
+
+    /**
+     * Reads a glyph from the glyph file
+     * @param file The glyph file
+     * @param set The set of the glyph
+     * @param record The record of the glyph in the file
+     * @param verbs Scratch buffer big enough for the verbs of any glyph of the file
+     * @param coords Scratch buffer big enough for the coords of any glyph of the file
+     */
+    public Glyph(GlyphFile file, int set, int record, byte[] verbs, float[] coords) {
+        this.set = set;
+        id = file.getId(record);
+        flags = file.getFlags(record);
+
+        int verbCount = file.readVerbs(record, verbs);
+        int coordCount = file.readCoords(record, coords);
+        outlineVerbs = new byte[verbCount];
+        outlineCoords = new float[coordCount];
+        System.arraycopy(verbs, 0, outlineVerbs, 0, verbCount);
+        System.arraycopy(coords, 0, outlineCoords, 0, coordCount);
+        outlineEvenOdd = file.getFillType(record) == GlyphFile.FILL_EVEN_ODD;
+
+        // Bounds of the control points too, like Path.computeBounds
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i + 1 < coordCount; i += 2) {
+            left = Math.min(left, coords[i]);
+            top = Math.min(top, coords[i + 1]);
+            right = Math.max(right, coords[i]);
+            bottom = Math.max(bottom, coords[i + 1]);
+        }
+        outlineMinX = coordCount > 0 ? left : 0.0f;
+        outlineMinY = coordCount > 0 ? top : 0.0f;
+        outlineMaxX = coordCount > 0 ? right : 0.0f;
+        outlineMaxY = coordCount > 0 ? bottom : 0.0f;
+
+        shadowContourEnds = new int[file.getShadowContourCount(record)];
+        shadowContourCount = file.readShadowContourEnds(record, shadowContourEnds);
+        shadowXs = new float[file.getShadowPointCount(record)];
+        shadowYs = new float[shadowXs.length];
+        shadowPointCount = file.readShadowPoints(record, shadowXs, shadowYs);
+
+        minX = file.getBounds(record, GlyphFile.BOUNDS_MIN_X);
+        minY = file.getBounds(record, GlyphFile.BOUNDS_MIN_Y);
+        maxX = file.getBounds(record, GlyphFile.BOUNDS_MAX_X);
+        maxY = file.getBounds(record, GlyphFile.BOUNDS_MAX_Y);
+        centerX = file.getBounds(record, GlyphFile.BOUNDS_CENTER_X);
+        centerY = file.getBounds(record, GlyphFile.BOUNDS_CENTER_Y);
+    }
+
+
+    public int getId() {
+        return id;
+    }
+
+    public int getSet() {
+        return set;
+    }
+
+    /**
+     * Most outlines are drawn slightly bigger than their shadow to hide its edge
+     */
+    public boolean hasOutlineBleed() {
+        return (flags & GlyphFile.FLAG_OUTLINE_BLEED) != 0;
+    }
+
+    /**
+     * Writes the outline into a path, scaled and then translated. Only reads the glyph, so it
+     * can run in any thread.
+     * @param path The path, reset first
+     */
+    public void writeOutline(Renderer.Path path, float scale, float dx, float dy) {
+        path.reset();
+        path.setEvenOdd(outlineEvenOdd);
+        float[] c = outlineCoords;
+        int i = 0;
+        for (int v = 0; v < outlineVerbs.length; v++) {
+            switch (outlineVerbs[v]) {
+                case GlyphFile.VERB_MOVE:
+                    path.moveTo(c[i] * scale + dx, c[i + 1] * scale + dy);
+                    i += 2;
+                    break;
+                case GlyphFile.VERB_LINE:
+                    path.lineTo(c[i] * scale + dx, c[i + 1] * scale + dy);
+                    i += 2;
+                    break;
+                case GlyphFile.VERB_QUAD:
+                    path.quadTo(c[i] * scale + dx, c[i + 1] * scale + dy,
+                            c[i + 2] * scale + dx, c[i + 3] * scale + dy);
+                    i += 4;
+                    break;
+                case GlyphFile.VERB_CUBIC:
+                    path.cubicTo(c[i] * scale + dx, c[i + 1] * scale + dy,
+                            c[i + 2] * scale + dx, c[i + 3] * scale + dy,
+                            c[i + 4] * scale + dx, c[i + 5] * scale + dy);
+                    i += 6;
+                    break;
+                case GlyphFile.VERB_CLOSE:
+                    path.close();
+                    break;
+            }
+        }
+    }
+
+    public float getOutlineMinX() {
+        return outlineMinX;
+    }
+
+    public float getOutlineMinY() {
+        return outlineMinY;
+    }
+
+    public float getOutlineMaxX() {
+        return outlineMaxX;
+    }
+
+    public float getOutlineMaxY() {
+        return outlineMaxY;
+    }
+
+    public int getShadowPointCount() {
+        return shadowPointCount;
+    }
+
+    public int getShadowContourCount() {
+        return shadowContourCount;
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+
+    public float getCenterX() {
+        return centerX;
+    }
+
+    public float getCenterY() {
+        return centerY;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reader for the binary glyph file generated at build time from the JSON digit assets
+ * (see the compileGlyphs task of the wear module for the layout).
+ * <p>
+ * Reads straight from the (usually memory mapped) buffer into arrays owned by the caller, with
+ * absolute gets only, so loading a glyph doesn't allocate. Pure Java, no Android dependencies.
+ */
+public final class GlyphFile {
+
+    public static final String ASSET_NAME = "glyphs/glyphs.bin";
+
+    public static final int MAGIC = 0x474C5946;
+    public static final int VERSION = 2;
+
+    // Generated levels of detail are named after their source set plus this and their index
+    public static final String LOD_SUFFIX = "_lod";
+
+    public static final int VERB_MOVE = 0;
+    public static final int VERB_LINE = 1;
+    public static final int VERB_QUAD = 2;
+    public static final int VERB_CUBIC = 3;
+    public static final int VERB_CLOSE = 4;
+
+    public static final int FILL_NON_ZERO = 0;
+    public static final int FILL_EVEN_ODD = 1;
+
+    public static final int FLAG_OUTLINE_BLEED = 1;
+
+    // Indices for getBounds
+    public static final int BOUNDS_MIN_X = 0;
+    public static final int BOUNDS_MIN_Y = 1;
+    public static final int BOUNDS_MAX_X = 2;
+    public static final int BOUNDS_MAX_Y = 3;
+    public static final int BOUNDS_CENTER_X = 4;
+    public static final int BOUNDS_CENTER_Y = 5;
+
+    // Record layout
+    private static final int RECORD_ID = 0;
+    private static final int RECORD_FLAGS = 2;
+    private static final int RECORD_FILL_TYPE = 3;
+    private static final int RECORD_BOUNDS = 4;
+    private static final int RECORD_VERBS = 28;
+
+    private final ByteBuffer buffer;
+
+    private final int setCount;
+    private final int glyphsPerSet;
+    private final int maxVerbs;
+    private final int maxCoords;
+    private final int maxShadowPoints;
+    private final int maxShadowContours;
+    private final String[] setNames;
+    private final float[] setErrors;
+    private final int directoryOffset;
+
+
+    /**
+     * Constructor
+     * @param buffer The content of the glyph file, big endian
+     * @throws IllegalArgumentException if it isn't a glyph file of a supported version
+     */
+    public GlyphFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a glyph file");
+        }
+        int version = buffer.getShort(4);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported glyph file version " + version);
+        }
+        setCount = buffer.getShort(6);
+        glyphsPerSet = buffer.getShort(8);
+        maxVerbs = buffer.getShort(10);
+        maxCoords = buffer.getShort(12);
+        maxShadowPoints = buffer.getShort(14);
+        maxShadowContours = buffer.getShort(16);
+
+        // Set names, written with DataOutput.writeUTF (plain ASCII), and their max errors
+        int position = 18;
+        setNames = new String[setCount];
+        setErrors = new float[setCount];
+        for (int s = 0; s < setCount; s++) {
+            int length = buffer.getShort(position) & 0xFFFF;
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (buffer.get(position + 2 + i) & 0xFF);
+            }
+            setNames[s] = new String(chars);
+            setErrors[s] = buffer.getFloat(position + 2 + length);
+            position += 2 + length + 4;
+        }
+        directoryOffset = position;
+    }
+
+
+    /**
+     * Returns the index of a set by name (e.g. "json_lowpoly"), or -1
+     */
+    public int findSet(String name) {
+        for (int s = 0; s < setCount; s++) {
+            if (setNames[s].equals(name)) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Returns the offset of the record of a glyph, to be passed to the other methods, or -1
+     */
+    public int findGlyph(int set, int glyph) {
+        if (set < 0 || set >= setCount || glyph < 0 || glyph >= glyphsPerSet) {
+            return -1;
+        }
+        return buffer.getInt(directoryOffset + 4 * (set * glyphsPerSet + glyph));
+    }
+
+
+    public int getId(int record) {
+        return buffer.getShort(record + RECORD_ID);
+    }
+
+    public int getFlags(int record) {
+        return buffer.get(record + RECORD_FLAGS);
+    }
+
+    public int getFillType(int record) {
+        return buffer.get(record + RECORD_FILL_TYPE);
+    }
+
+    /**
+     * Bounds and center of the shadow vertices: minX, minY, maxX, maxY, centerX, centerY
+     */
+    public float getBounds(int record, int index) {
+        return buffer.getFloat(record + RECORD_BOUNDS + 4 * index);
+    }
+
+    public int getVerbCount(int record) {
+        return buffer.getShort(record + RECORD_VERBS);
+    }
+
+    public int getCoordCount(int record) {
+        return buffer.getShort(coordsOffset(record));
+    }
+
+    public int getShadowContourCount(int record) {
+        return buffer.getShort(contoursOffset(record));
+    }
+
+    public int getShadowPointCount(int record) {
+        return buffer.getShort(shadowOffset(record));
+    }
+
+
+    /**
+     * Copies the outline verbs into dst
+     * @return the number of verbs
+     */
+    public int readVerbs(int record, byte[] dst) {
+        int count = getVerbCount(record);
+        int start = record + RECORD_VERBS + 2;
+        for (int i = 0; i < count; i++) {
+            dst[i] = buffer.get(start + i);
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies the outline coordinates (x, y interleaved) into dst
+     * @return the number of floats
+     */
+    public int readCoords(int record, float[] dst) {
+        int offset = coordsOffset(record);
+        int count = buffer.getShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            dst[i] = buffer.getFloat(offset + 4 * i);
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies the exclusive end index of every shadow contour into dst
+     * @return the number of contours
+     */
+    public int readShadowContourEnds(int record, int[] dst) {
+        int offset = contoursOffset(record);
+        int count = buffer.getShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            dst[i] = buffer.getShort(offset + 2 * i);
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies the shadow vertices into xs and ys
+     * @return the number of vertices
+     */
+    public int readShadowPoints(int record, float[] xs, float[] ys) {
+        int offset = shadowOffset(record);
+        int count = buffer.getShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            xs[i] = buffer.getFloat(offset + 4 * i);
+            ys[i] = buffer.getFloat(offset + 4 * (count + i));
+        }
+        return count;
+    }
+
+
+    private int coordsOffset(int record) {
+        return record + RECORD_VERBS + 2 + getVerbCount(record);
+    }
+
+    private int contoursOffset(int record) {
+        int offset = coordsOffset(record);
+        return offset + 2 + 4 * buffer.getShort(offset);
+    }
+
+    private int shadowOffset(int record) {
+        int offset = contoursOffset(record);
+        return offset + 2 + 2 * buffer.getShort(offset);
+    }
+
+
+    public String getSetName(int set) {
+        return setNames[set];
+    }
+
+    /**
+     * Max distance of the outlines of a set to the ones of its source, in glyph units. 0 for the
+     * hand-made sets.
+     */
+    public float getSetError(int set) {
+        return setErrors[set];
+    }
+
+    public int getSetCount() {
+        return setCount;
+    }
+
+    public int getGlyphsPerSet() {
+        return glyphsPerSet;
+    }
+
+    public int getMaxVerbs() {
+        return maxVerbs;
+    }
+
+    public int getMaxCoords() {
+        return maxCoords;
+    }
+
+    public int getMaxShadowPoints() {
+        return maxShadowPoints;
+    }
+
+    public int getMaxShadowContours() {
+        return maxShadowContours;
+    }
+}
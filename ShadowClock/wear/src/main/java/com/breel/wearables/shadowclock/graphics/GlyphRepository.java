@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Loads every digit of every glyph set once per process and keeps them as shared, immutable
+ * {@link Glyph} objects.
+ */
+public final class GlyphRepository {
+
+    private static final String TAG = "GlyphRepository";
+
+    // Glyph sets
+    public static final String SET_DETAILED = "json";
+    public static final String SET_LOW_POLY = "json_lowpoly";
+
+    private static GlyphRepository sInstance;
+
+    private final String[] setNames;
+    private final float[] setErrors;
+    private final Glyph[][] glyphs;
+    private int maxShadowPoints = 0;
+    private int maxShadowContours = 0;
+
+
+    /**
+     * Returns the repository, loading it the first time
+     * @param context Any context, only its assets are used
+     */
+    public static synchronized GlyphRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GlyphRepository(loadGlyphFile(context));
+        }
+        return sInstance;
+    }
+
+
+    private GlyphRepository(GlyphFile file) {
+        if (file == null) {
+            setNames = new String[0];
+            setErrors = new float[0];
+            glyphs = new Glyph[0][];
+            return;
+        }
+
+        byte[] verbs = new byte[file.getMaxVerbs()];
+        float[] coords = new float[file.getMaxCoords()];
+
+        setNames = new String[file.getSetCount()];
+        setErrors = new float[file.getSetCount()];
+        glyphs = new Glyph[file.getSetCount()][file.getGlyphsPerSet()];
+        for (int s = 0; s < file.getSetCount(); s++) {
+            setNames[s] = file.getSetName(s);
+            setErrors[s] = file.getSetError(s);
+            for (int g = 0; g < file.getGlyphsPerSet(); g++) {
+                int record = file.findGlyph(s, g);
+                if (record >= 0) {
+                    glyphs[s][g] = new Glyph(file, s, record, verbs, coords);
+                }
+            }
+        }
+        maxShadowPoints = file.getMaxShadowPoints();
+        maxShadowContours = file.getMaxShadowContours();
+    }
+
+
+    /**
+     * Returns the index of a set by name, or -1
+     */
+    public int findSet(String name) {
+        for (int s = 0; s < setNames.length; s++) {
+            if (setNames[s].equals(name)) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Picks the cheapest level of detail of a set that stays under an error, i.e. the generated
+     * one with the biggest error not above it, or the set itself if none is
+     * @param name Name of the source set, e.g. {@link #SET_DETAILED}
+     * @param maxError Max distance to the outlines of the source set, in glyph units
+     * @return the index of the set, or -1 if the source set doesn't exist
+     */
+    public int selectSet(String name, float maxError) {
+        int selected = findSet(name);
+        if (selected < 0) {
+            return -1;
+        }
+        String prefix = name + GlyphFile.LOD_SUFFIX;
+        for (int s = 0; s < setNames.length; s++) {
+            if (setNames[s].startsWith(prefix) && setErrors[s] <= maxError && setErrors[s] > setErrors[selected]) {
+                selected = s;
+            }
+        }
+        return selected;
+    }
+
+
+    /**
+     * Max distance of the outlines of a set to the ones of its source set, in glyph units
+     */
+    public float getSetError(int set) {
+        return set >= 0 && set < setErrors.length ? setErrors[set] : 0.0f;
+    }
+
+
+    /**
+     * Returns a digit of a set, or null if it doesn't exist
+     */
+    public Glyph get(int set, int digit) {
+        if (set < 0 || set >= glyphs.length || digit < 0 || digit >= glyphs[set].length) {
+            return null;
+        }
+        return glyphs[set][digit];
+    }
+
+
+    public int getSetCount() {
+        return glyphs.length;
+    }
+
+    public int getGlyphsPerSet() {
+        return glyphs.length > 0 ? glyphs[0].length : 0;
+    }
+
+    public int getMaxShadowPoints() {
+        return maxShadowPoints;
+    }
+
+    public int getMaxShadowContours() {
+        return maxShadowContours;
+    }
+
+
+    /**
+     * Maps the compiled glyph file. Falls back to reading it into memory if the asset is
+     * compressed and can't be mapped.
+     * @return the glyph file, or null if it can't be read
+     */
+    private static GlyphFile loadGlyphFile(Context context) {
+        try {
+            ByteBuffer buffer;
+            try {
+                AssetFileDescriptor fd = context.getAssets().openFd(GlyphFile.ASSET_NAME);
+                try {
+                    FileChannel channel = fd.createInputStream().getChannel();
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+                } finally {
+                    fd.close();
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "GLYPHS NOT MAPPED, READING THEM: " + e.getMessage());
+                buffer = ByteBuffer.wrap(readAsset(context, GlyphFile.ASSET_NAME));
+            }
+            return new GlyphFile(buffer);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load the glyphs", e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid glyph file", e);
+            return null;
+        }
+    }
+
+
+    private static byte[] readAsset(Context context, String name) throws IOException {
+        InputStream is = context.getAssets().open(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = is.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+/**
+ * A {@link Glyph} placed in a layout slot: its outline and shadow vertices in canvas space.
+ * Built once per slot and digit, so changing the digit of a slot is just a reference swap.
+ * Only changed by its owner, with {@link #set}: a view built in a background thread (see
+ * MinutePrecompute) is copied into one of the slot rather than shared.
+ */
+public final class GlyphView {
+
+    Glyph glyph;
+
+    // Outline in canvas space and the bounds of its points
+    final Renderer.Path shapePath;
+    float shapeLeft;
+    float shapeTop;
+    float shapeRight;
+    float shapeBottom;
+
+    // Shadow vertices in canvas space, contours are shared with the glyph. Grown to the largest
+    // glyph placed in the view.
+    float[] shadowXs;
+    float[] shadowYs;
+
+    // Shadow bounds and center in canvas space
+    float left;
+    float top;
+    float right;
+    float bottom;
+    float centerX;
+    float centerY;
+
+    // Layout of the slot
+    private float scale;
+    private float x;
+    private float y;
+
+
+    /**
+     * Constructor
+     * @param glyph The glyph to place
+     * @param scale Scale of the slot
+     * @param x Horizontal position of the slot
+     * @param y Vertical position of the slot
+     * @param shapePath Path the outline is written to, owned by the view from now on
+     */
+    public GlyphView(Glyph glyph, float scale, float x, float y, Renderer.Path shapePath) {
+        this.shapePath = shapePath;
+        shadowXs = new float[glyph.getShadowPointCount()];
+        shadowYs = new float[shadowXs.length];
+        set(glyph, scale, x, y);
+    }
+
+
+    /**
+     * Constructor copying another view, see {@link #set(GlyphView)}
+     * @param src A view of the same backend
+     * @param shapePath Path the outline is copied to, owned by the view from now on
+     */
+    public GlyphView(GlyphView src, Renderer.Path shapePath) {
+        this.shapePath = shapePath;
+        shadowXs = new float[src.glyph.getShadowPointCount()];
+        shadowYs = new float[shadowXs.length];
+        set(src);
+    }
+
+
+    /**
+     * Places another glyph, or the same one in another layout, reusing the path and the arrays
+     * @param glyph The glyph to place
+     * @param scale Scale of the slot
+     * @param x Horizontal position of the slot
+     * @param y Vertical position of the slot
+     */
+    public void set(Glyph glyph, float scale, float x, float y) {
+        this.glyph = glyph;
+        this.scale = scale;
+        this.x = x;
+        this.y = y;
+
+        float outlineScale = glyph.hasOutlineBleed() ? scale + 0.04f : scale;
+        float outlineX = glyph.hasOutlineBleed() ? x - 0.3f : x;
+        float outlineY = glyph.hasOutlineBleed() ? y - 0.3f : y;
+        glyph.writeOutline(shapePath, outlineScale, outlineX, outlineY);
+        shapeLeft = glyph.getOutlineMinX() * outlineScale + outlineX;
+        shapeTop = glyph.getOutlineMinY() * outlineScale + outlineY;
+        shapeRight = glyph.getOutlineMaxX() * outlineScale + outlineX;
+        shapeBottom = glyph.getOutlineMaxY() * outlineScale + outlineY;
+
+        int count = glyph.getShadowPointCount();
+        ensureShadowCapacity(count);
+        for (int i = 0; i < count; i++) {
+            shadowXs[i] = glyph.shadowXs[i] * scale + x;
+            shadowYs[i] = glyph.shadowYs[i] * scale + y;
+        }
+
+        left = glyph.getMinX() * scale + x;
+        top = glyph.getMinY() * scale + y;
+        right = glyph.getMaxX() * scale + x;
+        bottom = glyph.getMaxY() * scale + y;
+        centerX = glyph.getCenterX() * scale + x;
+        centerY = glyph.getCenterY() * scale + y;
+    }
+
+
+    /**
+     * Copies another view, e.g. one built in the background, without transforming the glyph again
+     * @param src A view of the same backend
+     */
+    public void set(GlyphView src) {
+        glyph = src.glyph;
+        scale = src.scale;
+        x = src.x;
+        y = src.y;
+
+        shapePath.set(src.shapePath);
+        shapeLeft = src.shapeLeft;
+        shapeTop = src.shapeTop;
+        shapeRight = src.shapeRight;
+        shapeBottom = src.shapeBottom;
+
+        int count = glyph.getShadowPointCount();
+        ensureShadowCapacity(count);
+        System.arraycopy(src.shadowXs, 0, shadowXs, 0, count);
+        System.arraycopy(src.shadowYs, 0, shadowYs, 0, count);
+
+        left = src.left;
+        top = src.top;
+        right = src.right;
+        bottom = src.bottom;
+        centerX = src.centerX;
+        centerY = src.centerY;
+    }
+
+
+    private void ensureShadowCapacity(int count) {
+        if (shadowXs.length < count) {
+            shadowXs = new float[count];
+            shadowYs = new float[count];
+        }
+    }
+
+
+    /**
+     * Returns true if the view was built for this layout
+     */
+    public boolean hasLayout(float _scale, float _x, float _y) {
+        return _scale == scale && _x == x && _y == y;
+    }
+
+
+    public Glyph getGlyph() {
+        return glyph;
+    }
+}
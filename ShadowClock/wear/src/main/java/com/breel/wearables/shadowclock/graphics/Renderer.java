@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+/**
+ * Small drawing interface the dial draws through, so the same face logic runs on the watch
+ * (see CanvasRenderer) and on a workstation (the Java2D backend of the benchmarks module).
+ * <p>
+ * Stateful like a canvas and its paint: the color or gradient, antialiasing, stroke and blur set
+ * last apply to the next draws. Coordinates go through the current transform, gradients too.
+ * Paths and bitmaps are handles created by the renderer, only valid with the same backend.
+ * Pure Java, no Android dependencies.
+ */
+public interface Renderer {
+
+    /**
+     * A path of the backend
+     */
+    interface Path {
+
+        void reset();
+
+        void setEvenOdd(boolean evenOdd);
+
+        void moveTo(float x, float y);
+
+        void lineTo(float x, float y);
+
+        void quadTo(float x1, float y1, float x2, float y2);
+
+        void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3);
+
+        void close();
+
+        /**
+         * Replaces the contents and the fill rule with the ones of another path of this backend
+         */
+        void set(Path src);
+    }
+
+    /**
+     * A bitmap of the backend. Alpha only bitmaps are drawn tinted by the current color or
+     * gradient, the others as they are.
+     */
+    interface Bitmap {
+
+        int getWidth();
+
+        int getHeight();
+
+        boolean isAlphaOnly();
+
+        void release();
+    }
+
+
+    int getWidth();
+
+    int getHeight();
+
+    Path createPath();
+
+    Bitmap createBitmap(int width, int height, boolean alphaOnly);
+
+    /**
+     * Returns a renderer drawing into a bitmap of this backend
+     */
+    Renderer createRenderer(Bitmap target);
+
+
+    /**
+     * Saves the current transform
+     * @return the count to pass to {@link #restoreToCount(int)}
+     */
+    int save();
+
+    void restoreToCount(int saveCount);
+
+    void translate(float dx, float dy);
+
+    void scale(float sx, float sy);
+
+    void rotate(float degrees, float px, float py);
+
+
+    /**
+     * Paints with a solid color, drops the gradient
+     */
+    void setColor(int argb);
+
+    /**
+     * Paints with a clamped radial gradient
+     * @param colors The colors, not modified and only read during the call
+     * @param stops The positions of the colors, from 0 to 1
+     */
+    void setRadialGradient(float centerX, float centerY, float radius, int[] colors, float[] stops);
+
+    void setAntiAlias(boolean antiAlias);
+
+    /**
+     * Strokes the paths with this width, or fills them if 0
+     */
+    void setStrokeWidth(float width);
+
+    /**
+     * Blurs what is drawn next with this radius in pixels, or not if 0
+     */
+    void setBlur(float radius);
+
+
+    /**
+     * Clears the whole target to transparent
+     */
+    void clear();
+
+    /**
+     * Fills the whole target with the current paint
+     */
+    void drawPaint();
+
+    void drawRect(float left, float top, float right, float bottom);
+
+    void drawPath(Path path);
+
+    void drawBitmap(Bitmap bitmap, float left, float top);
+
+    /**
+     * Draws a bitmap scaled into a rect
+     */
+    void drawBitmap(Bitmap bitmap, float left, float top, float right, float bottom);
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.BlurMaskFilter;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+
+import com.breel.wearables.shadowclock.utils.LongLruCache;
+
+/**
+ * Atlas of pre-rendered blurred shadows, one alpha sprite per digit, slot and sun angle bucket
+ * (same keys as {@link ShadowPathCache}).
+ * <p>
+ * Blurring a path is one of the most expensive operations of the software canvas, so the blur
+ * is rendered once in a background thread and the frames just draw the sprite, tinted with the
+ * gradient of the shadow. Sprites are built lazily: a missing sprite is requested and the shadow
+ * is drawn as a path until it's ready. The atlas is bounded by a memory budget in bytes.
+ * <p>
+ * {@link #get}, {@link #request} and the eviction methods must be called from the thread of
+ * the looper given to the constructor (the one drawing the frames). Requests don't allocate on
+ * that thread: every slot has one preallocated request, overwritten by the next one.
+ */
+public class ShadowAtlas implements ShadowSprites {
+
+    private static final String TAG = "ShadowAtlas";
+
+    // Default memory budget of the sprites
+    public static final int DEFAULT_BUDGET_BYTES = 1024 * 1024;
+
+    // Default resolution of the sprites relative to the canvas. The blur hides the upscaling.
+    public static final float DEFAULT_RESOLUTION = 0.5f;
+
+    // Extra space around the path for the blur
+    private static final float BLUR_PADDING = 2.0f;
+
+    private static final int MSG_RENDERED = 1;
+
+    /**
+     * The latest sprite requested for a slot, written by the drawing thread and read by the
+     * worker, both holding its lock
+     */
+    private static final class Request {
+        long key;
+        int generation;
+        final Path path = new Path();
+        float blurRadius;
+        int clipWidth;
+        int clipHeight;
+    }
+
+    /**
+     * A rendered sprite, handed from the worker back to the drawing thread
+     */
+    private static final class Result {
+        final long key;
+        final int slot;
+        final int generation;
+        final Sprite sprite;
+
+        Result(long key, int slot, int generation, Sprite sprite) {
+            this.key = key;
+            this.slot = slot;
+            this.generation = generation;
+            this.sprite = sprite;
+        }
+    }
+
+    private final float resolution;
+    private final LongLruCache<Sprite> sprites;
+
+    private final Request[] requests;
+
+    // Key requested for every slot, to not request it again while it renders
+    private final long[] pendingKeys;
+    private final boolean[] pending;
+
+    // Bumped on every eviction, so sprites rendered for an old layout are dropped
+    private int generation = 0;
+
+    private int clipWidth = 0;
+    private int clipHeight = 0;
+
+    private final Handler resultHandler;
+    private HandlerThread workerThread;
+    private Handler worker;
+
+    // Worker only
+    private final Path renderPath = new Path();
+    private final RectF renderBounds = new RectF();
+    private final Paint renderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private BlurMaskFilter renderBlur;
+    private float renderBlurRadius = -1.0f;
+
+
+    /**
+     * Constructor
+     * @param budgetBytes Max memory used by the sprites
+     * @param maxEntries Max number of sprites
+     * @param slotCount Number of layout slots drawing from the atlas
+     * @param resolution Resolution of the sprites relative to the canvas, up to 1
+     * @param looper Looper of the thread drawing the frames
+     */
+    public ShadowAtlas(int budgetBytes, int maxEntries, int slotCount, float resolution, Looper looper) {
+        this.resolution = resolution;
+        sprites = new LongLruCache<Sprite>(budgetBytes, maxEntries) {
+            @Override
+            protected int sizeOf(long key, Sprite value) {
+                return value.byteCount;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, long key, Sprite oldValue, Sprite newValue) {
+                if (oldValue != newValue && oldValue.bitmap != null) {
+                    oldValue.bitmap.release();
+                }
+            }
+        };
+        requests = new Request[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            requests[i] = new Request();
+        }
+        pendingKeys = new long[slotCount];
+        pending = new boolean[slotCount];
+
+        resultHandler = new Handler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                onRendered((Result) msg.obj);
+                return true;
+            }
+        });
+    }
+
+
+    @Override
+    public Sprite get(long key, float blurRadius) {
+        Sprite sprite = sprites.get(key);
+        if (sprite != null && sprite.blurRadius != blurRadius) {
+            sprites.remove(key);
+            return null;
+        }
+        return sprite;
+    }
+
+
+    @Override
+    public boolean contains(long key) {
+        return sprites.contains(key);
+    }
+
+
+    /**
+     * Requests the sprite of a shadow. Replaces the previous request of the slot if it hasn't
+     * started rendering yet, so only the latest shadow of every slot is rendered. Doesn't
+     * allocate once the worker runs.
+     * @param key The key of the shadow
+     * @param slot The layout slot of the shadow
+     * @param shadowPath The shadow path in canvas coordinates, copied. A path of CanvasRenderer.
+     * @param blurRadius The blur radius in pixels
+     */
+    @Override
+    public void request(long key, int slot, Renderer.Path shadowPath, float blurRadius) {
+        if (pending[slot] && pendingKeys[slot] == key) {
+            return;
+        }
+        ensureWorker();
+
+        Request request = requests[slot];
+        synchronized (request) {
+            request.key = key;
+            request.generation = generation;
+            request.path.set(((CanvasRenderer.CanvasPath) shadowPath).getPath());
+            request.blurRadius = blurRadius;
+            request.clipWidth = clipWidth;
+            request.clipHeight = clipHeight;
+        }
+
+        // A message still queued for the slot renders the request as it is when it's handled
+        if (!worker.hasMessages(slot)) {
+            worker.sendEmptyMessage(slot);
+        }
+        pendingKeys[slot] = key;
+        pending[slot] = true;
+    }
+
+
+    /**
+     * Sets the size of the canvas. Shadows are cropped to it, so the sprites of another size
+     * are dropped.
+     */
+    public void setClipBounds(int width, int height) {
+        if (width != clipWidth || height != clipHeight) {
+            clipWidth = width;
+            clipHeight = height;
+            evictAll();
+        }
+    }
+
+
+    /**
+     * Drops every sprite, and the ones still rendering
+     */
+    public void evictAll() {
+        generation++;
+        sprites.evictAll();
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = false;
+        }
+    }
+
+
+    /**
+     * Drops every sprite and stops the worker thread
+     */
+    public void release() {
+        evictAll();
+        if (workerThread != null) {
+            workerThread.quit();
+            workerThread = null;
+            worker = null;
+        }
+        resultHandler.removeMessages(MSG_RENDERED);
+    }
+
+
+    @Override
+    public float getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Memory of the sprites
+     */
+    public long getByteCount() {
+        return sprites.size();
+    }
+
+    public LongLruCache<Sprite> getSprites() {
+        return sprites;
+    }
+
+
+    private void ensureWorker() {
+        if (worker != null) {
+            return;
+        }
+        workerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        workerThread.start();
+        worker = new Handler(workerThread.getLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                int slot = msg.what;
+                Request request = requests[slot];
+                long key;
+                int requestGeneration;
+                float blurRadius;
+                int requestClipWidth;
+                int requestClipHeight;
+                synchronized (request) {
+                    renderPath.set(request.path);
+                    key = request.key;
+                    requestGeneration = request.generation;
+                    blurRadius = request.blurRadius;
+                    requestClipWidth = request.clipWidth;
+                    requestClipHeight = request.clipHeight;
+                }
+
+                Sprite sprite = render(renderPath, blurRadius, requestClipWidth, requestClipHeight);
+                Result result = new Result(key, slot, requestGeneration, sprite);
+                resultHandler.sendMessage(resultHandler.obtainMessage(MSG_RENDERED, result));
+                return true;
+            }
+        });
+    }
+
+
+    private void onRendered(Result result) {
+        if (result.generation != generation) {
+            if (result.sprite.bitmap != null) {
+                result.sprite.bitmap.release();
+            }
+            return;
+        }
+        if (pendingKeys[result.slot] == result.key) {
+            pending[result.slot] = false;
+        }
+        sprites.put(result.key, result.sprite);
+    }
+
+
+    /**
+     * Renders the blurred path into an alpha bitmap. Runs in the worker thread.
+     */
+    private Sprite render(Path path, float blurRadius, int _clipWidth, int _clipHeight) {
+        float padding = blurRadius * BLUR_PADDING;
+        path.computeBounds(renderBounds, true);
+        float left = Math.max(renderBounds.left - padding, 0.0f);
+        float top = Math.max(renderBounds.top - padding, 0.0f);
+        float right = Math.min(renderBounds.right + padding, _clipWidth);
+        float bottom = Math.min(renderBounds.bottom + padding, _clipHeight);
+
+        int width = (int) Math.ceil((right - left) * resolution);
+        int height = (int) Math.ceil((bottom - top) * resolution);
+        if (width <= 0 || height <= 0) {
+            return new Sprite(null, left, top, blurRadius, 0);
+        }
+
+        if (blurRadius != renderBlurRadius) {
+            renderBlurRadius = blurRadius;
+            renderBlur = (renderBlurRadius > 0.0f) ? new BlurMaskFilter(renderBlurRadius, BlurMaskFilter.Blur.NORMAL) : null;
+            renderPaint.setMaskFilter(renderBlur);
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.scale(resolution, resolution);
+        canvas.translate(-left, -top);
+        canvas.drawPath(path, renderPaint);
+        return new Sprite(new CanvasRenderer.CanvasBitmap(bitmap), left, top, blurRadius, bitmap.getByteCount());
+    }
+}
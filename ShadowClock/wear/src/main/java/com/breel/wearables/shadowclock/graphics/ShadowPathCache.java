@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+import com.breel.wearables.shadowclock.utils.LongLruCache;
+
+/**
+ * LRU cache of finished shadow paths, keyed by digit, layout slot and quantized sun angle.
+ * Evicted paths are recycled for the next shadows. The pool starts with a path per entry, so
+ * the first sweeps don't allocate either, until {@link #trimMemory} drops it.
+ */
+public class ShadowPathCache extends LongLruCache<Renderer.Path> {
+
+    // Rough native size of a shadow path: about a hundred points, their verbs and the object
+    private static final int ESTIMATED_PATH_BYTES = 1024;
+
+    // Creates the paths
+    private final Renderer renderer;
+
+    private final Renderer.Path[] recycledPaths;
+    private int recycledCount = 0;
+
+
+    /**
+     * Constructor
+     * @param _renderer Renderer of the backend the paths are drawn with
+     * @param maxEntries Max number of cached paths
+     */
+    public ShadowPathCache(Renderer _renderer, int maxEntries) {
+        super(maxEntries);
+        renderer = _renderer;
+        recycledPaths = new Renderer.Path[maxEntries];
+        for (int i = 0; i < maxEntries; i++) {
+            recycledPaths[i] = renderer.createPath();
+        }
+        recycledCount = maxEntries;
+    }
+
+
+    /**
+     * Builds the key of a shadow
+     * @param digit The digit drawn in the slot
+     * @param slot The layout slot of the digit
+     * @param angleBucket The quantized sun angle, see SunSweep
+     */
+    public static long key(int digit, int slot, int angleBucket) {
+        return ((long) (digit & 0xFFFF) << 48) | ((long) (slot & 0xFFFF) << 32) | (angleBucket & 0xFFFFFFFFL);
+    }
+
+
+    /**
+     * Returns an empty path to build a new shadow from the pool, or a new one once the pool was
+     * trimmed
+     */
+    public Renderer.Path obtainPath() {
+        if (recycledCount > 0) {
+            Renderer.Path path = recycledPaths[--recycledCount];
+            recycledPaths[recycledCount] = null;
+            path.reset();
+            return path;
+        }
+        return renderer.createPath();
+    }
+
+
+    /**
+     * Estimated memory of the cached and the pooled paths, an upper bound as the paths of the
+     * pool that were never used are counted as full
+     */
+    public long getEstimatedBytes() {
+        return (long) (entryCount() + recycledCount) * ESTIMATED_PATH_BYTES;
+    }
+
+
+    /**
+     * Drops every path, the recycled ones too, so their memory can be reclaimed. The next
+     * shadows allocate their paths until the pool is filled again by evictions.
+     */
+    public void trimMemory() {
+        evictAll();
+        for (int i = 0; i < recycledCount; i++) {
+            recycledPaths[i] = null;
+        }
+        recycledCount = 0;
+    }
+
+
+    @Override
+    protected void entryRemoved(boolean evicted, long key, Renderer.Path oldValue, Renderer.Path newValue) {
+        if (oldValue != newValue && recycledCount < recycledPaths.length) {
+            recycledPaths[recycledCount++] = oldValue;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+/**
+ * Blurred shadows rendered ahead of time, drawn by {@link ShapeShadow} instead of blurring
+ * their paths. Keyed like {@link ShadowPathCache}. Pure Java, see ShadowAtlas for the watch.
+ */
+public interface ShadowSprites {
+
+    /**
+     * A blurred shadow, placed in canvas coordinates
+     */
+    final class Sprite {
+        // Null if the shadow is completely outside the canvas
+        final Renderer.Bitmap bitmap;
+        final float left;
+        final float top;
+        final float blurRadius;
+        final int byteCount;
+
+        public Sprite(Renderer.Bitmap bitmap, float left, float top, float blurRadius, int byteCount) {
+            this.bitmap = bitmap;
+            this.left = left;
+            this.top = top;
+            this.blurRadius = blurRadius;
+            this.byteCount = byteCount;
+        }
+    }
+
+
+    /**
+     * Returns the sprite of a shadow if it's ready, or null
+     * @param key The key of the shadow, see {@link ShadowPathCache#key(int, int, int)}
+     * @param blurRadius The blur radius in pixels the sprite must have
+     */
+    Sprite get(long key, float blurRadius);
+
+    /**
+     * Returns true if the sprite of a shadow is ready, whatever its blur
+     */
+    boolean contains(long key);
+
+    /**
+     * Requests the sprite of a shadow, rendered later
+     * @param key The key of the shadow
+     * @param slot The layout slot of the shadow
+     * @param shadowPath The shadow path in canvas coordinates, copied
+     * @param blurRadius The blur radius in pixels
+     */
+    void request(long key, int slot, Renderer.Path shadowPath, float blurRadius);
+
+    /**
+     * Resolution of the sprites relative to the canvas
+     */
+    float getResolution();
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.graphics;
+
+/**
+ * Builds the shadow outline of a set of polygons lit by a point light, in a single pass.
+ * <p>
+ * The shadow of a polygon is the polygon itself plus one quad for every silhouette edge that
+ * faces away from the light, extruded along the light rays. Instead of joining those quads with
+ * boolean operations, the polygon is walked once and every back facing edge a-b is replaced by
+ * a, a', b', b (where a' and b' are the extruded vertices). Every replaced edge adds a loop with
+ * the same orientation as the contour, so the resulting outline filled with the non-zero winding
+ * rule covers exactly the union of the polygon and its shadow quads.
+ * <p>
+ * Pure Java and allocation free once constructed, so it can run on the JVM.
+ */
+public final class ShadowVolume {
+
+    // Default length of the shadow rays, the same used for the old per edge quads
+    public static final float DEFAULT_EXTRUSION = 600.0f;
+
+    private float[] outXs;
+    private float[] outYs;
+    private int[] outContourEnds;
+
+    private int pointCount = 0;
+    private int contourCount = 0;
+
+
+    /**
+     * Constructor
+     * @param maxVertices Max number of input vertices, across all contours
+     * @param maxContours Max number of input contours
+     */
+    public ShadowVolume(int maxVertices, int maxContours) {
+        outXs = new float[maxOutputPoints(maxVertices)];
+        outYs = new float[maxOutputPoints(maxVertices)];
+        outContourEnds = new int[maxContours];
+    }
+
+
+    /**
+     * Max number of output points for the given number of input vertices: every edge emits
+     * three points at most, plus the starting point of every contour.
+     */
+    public static int maxOutputPoints(int maxVertices) {
+        return maxVertices * 4;
+    }
+
+
+    /**
+     * Computes the shadow outline
+     * @param xs X coordinates of the vertices
+     * @param ys Y coordinates of the vertices
+     * @param contourEnds Exclusive end index of every contour in xs / ys
+     * @param contours Number of contours
+     * @param sunX X position of the light
+     * @param sunY Y position of the light
+     * @param extrusion Length of the shadow rays
+     */
+    public void build(float[] xs, float[] ys, int[] contourEnds, int contours,
+                      float sunX, float sunY, float extrusion) {
+        pointCount = 0;
+        contourCount = 0;
+
+        int start = 0;
+        for (int c = 0; c < contours; c++) {
+            int end = contourEnds[c];
+            if (end - start >= 3) {
+                buildContour(xs, ys, start, end, sunX, sunY, extrusion);
+            }
+            start = end;
+        }
+    }
+
+
+    private void buildContour(float[] xs, float[] ys, int start, int end,
+                              float sunX, float sunY, float extrusion) {
+        // The orientation tells on which side of every edge the outside of the polygon is
+        float orientation = signedArea(xs, ys, start, end) >= 0.0f ? 1.0f : -1.0f;
+
+        emit(xs[start], ys[start]);
+
+        for (int i = start; i < end; i++) {
+            int j = (i == end - 1) ? start : i + 1;
+
+            float ax = xs[i];
+            float ay = ys[i];
+            float bx = xs[j];
+            float by = ys[j];
+
+            // Outward normal dotted with the light direction
+            float facing = orientation * AVector.cross(ax - sunX, ay - sunY, bx - ax, by - ay);
+
+            if (facing > 0.0f) {
+                // Back facing edge: a -> a' -> b' -> b
+                emitExtruded(ax, ay, sunX, sunY, extrusion);
+                emitExtruded(bx, by, sunX, sunY, extrusion);
+            }
+            if (j != start) {
+                emit(bx, by);
+            }
+        }
+
+        outContourEnds[contourCount++] = pointCount;
+    }
+
+
+    private void emitExtruded(float x, float y, float sunX, float sunY, float extrusion) {
+        float dx = x - sunX;
+        float dy = y - sunY;
+        float length = AVector.length(dx, dy);
+        if (length > 0.0f) {
+            float factor = extrusion / length;
+            dx *= factor;
+            dy *= factor;
+        }
+        emit(x + dx, y + dy);
+    }
+
+
+    private void emit(float x, float y) {
+        outXs[pointCount] = x;
+        outYs[pointCount] = y;
+        pointCount++;
+    }
+
+
+    /**
+     * Twice the signed area of a contour (shoelace formula)
+     */
+    static float signedArea(float[] xs, float[] ys, int start, int end) {
+        float area = 0.0f;
+        for (int i = start; i < end; i++) {
+            int j = (i == end - 1) ? start : i + 1;
+            area += xs[i] * ys[j] - xs[j] * ys[i];
+        }
+        return area;
+    }
+
+
+    public float[] getXs() {
+        return outXs;
+    }
+
+    public float[] getYs() {
+        return outYs;
+    }
+
+    public int[] getContourEnds() {
+        return outContourEnds;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public int getContourCount() {
+        return contourCount;
+    }
+}
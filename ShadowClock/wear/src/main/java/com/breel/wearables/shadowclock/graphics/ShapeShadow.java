@@ -16,409 +16,581 @@
 
 package com.breel.wearables.shadowclock.graphics;
 
-import android.content.Context;
-import android.graphics.BlurMaskFilter;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Path;
-import android.graphics.RadialGradient;
-import android.graphics.RectF;
-import android.graphics.Shader;
-import android.util.Log;
-
-import com.breel.wearables.shadowclock.R;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Random;
-import java.util.Vector;
-
-
 /**
  * Graphics util to create the shadow shape of the numbers
+ * <p>
+ * Pure Java: the outlines, cached shadows and ambient rasters are paths and bitmaps of the
+ * renderer given to the constructor, so the same drawing runs on the watch and on the JVM.
  */
 public class ShapeShadow {
 
     private static final boolean DEBUG = false;
-    private static final String TAG = "ShapeShadow";
 
-    private Vector<AVector> vertexArray;
+    // Blur of the shadows, in dp, see setupBlur
+    public static final float SHADOW_BLUR = 3.0f;
 
-    // Sun position vector
-    private AVector tmpSunPositionVector = new AVector(0.0f, 0.0f);
+    // Rough size of the transformed outline path of a view
+    private static final int ESTIMATED_OUTLINE_BYTES = 512;
 
-    // Gradient helper paint
-    Paint gradientHelperPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    // Colors of the rasters and the debug drawing
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
 
-    // Bounds path
-    private Paint boundsPathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private Path boundsPath = new Path();
+    // Current digit placed in this slot, and the views already built for every digit
+    private GlyphView view;
+    private GlyphView[] views = new GlyphView[10];
 
-    private Paint shadowPathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    BlurMaskFilter blurMaskFilter;
+    // Renderer of the backend, creates the paths and the rasters
+    private final Renderer backend;
 
-    private Path shadowPath = new Path();
+    // Bounds path
+    private final Renderer.Path boundsPath;
+
+    private final Renderer.Path shadowPath;
 
     float[] ColorStops = {0.0f, 0.4f, 1.0f};
 
-    private Vector<Path> shadowPaths = new Vector<Path>();
+    // Shadow gradient, centered on the digit
+    private int[] gradientColors = {0x00000000, 0x00000000, 0x00000000};
+    private float gradientRadius = 1.0f;
+    private boolean hasGradient = false;
+
+    private ShadowVolume shadowVolume;
+    private int maxShadowPoints = 0;
+    private int maxShadowContours = 0;
 
-    // Shape
-    private Paint shapePathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private Path shapePath = new Path();
+    // Shape, its color and style in the current mode
     private int shapeColor;
+    private int shapeDrawColor = WHITE;
+    private boolean shapeAntiAlias = true;
+    private float shapeStrokeWidth = 0.0f;
+
+    // Shape colors of the ambient modes
+    private final int ambientColor;
+    private final int lowBitColor;
+
+    // Ambient variants
+    private static final int AMBIENT_NONE = -1;
+    private static final int AMBIENT_NORMAL = 0;
+    private static final int AMBIENT_LOW_BIT = 1;
+    private static final int AMBIENT_1_BIT = 2;
+
+    // Rasters of the digits in the current ambient variant
+    private int ambientVariant = AMBIENT_NONE;
+    private int ambientRasterVariant = AMBIENT_NONE;
+    private Renderer.Bitmap[] ambientRasters = new Renderer.Bitmap[10];
+    private int[] ambientRasterLeft = new int[10];
+    private int[] ambientRasterTop = new int[10];
 
     private float positionX = 0.0f;
     private float positionY = 0.0f;
     private float scale = 1.0f;
 
-    private float maxX = 0.0f;
-    private float maxY = 0.0f;
-    private float minX = 1000.0f;
-    private float minY = 1000.0f;
-    private float medX = 0.0f;
-    private float medY = 0.0f;
-
     float mDensity;
 
-    // Transformation matrix
-    Matrix pathTransform = new Matrix();
-
-    private String id = "-1";
-
-    Context context;
-
-
-    public ShapeShadow(Context context) {
-        this.context = context;
+    private int digit = -1;
+
+    // Shared cache of finished shadows and the layout slot of this shape in it
+    private ShadowPathCache shadowCache;
+    private int slot = 0;
+
+    // Shared atlas of blurred shadow sprites, drawn instead of the blurred path when ready
+    private ShadowSprites shadowAtlas;
+    private float blurRadius = 0.0f;
+
+    // Requests the sprites of the shadows drawn as paths, off while the sun animates
+    private boolean spriteRequests = true;
+
+
+    /**
+     * Constructor
+     * @param _backend Renderer of the backend the shape is drawn with, creates its paths and rasters
+     * @param _density Density of the screen, scales the blur
+     * @param _ambientColor Color of the shape in ambient mode
+     * @param _lowBitColor Color of the shape in the low bit modes
+     */
+    public ShapeShadow(Renderer _backend, float _density, int _ambientColor, int _lowBitColor) {
+        backend = _backend;
+        boundsPath = backend.createPath();
+        shadowPath = backend.createPath();
+        ambientColor = _ambientColor;
+        lowBitColor = _lowBitColor;
         positionX = 0.0f;
         positionY = 0.0f;
 
-        mDensity = this.context.getResources().getDisplayMetrics().density;
+        mDensity = _density;
 
         setupPaint();
-        vertexArray = new Vector<AVector>();
     }
 
     public int getCurrentValue() {
-        return Integer.parseInt(id);
-    }
-
-    public void parseJSON(String jsonFile) {
-        if (jsonFile != null) {
-            // Load all the JSONs with the numbers information
-            try {
-                JSONObject obj = new JSONObject(loadJSONFromAsset(jsonFile));
-                Log.d(TAG, "SHAPE SHADOW JSON FILE " + jsonFile + ": LOADED");
-
-                id = obj.getString("id");
-
-                JSONArray jsonPathData;
-                JSONArray jsonShadowData;
-
-                if (!id.equals("5")) {
-                    jsonPathData = obj.getJSONArray("path");
-                    jsonShadowData = obj.getJSONArray("shadow");
-
-                    Log.d(TAG, "JSON PATH DATA LENGTH: " + jsonPathData.length() + "");
-                    Log.d(TAG, "JSON SHADOW DATA LENGTH: " + jsonShadowData.length() + "");
-
-                    shapePath.reset();
-                    for (int i = 0; i < jsonPathData.length(); i++) {
-                        try {
-                            JSONObject elem = jsonPathData.getJSONObject(i);
-                            String type = elem.getString("type");
-                            JSONArray data = elem.getJSONArray("data");
-                            if (type.equals("move")) {
-                                shapePath.moveTo((float) data.getInt(0), (float) data.getInt(1));
-                            } else if (type.equals("line")) {
-                                shapePath.lineTo((float) data.getInt(0), (float) data.getInt(1));
-                            } else if (type.equals("bezier")) {
-                                shapePath.cubicTo((float) data.getInt(0), (float) data.getInt(1), (float) data.getInt(2), (float) data.getInt(3), (float) data.getInt(4), (float) data.getInt(5));
-                            }
-                        } catch (JSONException e) {
-                            Log.d(TAG, "JSON ELEM EXCEPTION" + e.getMessage() + "");
-                        }
-                    }
-                    shapePath.close();
-
-                    Random r = new Random();
-                    r.nextGaussian();
-
-
-                    JSONArray holesContainer = obj.getJSONArray("holes");
-                    Path holePath = new Path();
-                    for (int i = 0; i < holesContainer.length(); i++) {
-                        JSONObject jsonInside = holesContainer.getJSONObject(i);
-                        JSONArray hole = jsonInside.getJSONArray("data");
-                        holePath.reset();
-                        for (int j = 0; j < hole.length(); j++) {
-                            try {
-                                JSONObject elem = hole.getJSONObject(j);
-                                String type = elem.getString("type");
-                                JSONArray data = elem.getJSONArray("data");
-                                if (type.equals("move")) {
-                                    holePath.moveTo((float) data.getInt(0), (float) data.getInt(1));
-                                } else if (type.equals("line")) {
-                                    holePath.lineTo((float) data.getInt(0), (float) data.getInt(1));
-                                } else if (type.equals("bezier")) {
-                                    holePath.cubicTo((float) data.getInt(0), (float) data.getInt(1), (float) data.getInt(2), (float) data.getInt(3), (float) data.getInt(4), (float) data.getInt(5));
-                                }
-                            } catch (JSONException e) {
-                                Log.d(TAG, "JSON HOLE EXCEPTION" + e.getMessage() + "");
-                            }
-                        }
-                        holePath.close();
-                        shapePath.op(holePath, Path.Op.DIFFERENCE);
-                    }
-
-                    pathTransform.reset();
-                    pathTransform.setScale(scale + 0.04f, scale + 0.04f);
-                    shapePath.transform(pathTransform);
-                    boundsPath.transform(pathTransform);
-
-                    pathTransform.setTranslate(positionX - 0.3f, positionY - 0.3f);
-                    shapePath.transform(pathTransform);
-                    boundsPath.transform(pathTransform);
-
-                    int shadowTmpX;
-                    int shadowTmpY;
-
-                    shadowPaths.clear();
-                    vertexArray.clear();
-
-                    for (int i = 0; i < jsonShadowData.length(); i += 2) {
-                        shadowTmpX = jsonShadowData.getInt(i);
-                        shadowTmpY = jsonShadowData.getInt(i + 1);
-                        addVertex(shadowTmpX, shadowTmpY);
-                    }
-                } else {
-                    jsonPathData = obj.getJSONArray("path");
-                    jsonShadowData = obj.getJSONArray("shadow");
-
-                    Log.d(TAG, "JSON PATH DATA LENGTH: " + jsonPathData.length() + "");
-                    Log.d(TAG, "JSON SHADOW DATA LENGTH: " + jsonShadowData.length() + "");
-
-                    shapePath.reset();
-                    for (int i = 0; i < jsonPathData.length(); i++) {
-                        JSONArray cords = jsonPathData.getJSONArray(i);
-                        Path chunk = new Path();
-                        chunk.reset();
-                        for (int j = 0; j < cords.length(); j++) {
-                            try {
-                                JSONObject elem = cords.getJSONObject(j);
-                                String type = elem.getString("type");
-                                JSONArray data = elem.getJSONArray("data");
-                                if (type.equals("move")) {
-                                    chunk.moveTo((float) data.getInt(0), (float) data.getInt(1));
-                                } else if (type.equals("line")) {
-                                    chunk.lineTo((float) data.getInt(0), (float) data.getInt(1));
-                                } else if (type.equals("bezier")) {
-                                    chunk.cubicTo((float) data.getInt(0), (float) data.getInt(1), (float) data.getInt(2), (float) data.getInt(3), (float) data.getInt(4), (float) data.getInt(5));
-                                }
-                            } catch (JSONException e) {
-                                Log.d(TAG, "JSON 5 NUMBER ELEM EXCEPTION" + e.getMessage() + "");
-                            }
-                        }
-                        chunk.close();
-                        shapePath.op(chunk, Path.Op.UNION);
-                    }
-
-                    pathTransform.reset();
-                    pathTransform.setScale(scale, scale);
-                    shapePath.transform(pathTransform);
-                    boundsPath.transform(pathTransform);
-
-                    pathTransform.setTranslate(positionX, positionY);
-                    shapePath.transform(pathTransform);
-                    boundsPath.transform(pathTransform);
-
-                    shadowPaths.clear();
-                    vertexArray.clear();
-
-                    int shadowTmpX;
-                    int shadowTmpY;
-                    for (int i = 0; i < jsonShadowData.length(); i++) {
-                        JSONArray coords = jsonShadowData.getJSONArray(i);
-                        for (int j = 0; j < coords.length(); j += 2) {
-                            shadowTmpX = coords.getInt(j);
-                            shadowTmpY = coords.getInt(j + 1);
-                            addVertex((float) shadowTmpX, (float) shadowTmpY);
-                        }
-
-                    }
-                }
-            } catch (JSONException e) {
-                Log.d(TAG, "JSON ROOT EXCEPTION" + e.getMessage() + "");
-            }
+        return digit;
+    }
+
+    public void setShadowCache(ShadowPathCache _cache, int _slot) {
+        shadowCache = _cache;
+        slot = _slot;
+    }
+
+    /**
+     * Draws the blurred shadows from an atlas of sprites. Needs the shadow cache.
+     * @param _atlas The atlas, or null to always blur the path
+     */
+    public void setShadowAtlas(ShadowSprites _atlas) {
+        shadowAtlas = _atlas;
+    }
+
+    /**
+     * Sets if drawing a shadow without a sprite requests it. The sun animation moves to a new
+     * shadow on every frame, its sprites would be ready too late: they're only requested ahead
+     * of time, see {@link #offerShadow}.
+     */
+    public void setSpriteRequests(boolean _spriteRequests) {
+        spriteRequests = _spriteRequests;
+    }
+
+    /**
+     * Shows a digit. The transformed view of every digit is built once per slot, so switching
+     * between digits already seen is just a reference swap.
+     * @param glyph The shared digit geometry, see {@link GlyphRepository}
+     */
+    public void setGlyph(Glyph glyph) {
+        if (glyph == null) {
+            return;
+        }
+        int id = glyph.getId();
+        if (id >= views.length) {
+            GlyphView[] grown = new GlyphView[id + 1];
+            System.arraycopy(views, 0, grown, 0, views.length);
+            views = grown;
+        }
+        GlyphView glyphView = views[id];
+        if (glyphView == null) {
+            glyphView = new GlyphView(glyph, scale, positionX, positionY, backend.createPath());
+            views[id] = glyphView;
+        } else if (glyphView.glyph != glyph) {
+            // The raster of the digit belongs to the glyph of another set
+            releaseAmbientRaster(id);
+            glyphView.set(glyph, scale, positionX, positionY);
+        }
+        view = glyphView;
+        digit = id;
+
+        int points = glyph.getShadowPointCount();
+        int contours = glyph.getShadowContourCount();
+        if (points > maxShadowPoints || contours > maxShadowContours) {
+            maxShadowPoints = Math.max(points, maxShadowPoints);
+            maxShadowContours = Math.max(contours, maxShadowContours);
+            shadowVolume = new ShadowVolume(maxShadowPoints, maxShadowContours);
+        }
+
+        if (DEBUG) {
+            boundsPath.reset();
+            boundsPath.moveTo(view.left, view.top);
+            boundsPath.lineTo(view.right, view.top);
+            boundsPath.lineTo(view.right, view.bottom);
+            boundsPath.lineTo(view.left, view.bottom);
+            boundsPath.close();
+        }
+    }
+
+
+    /**
+     * Copies a view built in the background into the view of this slot for its digit, if it's
+     * for the current layout. The caller keeps its view.
+     * @return true if the slot has the view
+     */
+    public boolean offerView(GlyphView glyphView) {
+        if (glyphView == null || !glyphView.hasLayout(scale, positionX, positionY)) {
+            return false;
+        }
+        int id = glyphView.glyph.getId();
+        if (id < views.length && views[id] != null && views[id].glyph == glyphView.glyph) {
+            return true;
+        }
+        if (id >= views.length) {
+            GlyphView[] grown = new GlyphView[id + 1];
+            System.arraycopy(views, 0, grown, 0, views.length);
+            views = grown;
+        }
+        GlyphView slotView = views[id];
+        if (slotView == null || slotView == view) {
+            // The view shown keeps its glyph until the next setGlyph
+            views[id] = new GlyphView(glyphView, backend.createPath());
+        } else {
+            releaseAmbientRaster(id);
+            slotView.set(glyphView);
+        }
+        return true;
+    }
+
+
+    /**
+     * Caches a shadow built in the background for a view of this slot, and requests its sprite
+     * from the atlas ahead of the first frame drawing it
+     * @param glyphView The view the shadow was built for, see {@link #offerView(GlyphView)}
+     * @param _sunAngleBucket The quantized sun angle of the shadow
+     * @param path The shadow, copied into a path of the cache. The caller keeps it.
+     * @return true if the path was cached
+     */
+    public boolean offerShadow(GlyphView glyphView, int _sunAngleBucket, Renderer.Path path) {
+        if (shadowCache == null || !offerView(glyphView)) {
+            return false;
+        }
+        long key = ShadowPathCache.key(glyphView.glyph.getId(), slot, _sunAngleBucket);
+        if (shadowCache.contains(key)) {
+            return false;
+        }
+        Renderer.Path cachedPath = shadowCache.obtainPath();
+        cachedPath.set(path);
+        shadowCache.put(key, cachedPath);
+        if (shadowAtlas != null && blurRadius > 0.0f && !shadowAtlas.contains(key)) {
+            shadowAtlas.request(key, slot, cachedPath, blurRadius);
+        }
+        return true;
+    }
+
+
+    /**
+     * Drops the views built for the old layout and rebuilds the current one
+     */
+    private void invalidateViews() {
+        for (int i = 0; i < views.length; i++) {
+            views[i] = null;
+        }
+        clearAmbientRasters();
+        if (view != null) {
+            setGlyph(view.glyph);
         }
     }
 
     public void translate(float _x, float _y) {
-        positionX = _x;
-        positionY = _y;
+        if (_x != positionX || _y != positionY) {
+            positionX = _x;
+            positionY = _y;
+            invalidateViews();
+        }
     }
 
     public void scale(float _factor) {
-        scale = _factor;
+        if (_factor != scale) {
+            scale = _factor;
+            invalidateViews();
+        }
     }
 
     public void setShapeColor(int _shapeColor) {
         shapeColor = _shapeColor;
-        shapePathPaint.setColor(shapeColor);
+        shapeDrawColor = shapeColor;
     }
 
     public void setAmbientMode() {
-        shapePathPaint.setStyle(Paint.Style.FILL);
-        shapePathPaint.setColor(this.context.getResources().getColor(R.color.ambientModeTypeface));
-        shapePathPaint.setAntiAlias(true);
+        shapeStrokeWidth = 0.0f;
+        shapeDrawColor = ambientColor;
+        shapeAntiAlias = true;
+        setAmbientVariant(AMBIENT_NORMAL);
     }
 
     public void setLowBitMode() {
-        shapePathPaint.setStyle(Paint.Style.FILL);
-        shapePathPaint.setColor(this.context.getResources().getColor(R.color.lowBitModeTypeface));
-        shapePathPaint.setAntiAlias(false);
+        shapeStrokeWidth = 0.0f;
+        shapeDrawColor = lowBitColor;
+        shapeAntiAlias = false;
+        setAmbientVariant(AMBIENT_LOW_BIT);
     }
 
     public void set1BitMode() {
-        shapePathPaint.setStyle(Paint.Style.STROKE);
-        shapePathPaint.setColor(this.context.getResources().getColor(R.color.lowBitModeTypeface));
-        shapePathPaint.setStrokeWidth(1);
-        shapePathPaint.setAntiAlias(false);
+        shapeStrokeWidth = 1.0f;
+        shapeDrawColor = lowBitColor;
+        shapeAntiAlias = false;
+        setAmbientVariant(AMBIENT_1_BIT);
     }
 
     public void setInteractiveMode() {
-        shapePathPaint.setStyle(Paint.Style.FILL);
-        shapePathPaint.setAntiAlias(true);
+        shapeStrokeWidth = 0.0f;
+        shapeAntiAlias = true;
+        ambientVariant = AMBIENT_NONE;
     }
 
 
-    public void setupBlur(float _amout) {
-        blurMaskFilter = new BlurMaskFilter(_amout * mDensity, BlurMaskFilter.Blur.NORMAL);
-        shadowPathPaint.setMaskFilter(blurMaskFilter);
+    /**
+     * Sets the ambient variant. The rasters of the digits are kept while the variant doesn't
+     * change, also across interactive periods.
+     */
+    private void setAmbientVariant(int variant) {
+        ambientVariant = variant;
+        if (variant != ambientRasterVariant) {
+            clearAmbientRasters();
+            ambientRasterVariant = variant;
+        }
     }
 
-    public void resetBlur() {
-        shadowPathPaint.setMaskFilter(null);
+    private void clearAmbientRasters() {
+        for (int i = 0; i < ambientRasters.length; i++) {
+            releaseAmbientRaster(i);
+        }
     }
 
-    public void addVertex(float x, float y) {
-        x = x * (scale);
-        y = y * (scale);
-
-        if (x > maxX) {
-            maxX = x;
+    private void releaseAmbientRaster(int id) {
+        if (id < ambientRasters.length && ambientRasters[id] != null) {
+            ambientRasters[id].release();
+            ambientRasters[id] = null;
         }
-        if (y > maxY) {
-            maxY = y;
+    }
+
+
+    /**
+     * Memory of the ambient rasters of the digits, alpha only
+     */
+    public long getRasterBytes() {
+        long bytes = 0;
+        for (int i = 0; i < ambientRasters.length; i++) {
+            if (ambientRasters[i] != null) {
+                bytes += (long) ambientRasters[i].getWidth() * ambientRasters[i].getHeight();
+            }
         }
-        if (x < minX) {
-            minX = x;
+        return bytes;
+    }
+
+
+    /**
+     * Estimated memory of the views built for the digits: their vertices and outline
+     */
+    public long getEstimatedViewBytes() {
+        long bytes = 0;
+        for (int i = 0; i < views.length; i++) {
+            if (views[i] != null) {
+                bytes += views[i].glyph.getShadowPointCount() * 8 + ESTIMATED_OUTLINE_BYTES;
+            }
         }
-        if (y < minY) {
-            minY = y;
+        return bytes;
+    }
+
+
+    /**
+     * Drops the ambient rasters and the views of the digits not shown, they're built again
+     * when drawn or shown
+     */
+    public void trimMemory() {
+        clearAmbientRasters();
+        for (int i = 0; i < views.length; i++) {
+            if (views[i] != view) {
+                views[i] = null;
+            }
         }
-        medX = (maxX - minX) / 2 + positionX + minX;
-        medY = (maxY - minY) / 2 + positionY;
+    }
+
 
-        x += positionX;
-        y += positionY;
-        vertexArray.add(new AVector(x, y));
-        shadowPaths.add(new Path());
+    public void setupBlur(float _amout) {
+        blurRadius = _amout * mDensity;
     }
 
+    public void resetBlur() {
+        blurRadius = 0.0f;
+    }
 
+    /**
+     * Sets the gradient of the shadow, centered on the digit when drawn
+     */
     public void calculateGradient(float _radius, int _initColor, int _endColor) {
-        int[] Colors = {_initColor, _initColor, _endColor};
-        shadowPathPaint.setShader(new RadialGradient(medX, medY, _radius, Colors, ColorStops, Shader.TileMode.CLAMP));
+        gradientColors[0] = _initColor;
+        gradientColors[1] = _initColor;
+        gradientColors[2] = _endColor;
+        gradientRadius = _radius;
+        hasGradient = true;
     }
 
 
-    public void drawShape(Canvas canvas) {
-        canvas.drawPath(shapePath, shapePathPaint);
+    public void drawShape(Renderer renderer) {
+        if (view == null) {
+            return;
+        }
+        renderer.setColor(shapeDrawColor);
+        renderer.setAntiAlias(shapeAntiAlias);
+        renderer.setStrokeWidth(shapeStrokeWidth);
+        renderer.setBlur(0.0f);
+        renderer.drawPath(view.shapePath);
         if (DEBUG) {
-            canvas.drawPath(boundsPath, boundsPathPaint);
-            canvas.drawCircle(medX, medY, 5, gradientHelperPaint);
+            renderer.setColor(RED);
+            renderer.setStrokeWidth(2.0f);
+            renderer.drawPath(boundsPath);
+            renderer.setColor(BLUE);
+            renderer.setStrokeWidth(0.0f);
+            renderer.drawRect(view.centerX - 5, view.centerY - 5, view.centerX + 5, view.centerY + 5);
         }
 
     }
 
-    public void drawShadow(Canvas canvas, float _sunPosX, float _sunPosY) {
-        tmpSunPositionVector.setPosition(_sunPosX, _sunPosY);
-        shadowPath.reset();
-        for (int i = 0; i < vertexArray.size(); i++) {
-            Path tmpPath = shadowPaths.get(i);
-            tmpPath.reset();
+    /**
+     * Draws the shape in ambient mode from a raster of the digit, rasterized the first time the
+     * digit is drawn in the current ambient variant. Falls back to the path outside ambient mode.
+     */
+    public void drawAmbientShape(Renderer renderer) {
+        if (view == null) {
+            return;
+        }
+        if (ambientVariant == AMBIENT_NONE || digit >= ambientRasters.length) {
+            drawShape(renderer);
+            return;
+        }
 
-            AVector v1 = vertexArray.get(i);
-            AVector v2 = vertexArray.get(i == getVertCount() - 1 ? 0 : i + 1);
+        Renderer.Bitmap raster = ambientRasters[digit];
+        if (raster == null) {
+            raster = rasterizeShape(digit);
+        }
+        renderer.setColor(shapeDrawColor);
+        renderer.setBlur(0.0f);
+        renderer.drawBitmap(raster, ambientRasterLeft[digit], ambientRasterTop[digit]);
+    }
 
-            tmpPath.moveTo(v2.getX(), v2.getY());
-            tmpPath.lineTo(v1.getX(), v1.getY());
+    /**
+     * Rasterizes the current shape into an alpha bitmap aligned to the pixel grid, so it's
+     * blitted without resampling
+     */
+    private Renderer.Bitmap rasterizeShape(int index) {
+        // One extra pixel for the antialiasing and the stroke
+        int left = (int) Math.floor(view.shapeLeft) - 1;
+        int top = (int) Math.floor(view.shapeTop) - 1;
+        int width = Math.max((int) Math.ceil(view.shapeRight) + 1 - left, 1);
+        int height = Math.max((int) Math.ceil(view.shapeBottom) + 1 - top, 1);
+
+        Renderer.Bitmap raster = backend.createBitmap(width, height, true);
+        Renderer rasterRenderer = backend.createRenderer(raster);
+        rasterRenderer.translate(-left, -top);
+        rasterRenderer.setColor(WHITE);
+        rasterRenderer.setStrokeWidth(shapeStrokeWidth);
+        rasterRenderer.setAntiAlias(shapeAntiAlias);
+        rasterRenderer.setBlur(0.0f);
+        rasterRenderer.drawPath(view.shapePath);
+
+        ambientRasters[index] = raster;
+        ambientRasterLeft[index] = left;
+        ambientRasterTop[index] = top;
+        return raster;
+    }
+
+    public void drawShadow(Renderer renderer, float _sunPosX, float _sunPosY) {
+        buildShadowPath(shadowPath, _sunPosX, _sunPosY);
+        drawShadowPath(renderer, shadowPath);
+    }
 
-            // Current shadow vertex
-            AVector tmpShadowVector = AVector.sub(v1, tmpSunPositionVector);
-            tmpShadowVector.normalize();
-            tmpShadowVector.multiply(600.0f);
-            tmpShadowVector.add(v1);
+    /**
+     * Draws the shadow, reusing the cached path for the same digit, slot and sun angle if any.
+     * The sun position must be the one of the angle bucket.
+     */
+    public void drawShadow(Renderer renderer, float _sunPosX, float _sunPosY, int _sunAngleBucket) {
+        if (shadowCache == null) {
+            drawShadow(renderer, _sunPosX, _sunPosY);
+            return;
+        }
 
-            tmpPath.lineTo(tmpShadowVector.getX(), tmpShadowVector.getY());
+        // Without blur the path is cheap, and sharper than a sprite
+        long key = ShadowPathCache.key(digit, slot, _sunAngleBucket);
+        if (shadowAtlas != null && blurRadius > 0.0f && hasGradient && view != null) {
+            ShadowSprites.Sprite sprite = shadowAtlas.get(key, blurRadius);
+            if (sprite != null) {
+                drawShadowSprite(renderer, sprite);
+                return;
+            }
+        }
 
-            // Current shadow vertex
-            tmpShadowVector = AVector.sub(v2, tmpSunPositionVector);
-            tmpShadowVector.normalize();
-            tmpShadowVector.multiply(600.0f);
-            tmpShadowVector.add(v2);
+        Renderer.Path path = shadowCache.get(key);
+        if (path == null) {
+            path = shadowCache.obtainPath();
+            buildShadowPath(path, _sunPosX, _sunPosY);
+            shadowCache.put(key, path);
+        }
+        if (shadowAtlas != null && blurRadius > 0.0f && spriteRequests) {
+            shadowAtlas.request(key, slot, path, blurRadius);
+        }
+        drawShadowPath(renderer, path);
+    }
 
-            tmpPath.lineTo(tmpShadowVector.getX(), tmpShadowVector.getY());
-            tmpPath.close();
+    /**
+     * Fills a shadow path with the gradient, blurred
+     */
+    private void drawShadowPath(Renderer renderer, Renderer.Path path) {
+        if (view == null) {
+            return;
+        }
+        renderer.setRadialGradient(view.centerX, view.centerY, gradientRadius, gradientColors, ColorStops);
+        renderer.setAntiAlias(true);
+        renderer.setStrokeWidth(0.0f);
+        renderer.setBlur(blurRadius);
+        renderer.drawPath(path);
+        renderer.setBlur(0.0f);
+    }
 
-            shadowPath.op(tmpPath, Path.Op.UNION);
+    /**
+     * Draws a sprite of the atlas tinted with the shadow gradient
+     */
+    private void drawShadowSprite(Renderer renderer, ShadowSprites.Sprite sprite) {
+        if (sprite.bitmap == null) {
+            return;
         }
-        canvas.drawPath(shadowPath, shadowPathPaint);
+        float resolution = shadowAtlas.getResolution();
+
+        int saveCount = renderer.save();
+        renderer.translate(sprite.left, sprite.top);
+        renderer.scale(1.0f / resolution, 1.0f / resolution);
+
+        // The gradient in the sprite space
+        renderer.setRadialGradient((view.centerX - sprite.left) * resolution, (view.centerY - sprite.top) * resolution,
+                gradientRadius * resolution, gradientColors, ColorStops);
+        renderer.setAntiAlias(true);
+        renderer.setBlur(0.0f);
+        renderer.drawBitmap(sprite.bitmap, 0.0f, 0.0f);
+        renderer.restoreToCount(saveCount);
     }
 
-    public int getVertCount() {
-        return vertexArray.size();
+    private void buildShadowPath(Renderer.Path shadowPath, float _sunPosX, float _sunPosY) {
+        buildShadowPath(shadowPath, view, shadowVolume, _sunPosX, _sunPosY);
     }
 
-    private String loadJSONFromAsset(String file) {
-        String json = null;
-        try {
-            InputStream is = this.context.getAssets().open("json_lowpoly/" + file);
-            int size = is.available();
-            byte[] buffer = new byte[size];
-            is.read(buffer);
-            is.close();
-            json = new String(buffer, "UTF-8");
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            return null;
+    /**
+     * Builds the shadow of a view into a path, with a volume big enough for its glyph.
+     * Doesn't touch any slot state, so it also runs in the background.
+     */
+    public static void buildShadowPath(Renderer.Path shadowPath, GlyphView view, ShadowVolume shadowVolume, float _sunPosX, float _sunPosY) {
+        shadowPath.reset();
+        if (view != null && shadowVolume != null) {
+            // Single pass outline of the shape and its shadow, filled with the non-zero rule
+            shadowVolume.build(view.shadowXs, view.shadowYs, view.glyph.shadowContourEnds, view.glyph.getShadowContourCount(),
+                    _sunPosX, _sunPosY, ShadowVolume.DEFAULT_EXTRUSION);
+
+            float[] xs = shadowVolume.getXs();
+            float[] ys = shadowVolume.getYs();
+            int[] ends = shadowVolume.getContourEnds();
+            int start = 0;
+            for (int c = 0; c < shadowVolume.getContourCount(); c++) {
+                shadowPath.moveTo(xs[start], ys[start]);
+                for (int i = start + 1; i < ends[c]; i++) {
+                    shadowPath.lineTo(xs[i], ys[i]);
+                }
+                shadowPath.close();
+                start = ends[c];
+            }
         }
-        return json;
     }
 
-    private void setupPaint() {
-        boundsPathPaint.setColor(Color.RED);
-        boundsPathPaint.setStyle(Paint.Style.STROKE);
-        boundsPathPaint.setStrokeWidth(2);
+    public float getScale() {
+        return scale;
+    }
 
-        shapePathPaint.setColor(Color.WHITE);
-        shapePathPaint.setStyle(Paint.Style.FILL);
+    public float getPositionX() {
+        return positionX;
+    }
 
-        shadowPathPaint.setColor(Color.BLUE);
-        shadowPathPaint.setStyle(Paint.Style.FILL);
+    public float getPositionY() {
+        return positionY;
+    }
 
-        setupBlur(3.0f);
+    public int getVertCount() {
+        return view != null ? view.glyph.getShadowPointCount() : 0;
+    }
 
-        gradientHelperPaint.setColor(Color.BLUE);
-        gradientHelperPaint.setStyle(Paint.Style.FILL);
+    private void setupPaint() {
+        setupBlur(SHADOW_BLUR);
 
         boundsPath.reset();
         boundsPath.moveTo(0, 0);
@@ -427,10 +599,6 @@ public class ShapeShadow {
         boundsPath.lineTo(0, 100);
         boundsPath.close();
 
-        shapeColor = this.context.getResources().getColor(R.color.ambientModeTypeface);
-    }
-
-    private void computePathBounds(Path _path, RectF _rBounds) {
-        _path.computeBounds(_rBounds, false);
+        shapeColor = ambientColor;
     }
 }
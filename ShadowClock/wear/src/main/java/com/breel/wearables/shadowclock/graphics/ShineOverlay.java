@@ -16,34 +16,31 @@
 
 package com.breel.wearables.shadowclock.graphics;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BlurMaskFilter;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
-import android.graphics.RadialGradient;
-import android.graphics.Shader;
-import android.util.Log;
+import com.breel.wearables.shadowclock.diagnostics.Trace;
 
 /**
  * Graphics util to create the shine of the sun
+ * <p>
+ * In bitmap mode the rotated gradient is painted into a bitmap of the overlay size on every
+ * update, or of a part of it at a lower resolution, scaled up when drawn. The gradients are a
+ * single color fading out, so the bitmap only stores their alpha and the color is applied by
+ * the paint when it's drawn. In direct mode there's no bitmap: the gradient is drawn straight
+ * onto the frame, its center rotated around the center of the overlay. Draws through a
+ * {@link Renderer}, no Android dependencies.
  */
 public class ShineOverlay {
 
     private static final String TAG = "ShineOverlay";
 
-    private Bitmap shine;
-    private Canvas canvas;
+    private Renderer.Bitmap shine;
+    private Renderer canvas;
     private int width, height;
 
-    BlurMaskFilter blurMaskFilter;
-    float mDensity;
-
-    private RadialGradient gradient;
+    // Resolution of the bitmap relative to the overlay size
+    private final float resolution;
 
-    private Paint shinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    float blurRadius = 0.0f;
+    float mDensity;
 
     private float[] ColorPosition = {0.60f, 1.0f};
     int[] Colors = {0x00000000, 0x00000000};
@@ -51,20 +48,35 @@ public class ShineOverlay {
     private float shineAngle = 0.0f;
     private float shineAngleOffset = 0.0f;
 
-    Context context;
-
-    public ShineOverlay(Context context, int width, int height) {
+    // Direct mode
+    private final boolean direct;
+
+    // Center and radius of the gradient, in overlay space
+    private float gradientRadius = 300.0f;
+    private float gradientCenterX;
+    private float gradientCenterY;
+
+    /**
+     * Constructor
+     * @param renderer Renderer of the frames, creates the bitmap in bitmap mode
+     * @param width Width of the overlay
+     * @param height Height of the overlay
+     * @param direct true to draw straight onto the frame, false to use a bitmap
+     * @param resolution Resolution of the bitmap relative to the overlay size, 1 in direct mode
+     * @param density Density of the screen, scales the blur
+     */
+    public ShineOverlay(Renderer renderer, int width, int height, boolean direct, float resolution, float density) {
         this.width = width;
         this.height = height;
-        shine = Bitmap.createBitmap(this.width, this.height, Bitmap.Config.ARGB_8888);
-        canvas = new Canvas(shine);
-
-        this.context = context;
-        mDensity = this.context.getResources().getDisplayMetrics().density;
-    }
-
-    private float map(float value, float low1, float high1, float low2, float high2) {
-        return low2 + (value - low1) * (high2 - low2) / (high1 - low1);
+        this.direct = direct;
+        this.resolution = direct ? 1.0f : resolution;
+        if (!direct) {
+            shine = renderer.createBitmap(Math.max(1, Math.round(this.width * this.resolution)),
+                    Math.max(1, Math.round(this.height * this.resolution)), true);
+            canvas = renderer.createRenderer(shine);
+        }
+
+        mDensity = density;
     }
 
     public int getWidth() {
@@ -77,36 +89,82 @@ public class ShineOverlay {
 
     public void updateAngle(float shineAngle) {
         this.shineAngle = shineAngle;
-        Log.d(TAG, "SHINE ANGLE:" + this.shineAngle + "");
+        if (Trace.ENABLED) {
+            Trace.event(Trace.SHINE_ANGLE, (long) (shineAngle * 100));
+        }
         update();
     }
 
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public float getResolution() {
+        return resolution;
+    }
+
     public void setupBlur(float _amout) {
-        blurMaskFilter = new BlurMaskFilter(_amout * mDensity, BlurMaskFilter.Blur.NORMAL);
-        shinePaint.setMaskFilter(blurMaskFilter);
+        blurRadius = _amout * mDensity;
     }
 
     public void resetBlur() {
-        shinePaint.setMaskFilter(null);
+        blurRadius = 0.0f;
     }
 
+    /**
+     * Sets the gradient of the overlay
+     */
     public void updateRadialGradient(float _radius, int initColor, int finalColor, float _initPosition, float _finalPosition) {
         Colors[0] = initColor;
         Colors[1] = finalColor;
         ColorPosition[0] = _initPosition;
         ColorPosition[1] = _finalPosition;
-        gradient = new android.graphics.RadialGradient(this.width + 150.0f, this.height / 2, _radius, Colors, ColorPosition, Shader.TileMode.CLAMP);
-        shinePaint.setShader(gradient);
+        gradientRadius = _radius;
+        updateGradientCenter();
     }
 
     public void updateRadialGradient(int initColor, int finalColor) {
-        Colors[0] = initColor;
-        Colors[1] = finalColor;
-        gradient = new android.graphics.RadialGradient(this.width + 150.0f, this.height / 2, 300.0f, Colors, ColorPosition, Shader.TileMode.CLAMP);
-        shinePaint.setShader(gradient);
+        updateRadialGradient(300.0f, initColor, finalColor, ColorPosition[0], ColorPosition[1]);
+    }
+
+    /**
+     * Places the gradient next to the overlay. In direct mode it's also rotated around the
+     * center of the overlay.
+     */
+    private void updateGradientCenter() {
+        float distance = this.width + 150.0f - width / 2;
+        if (direct) {
+            double angle = Math.toRadians(shineAngle - shineAngleOffset);
+            gradientCenterX = (float) (width / 2 + distance * Math.cos(angle));
+            gradientCenterY = (float) (height / 2 + distance * Math.sin(angle));
+        } else {
+            gradientCenterX = width / 2 + distance;
+            gradientCenterY = height / 2;
+        }
+    }
+
+    /**
+     * Releases the bitmap, if any. The overlay can't be drawn afterwards.
+     */
+    public void release() {
+        if (shine != null) {
+            shine.release();
+            shine = null;
+            canvas = null;
+        }
     }
 
-    public Bitmap getBitmap() {
+    /**
+     * Memory of the bitmap, 0 in direct mode
+     */
+    public long getByteCount() {
+        if (shine == null) {
+            return 0;
+        }
+        return (long) shine.getWidth() * shine.getHeight() * (shine.isAlphaOnly() ? 1 : 4);
+    }
+
+    public Renderer.Bitmap getBitmap() {
         return shine;
     }
 
@@ -119,12 +177,70 @@ public class ShineOverlay {
     }
 
     public void update() {
-        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-        canvas.save();
-        canvas.translate(width / 2, height / 2);
-        canvas.rotate(shineAngle - shineAngleOffset);
-        canvas.translate(-width / 2, -height / 2);
-        canvas.drawRect(0, 0, this.width, this.height, shinePaint);
-        canvas.restore();
+        updateGradientCenter();
+        if (direct) {
+            return;
+        }
+
+        canvas.clear();
+        int saveCount = canvas.save();
+        canvas.scale(resolution, resolution);
+        canvas.rotate(shineAngle - shineAngleOffset, width / 2, height / 2);
+        drawGradient(canvas);
+        canvas.restoreToCount(saveCount);
+    }
+
+
+    /**
+     * Draws the overlay scaled into a rect of the frame
+     */
+    public void draw(Renderer target, float left, float top, float right, float bottom) {
+        if (!direct) {
+            setupTint(target);
+            target.drawBitmap(shine, left, top, right, bottom);
+            return;
+        }
+        int saveCount = target.save();
+        target.translate(left, top);
+        target.scale((right - left) / width, (bottom - top) / height);
+        drawGradient(target);
+        target.restoreToCount(saveCount);
+    }
+
+    /**
+     * Draws the overlay unscaled at a position of the frame
+     */
+    public void draw(Renderer target, float left, float top) {
+        if (!direct) {
+            setupTint(target);
+            if (resolution != 1.0f) {
+                target.drawBitmap(shine, left, top, left + width, top + height);
+            } else {
+                target.drawBitmap(shine, left, top);
+            }
+            return;
+        }
+        int saveCount = target.save();
+        target.translate(left, top);
+        drawGradient(target);
+        target.restoreToCount(saveCount);
+    }
+
+    /**
+     * Sets the color of the gradient, opaque, as the paint of the alpha bitmap
+     */
+    private void setupTint(Renderer target) {
+        target.setColor(0xFF000000 | (Colors[0] & 0x00FFFFFF));
+        target.setAntiAlias(true);
+        target.setBlur(0.0f);
+    }
+
+    private void drawGradient(Renderer target) {
+        target.setRadialGradient(gradientCenterX, gradientCenterY, gradientRadius, Colors, ColorPosition);
+        target.setAntiAlias(true);
+        target.setStrokeWidth(0.0f);
+        target.setBlur(blurRadius);
+        target.drawRect(0, 0, this.width, this.height);
+        target.setBlur(0.0f);
     }
 }
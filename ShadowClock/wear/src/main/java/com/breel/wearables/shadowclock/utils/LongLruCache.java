@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.utils;
+
+/**
+ * Bounded LRU cache with primitive long keys.
+ * <p>
+ * Same contract as {@link android.util.LruCache} (sizeOf, entryRemoved, hit and miss counters)
+ * but keys are never boxed and the entries live in preallocated arrays, so lookups and
+ * insertions don't allocate. Not thread safe, use it from a single thread.
+ */
+public class LongLruCache<V> {
+
+    private static final int NONE = -1;
+
+    private final int maxEntries;
+    private int maxSize;
+    private int size = 0;
+
+    // Entry slots
+    private final long[] keys;
+    private final Object[] values;
+    private final int[] sizes;
+
+    // Recently used list, from the most recent (head) to the eldest (tail)
+    private final int[] prev;
+    private final int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+
+    // Hash buckets, chained through the slots
+    private final int[] buckets;
+    private final int[] chain;
+
+    // Free slots
+    private final int[] freeSlots;
+    private int freeCount;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+    private int putCount = 0;
+    private int evictionCount = 0;
+
+
+    /**
+     * Constructor
+     * @param maxSize Max sum of the sizes of the entries, see {@link #sizeOf(long, Object)}
+     * @param maxEntries Max number of entries
+     */
+    public LongLruCache(int maxSize, int maxEntries) {
+        if (maxSize <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("maxSize and maxEntries must be > 0");
+        }
+        this.maxSize = maxSize;
+        this.maxEntries = maxEntries;
+
+        keys = new long[maxEntries];
+        values = new Object[maxEntries];
+        sizes = new int[maxEntries];
+        prev = new int[maxEntries];
+        next = new int[maxEntries];
+        chain = new int[maxEntries];
+
+        int bucketCount = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        buckets = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = NONE;
+        }
+
+        freeSlots = new int[maxEntries];
+        for (int i = 0; i < maxEntries; i++) {
+            freeSlots[i] = maxEntries - 1 - i;
+        }
+        freeCount = maxEntries;
+    }
+
+
+    /**
+     * Constructor for caches where every entry has size 1
+     * @param maxEntries Max number of entries
+     */
+    public LongLruCache(int maxEntries) {
+        this(maxEntries, maxEntries);
+    }
+
+
+    /**
+     * Returns the value for the key and moves it to the head of the queue, or null
+     */
+    @SuppressWarnings("unchecked")
+    public final V get(long key) {
+        int slot = findSlot(key);
+        if (slot == NONE) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        moveToHead(slot);
+        return (V) values[slot];
+    }
+
+
+    /**
+     * Returns true if the key is cached, without touching its position or the counters
+     */
+    public final boolean contains(long key) {
+        return findSlot(key) != NONE;
+    }
+
+
+    /**
+     * Caches the value for the key, evicting the eldest entries if needed
+     * @return the previous value for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public final V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        putCount++;
+
+        V previous = null;
+        int slot = findSlot(key);
+        if (slot != NONE) {
+            previous = (V) values[slot];
+            size -= sizes[slot];
+            unlink(slot);
+            removeFromBucket(slot);
+            freeSlots[freeCount++] = slot;
+        }
+
+        int entrySize = safeSizeOf(key, value);
+        trimToSize(maxSize - entrySize);
+        if (freeCount == 0) {
+            evictEldest();
+        }
+
+        slot = freeSlots[--freeCount];
+        keys[slot] = key;
+        values[slot] = value;
+        sizes[slot] = entrySize;
+        size += entrySize;
+
+        int bucket = bucketOf(key);
+        chain[slot] = buckets[bucket];
+        buckets[bucket] = slot;
+        linkAtHead(slot);
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, value);
+        }
+        return previous;
+    }
+
+
+    /**
+     * Removes the entry for the key
+     * @return the removed value, or null
+     */
+    @SuppressWarnings("unchecked")
+    public final V remove(long key) {
+        int slot = findSlot(key);
+        if (slot == NONE) {
+            return null;
+        }
+        V value = (V) values[slot];
+        release(slot);
+        entryRemoved(false, key, value, null);
+        return value;
+    }
+
+
+    /**
+     * Removes the eldest entries until the total size is at or below the requested size
+     * @param maxSize The target size, or -1 to evict everything
+     */
+    public final void trimToSize(int maxSize) {
+        while (size > maxSize && tail != NONE) {
+            evictEldest();
+        }
+        if (maxSize < 0) {
+            while (tail != NONE) {
+                evictEldest();
+            }
+        }
+    }
+
+
+    /**
+     * Changes the max size, evicting entries if the cache no longer fits
+     */
+    public final void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+
+    /**
+     * Clears the cache, calling {@link #entryRemoved} on each removed entry
+     */
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+
+    /**
+     * Size of an entry in user defined units, 1 by default.
+     */
+    protected int sizeOf(long key, V value) {
+        return 1;
+    }
+
+
+    /**
+     * Called for entries that have been evicted or removed, e.g. to recycle their value.
+     * @param evicted true if the entry was removed to make space
+     * @param newValue The new value for the key if it was replaced, null otherwise
+     */
+    protected void entryRemoved(boolean evicted, long key, V oldValue, V newValue) {
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void evictEldest() {
+        int slot = tail;
+        long key = keys[slot];
+        V value = (V) values[slot];
+        release(slot);
+        evictionCount++;
+        entryRemoved(true, key, value, null);
+    }
+
+    private void release(int slot) {
+        size -= sizes[slot];
+        unlink(slot);
+        removeFromBucket(slot);
+        values[slot] = null;
+        freeSlots[freeCount++] = slot;
+    }
+
+    private int safeSizeOf(long key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    private int findSlot(long key) {
+        int slot = buckets[bucketOf(key)];
+        while (slot != NONE) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = chain[slot];
+        }
+        return NONE;
+    }
+
+    private int bucketOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (buckets.length - 1);
+    }
+
+    private void removeFromBucket(int slot) {
+        int bucket = bucketOf(keys[slot]);
+        int current = buckets[bucket];
+        if (current == slot) {
+            buckets[bucket] = chain[slot];
+            return;
+        }
+        while (current != NONE) {
+            if (chain[current] == slot) {
+                chain[current] = chain[slot];
+                return;
+            }
+            current = chain[current];
+        }
+    }
+
+    private void linkAtHead(int slot) {
+        prev[slot] = NONE;
+        next[slot] = head;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        head = slot;
+        if (tail == NONE) {
+            tail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            head = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        } else {
+            tail = prev[slot];
+        }
+    }
+
+    private void moveToHead(int slot) {
+        if (head != slot) {
+            unlink(slot);
+            linkAtHead(slot);
+        }
+    }
+
+
+    public final int size() {
+        return size;
+    }
+
+    public final int maxSize() {
+        return maxSize;
+    }
+
+    public final int entryCount() {
+        return maxEntries - freeCount;
+    }
+
+    public final int maxEntries() {
+        return maxEntries;
+    }
+
+    public final int hitCount() {
+        return hitCount;
+    }
+
+    public final int missCount() {
+        return missCount;
+    }
+
+    public final int putCount() {
+        return putCount;
+    }
+
+    public final int evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public final String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("LongLruCache[entries=%d/%d,size=%d/%d,hits=%d,misses=%d,hitRate=%d%%]",
+                entryCount(), maxEntries, size, maxSize, hitCount, missCount, hitPercent);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 B-Reel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.breel.wearables.shadowclock.utils;
+
+import java.util.TimeZone;
+
+/**
+ * Wall clock time of the watch face, replacing android.text.format.Time.
+ * <p>
+ * The offset of the time zone is cached together with the interval where it's valid (up to the
+ * next change of the offset), so {@link #setToNow()} is integer arithmetic on the current time and
+ * doesn't allocate. The time comes from a {@link TimeSource}, which can be replaced to drive the
+ * face at a simulated time. Pure Java, not thread safe.
+ */
+public class WallClock {
+
+    /**
+     * Source of the current time in milliseconds since the epoch
+     */
+    public interface TimeSource {
+        long currentTimeMillis();
+    }
+
+    public static final TimeSource SYSTEM = new TimeSource() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long DAY_MILLIS = 24 * 60 * MINUTE_MILLIS;
+
+    // How far ahead transitions are looked for, the offset is looked up again after that
+    private static final int TRANSITION_SEARCH_DAYS = 400;
+
+    // 24h to 12h hours
+    private static final int[] HOURS_12 = {12, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    // Current local time, same meaning as the fields of android.text.format.Time
+    public int hour;
+    public int minute;
+    public int second;
+
+    private TimeSource source;
+    private TimeZone zone;
+
+    // Offset of the zone and the interval [offsetStart, offsetEnd) where it's valid
+    private int offset;
+    private long offsetStart = Long.MAX_VALUE;
+    private long offsetEnd = Long.MIN_VALUE;
+
+
+    public WallClock() {
+        this(SYSTEM, TimeZone.getDefault());
+    }
+
+
+    public WallClock(TimeSource _source, TimeZone _zone) {
+        source = _source;
+        zone = _zone;
+    }
+
+
+    /**
+     * Changes the source of the time, e.g. to a simulated clock. Call setToNow after.
+     */
+    public void setTimeSource(TimeSource _source) {
+        source = _source;
+    }
+
+
+    /**
+     * Changes the time zone, e.g. after ACTION_TIMEZONE_CHANGED. Call setToNow after.
+     */
+    public void setTimeZone(TimeZone _zone) {
+        zone = _zone;
+        offsetStart = Long.MAX_VALUE;
+        offsetEnd = Long.MIN_VALUE;
+    }
+
+
+    /**
+     * Sets hour, minute and second to the current local time
+     */
+    public void setToNow() {
+        set(source.currentTimeMillis());
+    }
+
+
+    /**
+     * Sets hour, minute and second to the local time of an instant
+     */
+    public void set(long millis) {
+        if (millis < offsetStart || millis >= offsetEnd) {
+            updateOffset(millis);
+        }
+
+        long local = millis + offset;
+        long days = local / DAY_MILLIS;
+        if (local % DAY_MILLIS < 0) {
+            days--;
+        }
+        int millisOfDay = (int) (local - days * DAY_MILLIS);
+        int minuteOfDay = millisOfDay / (int) MINUTE_MILLIS;
+
+        hour = minuteOfDay / 60;
+        minute = minuteOfDay % 60;
+        second = (millisOfDay / 1000) % 60;
+    }
+
+
+    /**
+     * Hour of the current time, 1 to 12 in 12 hour mode
+     */
+    public int getHour(boolean is24hours) {
+        return toDisplayHour(hour, is24hours);
+    }
+
+
+    /**
+     * Maps an hour from 0 to 23 to the one shown, 1 to 12 in 12 hour mode
+     */
+    public static int toDisplayHour(int hour, boolean is24hours) {
+        return is24hours ? hour : HOURS_12[hour];
+    }
+
+
+    /**
+     * Minutes since midnight of the current time
+     */
+    public int getMinuteOfDay() {
+        return hour * 60 + minute;
+    }
+
+
+    public int getOffset() {
+        return offset;
+    }
+
+
+    /**
+     * Instant of the next change of the zone offset found by the last lookup, or the end of the
+     * searched interval if there isn't one
+     */
+    public long getOffsetEnd() {
+        return offsetEnd;
+    }
+
+
+    /**
+     * Looks up the offset at an instant and the interval where it doesn't change. The zone only
+     * gives the offset at a given instant, so transitions are found stepping a day at a time and
+     * then bisecting within the day. Zones without daylight time are searched too: useDaylightTime
+     * only describes the current rules, not changes of the standard offset like Moscow's in 2014.
+     */
+    private void updateOffset(long millis) {
+        offset = zone.getOffset(millis);
+        offsetStart = millis;
+
+        long low = millis;
+        for (int day = 1; day <= TRANSITION_SEARCH_DAYS; day++) {
+            long high = millis + day * DAY_MILLIS;
+            if (zone.getOffset(high) != offset) {
+                // The offset changes in (low, high], bisect to the millisecond
+                while (high - low > 1) {
+                    long middle = low + (high - low) / 2;
+                    if (zone.getOffset(middle) == offset) {
+                        low = middle;
+                    } else {
+                        high = middle;
+                    }
+                }
+                offsetEnd = high;
+                return;
+            }
+            low = high;
+        }
+        offsetEnd = low;
+    }
+}